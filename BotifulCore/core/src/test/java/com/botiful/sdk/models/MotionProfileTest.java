@@ -0,0 +1,83 @@
+package com.botiful.sdk.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.botiful.sdk.models.MotionProfile.Shape;
+
+public class MotionProfileTest {
+	@Test
+	public void trapezoidalSpeedProfile() {
+		MotionProfile profile = MotionProfile.speed(Shape.TRAPEZOIDAL, 6, 1000, 200, 10);
+		assertFalse(profile.isPositionProfile());
+		assertEquals(10, profile.getTickMillis());
+		assertEquals(101, profile.getLength());
+		assertEquals(0, profile.getValue(0), 0);
+		// linear ramp up, hold, ramp down to zero
+		assertEquals(3, profile.getValue(10), 1e-4f);
+		assertEquals(6, profile.getValue(20), 1e-4f);
+		assertEquals(6, profile.getValue(50), 0);
+		assertEquals(3, profile.getValue(90), 1e-4f);
+		assertEquals(0, profile.getFinalValue(), 0);
+		assertEquals(0, profile.getVelocity(50), 0);
+	}
+
+	@Test
+	public void speedProfileLengthIsRoundedUp() {
+		MotionProfile profile = MotionProfile.speed(Shape.S_CURVE, -4, 1005, 2000, 10);
+		assertEquals(102, profile.getLength());
+		assertEquals(0, profile.getFinalValue(), 0);
+		// the ramps take at most half the move each
+		float peak = 0;
+		for (int i=0; i<profile.getLength(); i++) {
+			assertTrue(profile.getValue(i) <= 0 && profile.getValue(i) >= -4);
+			peak = Math.min(peak, profile.getValue(i));
+		}
+		assertEquals(-4, peak, .01f);
+	}
+
+	@Test
+	public void positionProfileReachesTheTargetWithinTheLimits() {
+		for (Shape shape : Shape.values()) {
+			MotionProfile profile = MotionProfile.position(shape, .2f, .6f, .5f, 2, 10);
+			assertTrue(profile.isPositionProfile());
+			assertEquals(.2f, profile.getValue(0), 1e-6f);
+			assertEquals(.6f, profile.getFinalValue(), 0);
+			assertEquals(0, profile.getVelocity(profile.getLength()-1), 0);
+			float peakVelocity = 0;
+			for (int i=1; i<profile.getLength(); i++) {
+				assertTrue(profile.getValue(i) >= profile.getValue(i-1)-1e-6f);
+				assertTrue(profile.getVelocity(i) <= .5f+1e-6f);
+				peakVelocity = Math.max(peakVelocity, profile.getVelocity(i));
+			}
+			assertEquals(.5f, peakVelocity, 1e-6f);
+			// ramps of .25s and a cruise of .55s, within a tick
+			assertEquals(1050, (profile.getLength()-1)*profile.getTickMillis(), profile.getTickMillis());
+		}
+	}
+
+	@Test
+	public void shortMovesAreTriangular() {
+		MotionProfile profile = MotionProfile.position(Shape.TRAPEZOIDAL, .5f, .48f, .5f, 2, 10);
+		assertEquals(.48f, profile.getFinalValue(), 0);
+		// sqrt(.02/2)=.1s to accelerate up to .2/s, .1s to stop, within a tick
+		assertEquals(200, (profile.getLength()-1)*profile.getTickMillis(), profile.getTickMillis());
+		float peakVelocity = 0;
+		for (int i=0; i<profile.getLength(); i++) {
+			assertTrue(profile.getVelocity(i) <= 0);
+			peakVelocity = Math.min(peakVelocity, profile.getVelocity(i));
+		}
+		assertEquals(-.2f, peakVelocity, 1e-3f);
+	}
+
+	@Test
+	public void zeroDistanceIsASingleSetpoint() {
+		MotionProfile profile = MotionProfile.position(Shape.S_CURVE, .3f, .3f, .5f, 2, 10);
+		assertEquals(1, profile.getLength());
+		assertEquals(.3f, profile.getFinalValue(), 0);
+		assertEquals(0, profile.getVelocity(0), 0);
+	}
+}
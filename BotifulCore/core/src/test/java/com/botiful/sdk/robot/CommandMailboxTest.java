@@ -0,0 +1,40 @@
+package com.botiful.sdk.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CommandMailboxTest {
+	@Test
+	public void emptyMailboxGivesNothing() {
+		CommandMailbox<String> mailbox = new CommandMailbox<String>();
+		assertFalse(mailbox.hasCommand());
+		assertNull(mailbox.take());
+	}
+
+	@Test
+	public void onlyTheLatestCommandIsTaken() {
+		CommandMailbox<String> mailbox = new CommandMailbox<String>();
+		mailbox.post("forward");
+		mailbox.post("left");
+		mailbox.post("stop");
+		assertTrue(mailbox.hasCommand());
+		assertEquals("stop", mailbox.take());
+		assertEquals(2, mailbox.getCoalescedCount());
+		assertNull(mailbox.take());
+		assertFalse(mailbox.hasCommand());
+	}
+
+	@Test
+	public void commandsTakenInTimeAreNotCoalesced() {
+		CommandMailbox<String> mailbox = new CommandMailbox<String>();
+		mailbox.post("forward");
+		assertEquals("forward", mailbox.take());
+		mailbox.post("stop");
+		assertEquals("stop", mailbox.take());
+		assertEquals(0, mailbox.getCoalescedCount());
+	}
+}
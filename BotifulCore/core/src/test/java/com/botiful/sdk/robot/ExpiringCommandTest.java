@@ -0,0 +1,97 @@
+package com.botiful.sdk.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpiringCommandTest {
+	private static final String STOP = "stop";
+
+	private ManualClock clock_;
+	private ExpiringCommand<String> command_;
+
+	@Before
+	public void setUp() {
+		clock_ = new ManualClock();
+		Clock.set(clock_);
+		command_ = new ExpiringCommand<String>(STOP, 100);
+	}
+
+	@After
+	public void tearDown() {
+		Clock.set(Clock.SYSTEM);
+	}
+
+	@Test
+	public void nothingIsLiveBeforeTheFirstPost() {
+		assertFalse(command_.isLive());
+		assertNull(command_.poll(Clock.now()));
+		assertEquals(Long.MAX_VALUE, command_.getNanosUntilDeadline(Clock.now()));
+		assertFalse(command_.keepAlive());
+	}
+
+	@Test
+	public void postedCommandIsPolledOnce() {
+		command_.post("forward");
+		assertTrue(command_.isLive());
+		assertEquals("forward", command_.poll(Clock.now()));
+		assertNull(command_.poll(Clock.now()));
+	}
+
+	@Test
+	public void commandExpiresOnceAfterItsLifetime() {
+		command_.post("forward");
+		command_.poll(Clock.now());
+		clock_.advanceMillis(99);
+		assertNull(command_.poll(Clock.now()));
+		assertEquals(1000000, command_.getNanosUntilDeadline(Clock.now()));
+		clock_.advanceMillis(1);
+		assertEquals(STOP, command_.poll(Clock.now()));
+		assertFalse(command_.isLive());
+		assertEquals(1, command_.getExpiryCount());
+		clock_.advanceMillis(1000);
+		assertNull(command_.poll(Clock.now()));
+		assertEquals(1, command_.getExpiryCount());
+	}
+
+	@Test
+	public void keepAlivePushesTheDeadlineBack() {
+		command_.post("forward", 50);
+		command_.poll(Clock.now());
+		for (int i=0; i<10; i++) {
+			clock_.advanceMillis(40);
+			assertTrue(command_.keepAlive());
+			assertNull(command_.poll(Clock.now()));
+		}
+		assertEquals(50000000, command_.getNanosUntilDeadline(Clock.now()));
+		clock_.advanceMillis(50);
+		assertEquals(STOP, command_.poll(Clock.now()));
+		assertFalse(command_.keepAlive());
+	}
+
+	@Test
+	public void cancelAppliesTheExpiredCommandWithoutExpiry() {
+		command_.post("forward");
+		command_.poll(Clock.now());
+		command_.cancel();
+		assertFalse(command_.isLive());
+		assertEquals(STOP, command_.poll(Clock.now()));
+		clock_.advanceMillis(1000);
+		assertNull(command_.poll(Clock.now()));
+		assertEquals(0, command_.getExpiryCount());
+	}
+
+	@Test
+	public void unpolledCommandStillExpires() {
+		command_.post("forward");
+		clock_.advanceMillis(100);
+		// the control thread was late: the expiry wins over the command it never applied
+		assertEquals(STOP, command_.poll(Clock.now()));
+		assertEquals(1, command_.getExpiryCount());
+	}
+}
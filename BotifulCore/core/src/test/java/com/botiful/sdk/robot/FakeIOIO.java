@@ -0,0 +1,175 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.PwmOutput;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A fake IOIO for the unit tests: PWM and digital outputs record what is written to them, batches are counted.<br />
+ * Only the outputs and the batches are implemented, the other calls return null.
+ */
+final class FakeIOIO implements InvocationHandler {
+	private final Map<Integer, FakePwmOutput> pwmOutputs_ = new HashMap<Integer, FakePwmOutput>();
+	private final Map<Integer, FakeDigitalOutput> digitalOutputs_ = new HashMap<Integer, FakeDigitalOutput>();
+	private final IOIO ioio_;
+	private int batchDepth_;
+	private int batchCount_;
+	private volatile boolean connectionLost_;
+
+	FakeIOIO() {
+		ioio_ = (IOIO) Proxy.newProxyInstance(IOIO.class.getClassLoader(), new Class<?>[] { IOIO.class }, this);
+	}
+
+	/**
+	 * @return the IOIO to pass to the robotic elements
+	 */
+	IOIO getIOIO() {
+		return ioio_;
+	}
+
+	synchronized FakePwmOutput getPwmOutput(int pin) {
+		return pwmOutputs_.get(pin);
+	}
+
+	synchronized FakeDigitalOutput getDigitalOutput(int pin) {
+		return digitalOutputs_.get(pin);
+	}
+
+	/**
+	 * @return the number of outer beginBatch()/endBatch() pairs
+	 */
+	synchronized int getBatchCount() {
+		return batchCount_;
+	}
+
+	/**
+	 * Make all the writes throw ConnectionLostException from now on
+	 */
+	void loseConnection() {
+		connectionLost_ = true;
+	}
+
+	@Override
+	public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (name.equals("openPwmOutput") && args[0] instanceof Integer) {
+			FakePwmOutput output = new FakePwmOutput();
+			pwmOutputs_.put((Integer) args[0], output);
+			return output;
+		}
+		if (name.equals("openDigitalOutput") && args[0] instanceof Integer) {
+			boolean level = args.length > 1 && args[args.length-1] instanceof Boolean && (Boolean) args[args.length-1];
+			FakeDigitalOutput output = new FakeDigitalOutput(level);
+			digitalOutputs_.put((Integer) args[0], output);
+			return output;
+		}
+		if (name.equals("beginBatch")) {
+			checkConnected();
+			batchDepth_++;
+			return null;
+		}
+		if (name.equals("endBatch")) {
+			if (batchDepth_ > 0 && --batchDepth_ == 0) {
+				batchCount_++;
+			}
+			return null;
+		}
+		if (name.equals("getState")) {
+			return connectionLost_?IOIO.State.DEAD:IOIO.State.CONNECTED;
+		}
+		if (name.equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		}
+		if (name.equals("equals")) {
+			return proxy == args[0];
+		}
+		if (name.equals("toString")) {
+			return "FakeIOIO";
+		}
+		return null;
+	}
+
+	private void checkConnected() throws ConnectionLostException {
+		if (connectionLost_) {
+			throw new ConnectionLostException();
+		}
+	}
+
+	/** A PWM output recording the last pulse width and the number of writes */
+	final class FakePwmOutput implements PwmOutput {
+		private volatile float pulseWidth_;
+		private volatile float dutyCycle_;
+		private volatile int writeCount_;
+
+		@Override
+		public void setDutyCycle(float dutyCycle) throws ConnectionLostException {
+			checkConnected();
+			dutyCycle_ = dutyCycle;
+			writeCount_++;
+		}
+
+		@Override
+		public void setPulseWidth(int pulseWidthUs) throws ConnectionLostException {
+			setPulseWidth((float) pulseWidthUs);
+		}
+
+		@Override
+		public void setPulseWidth(float pulseWidthUs) throws ConnectionLostException {
+			checkConnected();
+			pulseWidth_ = pulseWidthUs;
+			writeCount_++;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		float getPulseWidth() {
+			return pulseWidth_;
+		}
+
+		float getDutyCycle() {
+			return dutyCycle_;
+		}
+
+		int getWriteCount() {
+			return writeCount_;
+		}
+	}
+
+	/** A digital output recording the last level and the number of writes */
+	final class FakeDigitalOutput implements DigitalOutput {
+		private volatile boolean level_;
+		private volatile int writeCount_;
+
+		FakeDigitalOutput(boolean level) {
+			level_ = level;
+		}
+
+		@Override
+		public void write(boolean level) throws ConnectionLostException {
+			checkConnected();
+			level_ = level;
+			writeCount_++;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		boolean getLevel() {
+			return level_;
+		}
+
+		int getWriteCount() {
+			return writeCount_;
+		}
+	}
+}
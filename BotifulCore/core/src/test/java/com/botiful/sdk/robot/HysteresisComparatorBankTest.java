@@ -0,0 +1,82 @@
+package com.botiful.sdk.robot;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HysteresisComparatorBankTest {
+	/** boundaries 1, 2 and 3: thresholds at .75/1.25, 1.75/2.25, 2.75/3.25 */
+	private static HysteresisComparatorBank newBank(int maxEvents) {
+		return new HysteresisComparatorBank(new float[] {1, 2, 3}, .5f, maxEvents);
+	}
+
+	@Test
+	public void firstValueSetsTheZoneWithoutEvent() {
+		HysteresisComparatorBank bank = newBank(4);
+		assertEquals(HysteresisComparatorBank.ZONE_UNKNOWN, bank.getZone());
+		assertEquals(4, bank.getZoneCount());
+		assertEquals(HysteresisComparator.EVENT_NONE, bank.inputNewValue(2.5f));
+		assertEquals(2, bank.getZone());
+	}
+
+	@Test
+	public void zoneOnlyChangesPastTheThresholds() {
+		HysteresisComparatorBank bank = newBank(4);
+		bank.inputNewValue(.5f);
+		assertEquals(HysteresisComparator.EVENT_NONE, bank.inputNewValue(1.2f));
+		assertEquals(0, bank.getZone());
+		assertEquals(HysteresisComparator.EVENT_RISING_EDGE, bank.inputNewValue(1.25f));
+		assertEquals(1, bank.getZone());
+		assertEquals(HysteresisComparator.EVENT_NONE, bank.inputNewValue(.8f));
+		assertEquals(1, bank.getZone());
+		assertEquals(HysteresisComparator.EVENT_FALLING_EDGE, bank.inputNewValue(.75f));
+		assertEquals(0, bank.getZone());
+	}
+
+	@Test
+	public void largeStepsCrossSeveralBoundariesAtOnce() {
+		HysteresisComparatorBank bank = newBank(4);
+		bank.inputNewValue(0);
+		assertEquals(HysteresisComparator.EVENT_RISING_EDGE, bank.inputNewValue(5));
+		assertEquals(3, bank.getZone());
+		// below the low threshold of boundary 3 and 2, above the one of boundary 1
+		assertEquals(HysteresisComparator.EVENT_FALLING_EDGE, bank.inputNewValue(1.5f));
+		assertEquals(1, bank.getZone());
+	}
+
+	@Test
+	public void blocksRecordEveryZoneChange() {
+		HysteresisComparatorBank bank = newBank(8);
+		float[] values = {0, .9f, 1.3f, 1.1f, 2.3f, 3.5f, 2.8f, 2.7f, 0};
+		int[] sampleIndices = {2, 4, 5, 7, 8};
+		int[] previousZones = {0, 1, 2, 3, 2};
+		int[] zones = {1, 2, 3, 2, 0};
+		assertEquals(5, bank.inputNewValues(values, values.length));
+		for (int i=0; i<5; i++) {
+			assertEquals(sampleIndices[i], bank.getEventSampleIndex(i));
+			assertEquals(previousZones[i], bank.getEventPreviousZone(i));
+			assertEquals(zones[i], bank.getEventZone(i));
+		}
+		assertEquals(0, bank.getZone());
+	}
+
+	@Test
+	public void eventsBeyondTheBufferAreCountedAsLost() {
+		HysteresisComparatorBank bank = newBank(2);
+		float[] values = {0, 2, 0, 2, 0};
+		assertEquals(2, bank.inputNewValues(values, values.length));
+		assertEquals(2, bank.getEventCount());
+		assertEquals(2, bank.getLostEventCount());
+		assertEquals(0, bank.getZone());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void overlappingBoundariesAreRejected() {
+		new HysteresisComparatorBank(new float[] {0, .5f}, new float[] {1, 1.5f}, 1);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void unsortedThresholdsAreRejected() {
+		new HysteresisComparatorBank(new float[] {2, 0}, new float[] {2.5f, .5f}, 1);
+	}
+}
@@ -0,0 +1,93 @@
+package com.botiful.sdk.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	@Test
+	public void emptyHistogramReadsZero() {
+		LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMedianNanos());
+		assertEquals(0, snapshot.getMaxNanos());
+	}
+
+	@Test
+	public void smallValuesHaveABucketEach() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int v=0; v<16; v++) {
+			histogram.record(v);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		for (int v=0; v<16; v++) {
+			assertEquals(v, snapshot.getValueAtPercentile(100.0*(v+.5)/16));
+		}
+	}
+
+	@Test
+	public void bucketsAreWithinAnEighthOfTheValue() {
+		long[] values = {16, 17, 100, 1000, 123456, 1000000007L, 1L << 40, (1L << 40)+12345, Long.MAX_VALUE/8};
+		for (long v : values) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			// a larger value, so that the upper bound of the bucket is not capped by the max
+			histogram.record(v);
+			histogram.record(4*v);
+			long upperBound = histogram.snapshot().getValueAtPercentile(50);
+			assertTrue(v+": "+upperBound, upperBound >= v);
+			assertTrue(v+": "+upperBound, upperBound-v <= v/LatencyHistogram.SUB_BUCKETS);
+		}
+	}
+
+	@Test
+	public void percentilesOfAUniformDistribution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int v=1; v<=1000; v++) {
+			histogram.record(v*1000L);
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500000, snapshot.getMedianNanos(), 500000/LatencyHistogram.SUB_BUCKETS);
+		assertEquals(990000, snapshot.get99thPercentileNanos(), 990000/LatencyHistogram.SUB_BUCKETS);
+		assertEquals(1000000, snapshot.getMaxNanos());
+		assertEquals(1000000, snapshot.getValueAtPercentile(100));
+		assertEquals(500500, snapshot.getMeanNanos());
+	}
+
+	@Test
+	public void negativeValuesCountAsZeroAndResetForgetsAll() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.snapshot().getMaxNanos());
+		histogram.record(1000);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.snapshot().getValueAtPercentile(100));
+	}
+
+	@Test(timeout=20000)
+	public void concurrentRecordsAreAllCounted() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for (int t=0; t<threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i=0; i<100000; i++) {
+						histogram.record(i+offset);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(400000, snapshot.getCount());
+		assertEquals(99999+threads.length-1, snapshot.getMaxNanos());
+	}
+}
@@ -0,0 +1,25 @@
+package com.botiful.sdk.robot;
+
+/**
+ * A clock only moved by the tests. Waits return at once.
+ */
+final class ManualClock extends Clock {
+	private volatile long nanos_;
+
+	@Override
+	public long nanoTime() {
+		return nanos_;
+	}
+
+	@Override
+	public void parkNanos(long nanos) {
+	}
+
+	@Override
+	public void sleepNanos(long nanos) {
+	}
+
+	void advanceMillis(long millis) {
+		nanos_ += millis*1000000L;
+	}
+}
@@ -0,0 +1,133 @@
+package com.botiful.sdk.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.PwmOutput;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutputBatcherTest {
+	private FakeIOIO fake_;
+	private OutputBatcher batcher_;
+	private FakeIOIO.FakePwmOutput pwm_;
+	private FakeIOIO.FakeDigitalOutput digital_;
+	private PwmOutput batchedPwm_;
+	private DigitalOutput batchedDigital_;
+
+	@Before
+	public void setUp() throws Exception {
+		fake_ = new FakeIOIO();
+		batcher_ = new OutputBatcher(fake_.getIOIO());
+		fake_.getIOIO().openPwmOutput(1, 1000);
+		pwm_ = fake_.getPwmOutput(1);
+		fake_.getIOIO().openDigitalOutput(2, false);
+		digital_ = fake_.getDigitalOutput(2);
+		batchedPwm_ = batcher_.wrap(pwm_);
+		batchedDigital_ = batcher_.wrap(digital_);
+	}
+
+	@Test
+	public void writesWaitForTheFlushAndTheLastOneWins() throws Exception {
+		batchedPwm_.setPulseWidth(10f);
+		batchedPwm_.setPulseWidth(12f);
+		batchedDigital_.write(true);
+		assertEquals(0, pwm_.getWriteCount());
+		assertEquals(0, digital_.getWriteCount());
+
+		batcher_.flush();
+		assertEquals(1, fake_.getBatchCount());
+		assertEquals(1, pwm_.getWriteCount());
+		assertEquals(12f, pwm_.getPulseWidth(), 0);
+		assertEquals(1, digital_.getWriteCount());
+		assertTrue(digital_.getLevel());
+		assertEquals(1, batcher_.getFlushCount());
+		assertEquals(2, batcher_.getWriteCount());
+		assertEquals(1, batcher_.getSuppressedWriteCount());
+	}
+
+	@Test
+	public void unchangedValuesAreNotSentAgain() throws Exception {
+		batchedPwm_.setDutyCycle(.5f);
+		batchedDigital_.write(false);
+		batcher_.flush();
+		batchedPwm_.setDutyCycle(.5f);
+		batchedDigital_.write(false);
+		batcher_.flush();
+		// nothing changed: no batch at all
+		assertEquals(1, fake_.getBatchCount());
+		assertEquals(1, pwm_.getWriteCount());
+		assertEquals(1, digital_.getWriteCount());
+
+		batchedPwm_.setDutyCycle(.25f);
+		batcher_.flush();
+		assertEquals(2, fake_.getBatchCount());
+		assertEquals(.25f, pwm_.getDutyCycle(), 0);
+		assertEquals(1, digital_.getWriteCount());
+	}
+
+	@Test
+	public void changingTheKindOfWriteIsSent() throws Exception {
+		batchedPwm_.setPulseWidth(5f);
+		batcher_.flush();
+		batchedPwm_.setDutyCycle(5f);
+		batcher_.flush();
+		assertEquals(2, pwm_.getWriteCount());
+		assertEquals(5f, pwm_.getDutyCycle(), 0);
+	}
+
+	@Test
+	public void flushWithoutWritesSendsNothing() throws Exception {
+		batcher_.flush();
+		assertEquals(0, fake_.getBatchCount());
+		assertEquals(0, batcher_.getFlushCount());
+	}
+
+	@Test
+	public void connectionLossIsThrownToTheCaller() throws Exception {
+		batchedPwm_.setPulseWidth(7f);
+		fake_.loseConnection();
+		try {
+			batcher_.flush();
+			fail("ConnectionLostException expected");
+		} catch (ConnectionLostException e) {
+			// expected
+		}
+		assertEquals(0, pwm_.getWriteCount());
+		assertEquals(0, batcher_.getFlushCount());
+	}
+
+	@Test(timeout=20000)
+	public void wrappingWhileFlushingDoesNotDeadlock() throws Exception {
+		final Throwable[] failure = new Throwable[1];
+		Thread flusher = new Thread("flusher") {
+			@Override
+			public void run() {
+				try {
+					for (int i=0; i<20000; i++) {
+						batchedPwm_.setPulseWidth(i);
+						batcher_.flush();
+					}
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+			}
+		};
+		flusher.start();
+		for (int i=0; i<2000; i++) {
+			fake_.getIOIO().openDigitalOutput(100+i, false);
+			batcher_.wrap(fake_.getDigitalOutput(100+i)).write(true);
+		}
+		flusher.join();
+		assertEquals(null, failure[0]);
+		batcher_.flush();
+		for (int i=0; i<2000; i++) {
+			assertTrue(fake_.getDigitalOutput(100+i).getLevel());
+		}
+		assertFalse(fake_.getDigitalOutput(2).getLevel());
+	}
+}
@@ -0,0 +1,178 @@
+package com.botiful.sdk.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.models.PwmSpeed;
+
+public class PwmMotorTest {
+	private static final int POSITIVE_PIN = 1;
+	private static final int REVERSE_PIN = 2;
+
+	private ManualClock clock_;
+	private FakeIOIO fake_;
+	private PwmMotor motor_;
+	private FakeIOIO.FakePwmOutput positiveOutput_;
+	private FakeIOIO.FakePwmOutput reverseOutput_;
+
+	@Before
+	public void setUp() throws Exception {
+		clock_ = new ManualClock();
+		Clock.set(clock_);
+		fake_ = new FakeIOIO();
+		motor_ = new PwmMotor(fake_.getIOIO(), POSITIVE_PIN, REVERSE_PIN);
+		positiveOutput_ = fake_.getPwmOutput(POSITIVE_PIN);
+		reverseOutput_ = fake_.getPwmOutput(REVERSE_PIN);
+	}
+
+	@After
+	public void tearDown() {
+		Clock.set(Clock.SYSTEM);
+	}
+
+	private static ContinuousSpeed speed(float value) {
+		return ContinuousSpeed.valueOf(value);
+	}
+
+	private void assertSpeed(float expected) {
+		assertEquals(expected, motor_.getContinuousSpeed().getValue(), 1e-4f);
+		ContinuousSpeed speed = motor_.getContinuousSpeed();
+		assertEquals(motor_.getCalibration().getPulseWidthForPositivePin(speed), positiveOutput_.getPulseWidth(), 0);
+		assertEquals(motor_.getCalibration().getPulseWidthForReversePin(speed), reverseOutput_.getPulseWidth(), 0);
+	}
+
+	@Test
+	public void speedIsAppliedRightAwayWithoutAcceleration() throws Exception {
+		motor_.setSpeed(PwmSpeed.valueOf(5));
+		assertSpeed(5);
+		assertTrue(motor_.isAtTargetSpeed());
+		assertEquals(1, positiveOutput_.getWriteCount());
+		// same speed again: not written
+		motor_.setSpeed(speed(5));
+		assertEquals(1, positiveOutput_.getWriteCount());
+	}
+
+	@Test
+	public void speedRampsTowardTheTargetWithAnAcceleration() throws Exception {
+		motor_.setAcceleration(40);
+		motor_.setSpeed(speed(4));
+		assertSpeed(0);
+		assertFalse(motor_.isAtTargetSpeed());
+		for (int i=1; i<=10; i++) {
+			clock_.advanceMillis(10);
+			motor_.updateSpeed();
+			assertSpeed(.4f*i);
+		}
+		assertTrue(motor_.isAtTargetSpeed());
+		// stop() skips the ramp
+		motor_.stop();
+		assertSpeed(0);
+		assertEquals(0, motor_.getTargetSpeed().getFixedPointValue());
+	}
+
+	@Test
+	public void blockStopsTheMotorAndDropsTheTargetOfThatDirection() throws Exception {
+		motor_.setSpeed(speed(6));
+		motor_.blockPositiveDirection();
+		assertSpeed(0);
+		assertEquals(0, motor_.getTargetSpeed().getFixedPointValue());
+		// the motor stays stopped once unblocked, until a new speed
+		motor_.unblockPositiveDirection();
+		motor_.updateSpeed();
+		assertSpeed(0);
+		motor_.setSpeed(speed(3));
+		assertSpeed(3);
+	}
+
+	@Test
+	public void blockedDirectionIsAppliedAsAStop() throws Exception {
+		motor_.blockPositiveDirection();
+		motor_.setSpeed(speed(3));
+		assertSpeed(0);
+		// the other direction still runs
+		motor_.setSpeed(speed(-3));
+		assertSpeed(-3);
+	}
+
+	@Test
+	public void blockKeepsTheTargetOfTheOtherDirection() throws Exception {
+		motor_.setSpeed(speed(-6));
+		motor_.blockPositiveDirection();
+		assertSpeed(-6);
+		assertEquals(-600, motor_.getTargetSpeed().getFixedPointValue());
+		motor_.blockReverseDirection();
+		assertSpeed(0);
+		assertEquals(0, motor_.getTargetSpeed().getFixedPointValue());
+	}
+
+	@Test
+	public void limitSlowsTheMotorAndKeepsTheTarget() throws Exception {
+		motor_.setSpeed(speed(8));
+		motor_.limitPositiveSpeed(3);
+		assertSpeed(3);
+		assertEquals(800, motor_.getTargetSpeed().getFixedPointValue());
+		assertTrue(motor_.isAtTargetSpeed());
+		motor_.setSpeed(speed(-8));
+		assertSpeed(-8);
+		motor_.setSpeed(speed(8));
+		assertSpeed(3);
+		// the motor speeds up again once the limit is lifted
+		motor_.unlimitPositiveSpeed();
+		assertFalse(motor_.isAtTargetSpeed());
+		motor_.updateSpeed();
+		assertSpeed(8);
+	}
+
+	@Test
+	public void limitAtZeroStopsTheDirection() throws Exception {
+		motor_.setSpeed(speed(-5));
+		motor_.limitReverseSpeed(0);
+		assertSpeed(0);
+		assertEquals(0, motor_.getReverseSpeedLimit());
+		motor_.unlimitReverseSpeed();
+		motor_.updateSpeed();
+		assertSpeed(-5);
+	}
+
+	@Test
+	public void powerCutStopsTheMotorUntilANewSpeed() throws Exception {
+		motor_.setSpeed(speed(7));
+		motor_.cutPower();
+		assertSpeed(0);
+		assertEquals(0, motor_.getTargetSpeed().getFixedPointValue());
+		motor_.setSpeed(speed(-7));
+		assertSpeed(0);
+		motor_.stop();
+		motor_.restorePower();
+		motor_.updateSpeed();
+		assertSpeed(0);
+		motor_.setSpeed(speed(-7));
+		assertSpeed(-7);
+	}
+
+	@Test
+	public void batchedSpeedsWaitForTheFlushButStopsDoNot() throws Exception {
+		OutputBatcher batcher = new OutputBatcher(fake_.getIOIO());
+		motor_.setOutputBatcher(batcher);
+		// a second batcher is ignored: the outputs are only wrapped once
+		motor_.setOutputBatcher(new OutputBatcher(fake_.getIOIO()));
+		motor_.setSpeed(speed(5));
+		assertEquals(0, positiveOutput_.getWriteCount());
+		batcher.flush();
+		assertSpeed(5);
+		assertEquals(1, fake_.getBatchCount());
+
+		motor_.blockPositiveDirection();
+		assertSpeed(0);
+		assertEquals(2, fake_.getBatchCount());
+		motor_.setSpeedNow(speed(-2));
+		assertSpeed(-2);
+		assertEquals(3, fake_.getBatchCount());
+	}
+}
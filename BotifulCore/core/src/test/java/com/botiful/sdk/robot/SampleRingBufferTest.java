@@ -0,0 +1,124 @@
+package com.botiful.sdk.robot;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.botiful.sdk.robot.SampleRingBuffer.OverrunPolicy;
+
+public class SampleRingBufferTest {
+	private static float[] drainAll(SampleRingBuffer buffer) {
+		float[] values = new float[buffer.capacity()];
+		long[] timestamps = new long[buffer.capacity()];
+		int count = buffer.drain(values, timestamps, values.length);
+		float[] result = new float[count];
+		System.arraycopy(values, 0, result, 0, count);
+		return result;
+	}
+
+	@Test
+	public void capacityIsRoundedUpToAPowerOfTwo() {
+		assertEquals(2, new SampleRingBuffer(0, OverrunPolicy.DROP_OLDEST).capacity());
+		assertEquals(8, new SampleRingBuffer(5, OverrunPolicy.DROP_OLDEST).capacity());
+		assertEquals(8, new SampleRingBuffer(8, OverrunPolicy.DROP_OLDEST).capacity());
+		assertEquals(OverrunPolicy.DROP_OLDEST, new SampleRingBuffer(8, null).getOverrunPolicy());
+	}
+
+	@Test
+	public void blocksAreDrainedInOrderWithTheirDates() {
+		SampleRingBuffer buffer = new SampleRingBuffer(8, OverrunPolicy.DROP_NEWEST);
+		assertEquals(3, buffer.offer(new float[] {1, 2, 3}, 3, 1000, 10));
+		assertTrue(buffer.offer(4, 1030));
+		assertEquals(4, buffer.size());
+
+		float[] values = new float[8];
+		long[] timestamps = new long[8];
+		assertEquals(2, buffer.drain(values, timestamps, 2));
+		assertEquals(1, values[0], 0);
+		assertEquals(2, values[1], 0);
+		assertEquals(1000, timestamps[0]);
+		assertEquals(1010, timestamps[1]);
+		assertEquals(2, buffer.drain(values, timestamps, 8));
+		assertEquals(3, values[0], 0);
+		assertEquals(1030, timestamps[1]);
+		assertEquals(0, buffer.drain(values, timestamps, 8));
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void dropOldestKeepsTheLatestSamples() {
+		SampleRingBuffer buffer = new SampleRingBuffer(4, OverrunPolicy.DROP_OLDEST);
+		for (int i=0; i<6; i++) {
+			assertTrue(buffer.offer(i, i));
+		}
+		assertEquals(4, buffer.size());
+		assertArrayEquals(new float[] {2, 3, 4, 5}, drainAll(buffer), 0);
+		assertEquals(6, buffer.getOfferedSampleCount());
+		assertEquals(2, buffer.getDroppedSampleCount());
+	}
+
+	@Test
+	public void dropNewestKeepsTheFirstSamples() {
+		SampleRingBuffer buffer = new SampleRingBuffer(4, OverrunPolicy.DROP_NEWEST);
+		assertEquals(4, buffer.offer(new float[] {0, 1, 2, 3, 4}, 5, 0, 1));
+		assertFalse(buffer.offer(5, 5));
+		assertArrayEquals(new float[] {0, 1, 2, 3}, drainAll(buffer), 0);
+		assertEquals(2, buffer.getDroppedSampleCount());
+		// space is available again once drained
+		assertTrue(buffer.offer(6, 6));
+	}
+
+	@Test
+	public void decimateStoresOneSampleOutOfTwoOnceHalfFull() {
+		SampleRingBuffer buffer = new SampleRingBuffer(8, OverrunPolicy.DECIMATE);
+		for (int i=0; i<14; i++) {
+			buffer.offer(i, i);
+		}
+		// 4 samples stored at full rate, then one out of two until full, then all dropped
+		assertArrayEquals(new float[] {0, 1, 2, 3, 5, 7, 9, 11}, drainAll(buffer), 0);
+		assertEquals(6, buffer.getDroppedSampleCount());
+		// back to full rate once drained
+		assertTrue(buffer.offer(14, 14));
+		assertTrue(buffer.offer(15, 15));
+	}
+
+	@Test(timeout=20000)
+	public void concurrentConsumerSeesOrderedSamplesAndEveryLossIsCounted() throws Exception {
+		final int sampleCount = 1000000;
+		final SampleRingBuffer buffer = new SampleRingBuffer(64, OverrunPolicy.DROP_OLDEST);
+		Thread producer = new Thread("producer") {
+			@Override
+			public void run() {
+				for (int i=0; i<sampleCount; i++) {
+					buffer.offer(i, i);
+				}
+			}
+		};
+		producer.start();
+
+		float[] values = new float[16];
+		long[] timestamps = new long[16];
+		float last = -1;
+		long drained = 0;
+		while (true) {
+			boolean done = !producer.isAlive();
+			int count = buffer.drain(values, timestamps, values.length);
+			for (int i=0; i<count; i++) {
+				assertTrue("samples out of order: "+values[i]+" after "+last, values[i] > last);
+				assertEquals(values[i], timestamps[i], 0);
+				last = values[i];
+			}
+			drained += count;
+			if (done && count == 0) {
+				break;
+			}
+		}
+		producer.join();
+		assertEquals(sampleCount, buffer.getOfferedSampleCount());
+		assertEquals(sampleCount, drained+buffer.getDroppedSampleCount());
+		assertEquals(sampleCount-1, last, 0);
+	}
+}
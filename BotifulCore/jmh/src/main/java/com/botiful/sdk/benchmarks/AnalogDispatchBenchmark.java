@@ -0,0 +1,80 @@
+package com.botiful.sdk.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.botiful.sdk.robot.AnalogChannel;
+import com.botiful.sdk.robot.AnalogValueReader.AnalogValueObserver;
+
+/**
+ * Dispatch of the samples read by an AnalogValueReader to its observers: periodic updates and threshold alerts.<br />
+ * One operation dispatches one block of blockSize samples, as drained from the IOIO buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalogDispatchBenchmark {
+	private static final long SAMPLE_PERIOD_NANOS = 1000000;
+	private static final int SIGNAL_LENGTH = 4096;
+
+	@Param({"1", "8"})
+	public int blockSize;
+
+	private final float[] signal_ = new float[SIGNAL_LENGTH];
+	private float[] block_;
+	private AnalogChannel channel_;
+	private int index_;
+	private long timeNanos_;
+
+	@Setup
+	public void setup(final Blackhole blackhole) {
+		for (int i=0; i<SIGNAL_LENGTH; i++) {
+			signal_[i] = .375f+.1f*(float) Math.sin(2*Math.PI*i/512);
+		}
+		block_ = new float[blockSize];
+		channel_ = new AnalogChannel(SAMPLE_PERIOD_NANOS);
+		channel_.setObserver(new AnalogValueObserver() {
+			@Override
+			public void onNewValue(float value) {
+				blackhole.consume(value);
+			}
+
+			@Override
+			public void onValueAlertAboveThreshold(float value) {
+				blackhole.consume(value);
+			}
+
+			@Override
+			public void onValueAlertBelowThreshold(float value) {
+				blackhole.consume(value);
+			}
+		});
+		channel_.subscribeToValuesUpdates(10);
+		channel_.subscribeToRisingEdgeThresholdDetection(.45f);
+		channel_.subscribeToFallingEdgeThresholdDetection(.30f);
+	}
+
+	@Benchmark
+	public void dispatchBlock() {
+		for (int i=0; i<blockSize; i++) {
+			block_[i] = signal_[index_++ & (SIGNAL_LENGTH-1)];
+		}
+		channel_.dispatch(block_, blockSize, timeNanos_);
+		timeNanos_ += blockSize*SAMPLE_PERIOD_NANOS;
+	}
+}
@@ -0,0 +1,49 @@
+package com.botiful.sdk.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.botiful.sdk.robot.HysteresisComparator;
+
+/**
+ * Threshold detection, run on each sample of the analog inputs
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HysteresisComparatorBenchmark {
+	private static final int SIGNAL_LENGTH = 4096;
+
+	private final float[] signal_ = new float[SIGNAL_LENGTH];
+	private HysteresisComparator comparator_;
+	private int index_;
+
+	@Setup
+	public void setup() {
+		// a noisy sine wave crossing the thresholds a few times per period
+		Random random = new Random(0);
+		for (int i=0; i<SIGNAL_LENGTH; i++) {
+			signal_[i] = .5f+.3f*(float) Math.sin(2*Math.PI*i/256)+.02f*(float) random.nextGaussian();
+		}
+		comparator_ = new HysteresisComparator(.45f, .55f, false);
+	}
+
+	@Benchmark
+	public int inputNewValue() {
+		return comparator_.inputNewValue(signal_[index_++ & (SIGNAL_LENGTH-1)]);
+	}
+}
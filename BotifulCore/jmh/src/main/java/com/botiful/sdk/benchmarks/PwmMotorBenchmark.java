@@ -0,0 +1,102 @@
+package com.botiful.sdk.benchmarks;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.robot.Clock;
+import com.botiful.sdk.robot.Constants;
+import com.botiful.sdk.robot.OutputBatcher;
+import com.botiful.sdk.robot.PwmMotor;
+import com.botiful.sdk.simulation.SimulatedIOIO;
+
+/**
+ * Motor command paths, from setSpeed() to the IOIO, against a {@link SimulatedIOIO} with no link latency.<br />
+ * The simulated board applies the writes on its own thread, once per ms: its cost is included, like the cost of
+ * the IOIO library would be.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PwmMotorBenchmark {
+	private static final int SPEED_COUNT = 16;
+
+	private final ContinuousSpeed[] speeds_ = new ContinuousSpeed[SPEED_COUNT];
+	private SimulatedIOIO ioio_;
+	/** written directly */
+	private PwmMotor motor_;
+	/** with a limited acceleration */
+	private PwmMotor rampedMotor_;
+	/** written through a batcher */
+	private PwmMotor batchedMotor_;
+	private OutputBatcher batcher_;
+	private int index_;
+
+	@Setup
+	public void setup() throws ConnectionLostException {
+		Clock.set(Clock.SYSTEM);
+		for (int i=0; i<SPEED_COUNT; i++) {
+			speeds_[i] = ContinuousSpeed.valueOf(-7.5f+i);
+		}
+		ioio_ = new SimulatedIOIO();
+		ioio_.waitForConnect();
+		motor_ = new PwmMotor(ioio_,
+				Constants.LEFT_WHEEL_POSITIVE_PWM_OUTPUT_PIN, Constants.LEFT_WHEEL_REVERSE_PWM_OUTPUT_PIN);
+		rampedMotor_ = new PwmMotor(ioio_,
+				Constants.RIGHT_WHEEL_POSITIVE_PWM_OUTPUT_PIN, Constants.RIGHT_WHEEL_REVERSE_PWM_OUTPUT_PIN);
+		rampedMotor_.setAcceleration(Constants.WHEEL_ACCELERATION);
+		batcher_ = new OutputBatcher(ioio_);
+		batchedMotor_ = new PwmMotor(ioio_,
+				Constants.HEAD_POSITIVE_PWM_OUTPUT_PIN, Constants.HEAD_REVERSE_PWM_OUTPUT_PIN);
+		batchedMotor_.setOutputBatcher(batcher_);
+	}
+
+	@TearDown
+	public void tearDown() {
+		ioio_.disconnect();
+	}
+
+	/** a new speed at each call: both pins are written */
+	@Benchmark
+	public void setSpeedChanged() throws ConnectionLostException {
+		motor_.setSpeed(speeds_[index_++ & (SPEED_COUNT-1)]);
+	}
+
+	/** the same speed again: the write is suppressed */
+	@Benchmark
+	public void setSpeedUnchanged() throws ConnectionLostException {
+		motor_.setSpeed(speeds_[0]);
+	}
+
+	/** a control tick of a motor ramping toward a new target every 64 ticks */
+	@Benchmark
+	public void rampTick() throws ConnectionLostException {
+		if ((index_++ & 63) == 0) {
+			rampedMotor_.setSpeed(speeds_[(index_ >> 6) & (SPEED_COUNT-1)]);
+		}
+		rampedMotor_.updateSpeed();
+	}
+
+	/** a new speed recorded by the batcher, then sent in one batch */
+	@Benchmark
+	public void setSpeedBatchedAndFlush() throws ConnectionLostException {
+		batchedMotor_.setSpeed(speeds_[index_++ & (SPEED_COUNT-1)]);
+		batcher_.flush();
+	}
+}
@@ -0,0 +1,53 @@
+package com.botiful.sdk.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.models.PwmCalibration;
+import com.botiful.sdk.models.PwmSpeed;
+import com.botiful.sdk.robot.Constants;
+
+/**
+ * Conversion of the speeds to PWM pulse widths, done for each motor command
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PwmSpeedBenchmark {
+	private final PwmCalibration calibration_ =
+			PwmCalibration.get(Constants.LEFT_WHEEL_ALPHA, PwmSpeed.TAU0_DEFAULT, Constants.PWM_FREQUENCY);
+	private int index_;
+
+	/** user-friendly speed to pulse width, with the default calibration */
+	@Benchmark
+	public float pwmSpeedPulseWidth() {
+		PwmSpeed speed = PwmSpeed.valueOf((index_++ % (2*PwmSpeed.MAX+1))-PwmSpeed.MAX);
+		return speed.getPulseWidthForPositivePin()+speed.getPulseWidthForReversePin();
+	}
+
+	/** fine speed (e.g. from a controller) to pulse width, with a wheel calibration */
+	@Benchmark
+	public float continuousSpeedPulseWidth() {
+		ContinuousSpeed speed = ContinuousSpeed.valueOf(((index_++ & 1023)-512)/51.2f);
+		return calibration_.getPulseWidthForPositivePin(speed)+calibration_.getPulseWidthForReversePin(speed);
+	}
+
+	/** lookup of an interned calibration, e.g. when a wheel is built */
+	@Benchmark
+	public PwmCalibration calibrationLookup() {
+		return PwmCalibration.get(Constants.RIGHT_WHEEL_ALPHA, PwmSpeed.TAU0_DEFAULT, Constants.PWM_FREQUENCY);
+	}
+}
@@ -0,0 +1,193 @@
+package com.botiful.sdk.benchmarks;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.models.PwmSpeed;
+import com.botiful.sdk.robot.AnalogValueReader;
+import com.botiful.sdk.robot.AnalogValueReader.AnalogValueBlockObserver;
+import com.botiful.sdk.robot.Clock;
+import com.botiful.sdk.robot.Constants;
+import com.botiful.sdk.robot.ControlScheduler;
+import com.botiful.sdk.robot.HeadPositionController;
+import com.botiful.sdk.robot.MetricsRegistry;
+import com.botiful.sdk.robot.OutputBatcher;
+import com.botiful.sdk.robot.PwmMotor;
+import com.botiful.sdk.robot.Switch;
+import com.botiful.sdk.simulation.HeadModel;
+import com.botiful.sdk.simulation.SimulatedIOIO;
+import com.botiful.sdk.simulation.VirtualClock;
+
+/**
+ * Runs PwmMotor, Switch and AnalogValueReader at full rate on a {@link SimulatedIOIO}, checks the behaviour of the
+ * robot and prints the measurements. Run by "mvn verify -P simulation", it exits with status 1 if a check fails.<br />
+ * A 1 kHz control task drives the wheels through an OutputBatcher and rewrites a switch, while the head follows
+ * position targets under a HeadPositionController fed by the rotary encoder at 1 kHz. The board has a link latency
+ * and encoder noise, and finally loses its connection.<br />
+ * The checks depend on the host keeping up with the 1 kHz tasks: by default the virtual clock runs at half the real
+ * time, and the margins allow for late ticks.<br />
+ * Arguments: rate of the virtual clock (default 0.5; 1 is real time, 4 runs 4 times faster if the host keeps up).
+ */
+public class SimulatedRobotCheck {
+	private static final double DEFAULT_CLOCK_RATE = .5;
+	private static final int LINK_LATENCY_MILLIS = 20;
+	private static final float FIRST_HEAD_TARGET = .30f;
+	private static final float SECOND_HEAD_TARGET = .45f;
+	/** largest distance to the head target once settled, in encoder units */
+	private static final float HEAD_POSITION_MARGIN = .03f;
+	/** largest relative error on the encoder sample rate */
+	private static final float SAMPLE_RATE_MARGIN = .2f;
+	/** dates of the scenario, in control ticks (ms) */
+	private static final int SECOND_TARGET_TICK = 3000;
+	private static final int SLEEP_TICK = 6000;
+	private static final int END_TICK = 7000;
+
+	private static int failureCount_ = 0;
+
+	public static void main(String[] args) throws Exception {
+		double rate = (args.length > 0)?Double.parseDouble(args[0]):DEFAULT_CLOCK_RATE;
+		VirtualClock clock = new VirtualClock(rate);
+		Clock.set(clock);
+
+		HeadModel head = new HeadModel();
+		head.setNoise(.001f);
+		final SimulatedIOIO ioio = new SimulatedIOIO(head);
+		ioio.setLinkLatencyMillis(LINK_LATENCY_MILLIS);
+		ioio.waitForConnect();
+
+		// wheels through a batcher, with a limited acceleration
+		final OutputBatcher batcher = new OutputBatcher(ioio);
+		final PwmMotor leftMotor = new PwmMotor(ioio,
+				Constants.LEFT_WHEEL_POSITIVE_PWM_OUTPUT_PIN, Constants.LEFT_WHEEL_REVERSE_PWM_OUTPUT_PIN);
+		final PwmMotor rightMotor = new PwmMotor(ioio,
+				Constants.RIGHT_WHEEL_POSITIVE_PWM_OUTPUT_PIN, Constants.RIGHT_WHEEL_REVERSE_PWM_OUTPUT_PIN);
+		leftMotor.setOutputBatcher(batcher);
+		rightMotor.setOutputBatcher(batcher);
+		leftMotor.setAcceleration(Constants.WHEEL_ACCELERATION);
+		rightMotor.setAcceleration(Constants.WHEEL_ACCELERATION);
+		// the inner state of a switch is the opposite of the pin: true turns the peripheral circuit on
+		final Switch peripheralCircuit = new Switch(ioio, Constants.PERIPHERAL_CIRCUIT_DIGITAL_OUTPUT_PIN, true);
+		// false keeps the head motor driver awake
+		final Switch headSleepMode = new Switch(ioio, Constants.HEAD_MOTOR_DRIVERS_SLEEP_MODE_PIN, false);
+		headSleepMode.setOutputBatcher(batcher);
+
+		// head under position control, at the encoder rate
+		PwmMotor headMotor = new PwmMotor(ioio,
+				Constants.HEAD_POSITIVE_PWM_OUTPUT_PIN, Constants.HEAD_REVERSE_PWM_OUTPUT_PIN);
+		AnalogValueReader encoder = new AnalogValueReader(ioio, Constants.ROTARY_ENCODER_ANALOG_INPUT_PIN);
+		final HeadPositionController headController = new HeadPositionController(headMotor, false,
+				Constants.HEAD_POSITION_PROPORTIONAL_GAIN,
+				Constants.HEAD_POSITION_INTEGRAL_GAIN,
+				Constants.HEAD_POSITION_DERIVATIVE_GAIN);
+		headController.setTolerance(Constants.HEAD_POSITION_TOLERANCE);
+		encoder.addInterlock(headController);
+		final long[] observedSamples = new long[1];
+		encoder.setBlockObserver(new AnalogValueBlockObserver() {
+			@Override
+			public void onNewValues(float[] samples, long[] timestampsNanos, int count, long firstSampleTimeNanos,
+					long samplePeriodNanos) {
+				observedSamples[0] += count;
+			}
+		});
+		headController.setTarget(FIRST_HEAD_TARGET);
+
+		// 1 kHz control task: wheels back and forth every 500ms, switch written again every 100ms
+		final int[] tick = new int[1];
+		final float[] headPositions = new float[2];
+		ControlScheduler scheduler = new ControlScheduler();
+		ControlScheduler.ScheduledTask controlTask = scheduler.schedule(new ControlScheduler.ControlTask() {
+			@Override
+			public void run() throws ConnectionLostException {
+				int t = tick[0]++;
+				if (t%500 == 0) {
+					ContinuousSpeed speed = ContinuousSpeed.valueOf(PwmSpeed.valueOf(((t/500)%2 == 0)?6:-6));
+					leftMotor.setSpeed(speed);
+					rightMotor.setSpeed(speed);
+				}
+				leftMotor.updateSpeed();
+				rightMotor.updateSpeed();
+				if (t%100 == 0) {
+					peripheralCircuit.forceSet(true);
+				}
+				if (t == SECOND_TARGET_TICK) {
+					headPositions[0] = ioio.getHeadModel().getPosition();
+					headController.setTarget(SECOND_HEAD_TARGET);
+				} else if (t == SLEEP_TICK) {
+					headPositions[1] = ioio.getHeadModel().getPosition();
+					headSleepMode.set(true);
+				}
+				batcher.flush();
+			}
+		}, 1000);
+
+		long startNanos = Clock.now();
+		long startRealNanos = System.nanoTime();
+		while (tick[0] < END_TICK) {
+			scheduler.runCycle();
+		}
+		double virtualSeconds = (Clock.now()-startNanos)/1e9;
+		double realSeconds = (System.nanoTime()-startRealNanos)/1e9;
+
+		// behaviour
+		check("head reaches the first target", Math.abs(headPositions[0]-FIRST_HEAD_TARGET) < HEAD_POSITION_MARGIN,
+				headPositions[0]);
+		check("head reaches the second target", Math.abs(headPositions[1]-SECOND_HEAD_TARGET) < HEAD_POSITION_MARGIN,
+				headPositions[1]);
+		check("head motor driver asleep", ioio.getHeadDrive() == 0 && ioio.getLevel(Constants.HEAD_MOTOR_DRIVERS_SLEEP_MODE_PIN) == false,
+				ioio.getHeadDrive());
+		check("wheels at their target", Math.abs(ioio.getDutyCycle(Constants.RIGHT_WHEEL_POSITIVE_PWM_OUTPUT_PIN)
+				-ioio.getDutyCycle(Constants.LEFT_WHEEL_POSITIVE_PWM_OUTPUT_PIN)) < .001f
+				&& leftMotor.isAtTargetSpeed(), leftMotor.getContinuousSpeed().getValue());
+		float sampleRate = encoder.getMetrics().getEffectiveSampleRate();
+		check("encoder sampled at 1 kHz", Math.abs(sampleRate-SimulatedIOIO.SAMPLE_RATE)
+				< SimulatedIOIO.SAMPLE_RATE*SAMPLE_RATE_MARGIN, sampleRate);
+
+		// measurements
+		System.out.println("virtual time "+virtualSeconds+" s in "+realSeconds+" s");
+		// the achieved rate depends on the host, it is measured but not checked
+		System.out.println("control task: "+controlTask.getAchievedRateHz()+" Hz, "+controlTask.getRunCount()+" runs, "
+				+controlTask.getMissedDeadlineCount()+" missed deadlines, max jitter "
+				+controlTask.getMaxJitterNanos()/1000+" us, max execution "+controlTask.getMaxExecutionNanos()/1000+" us");
+		System.out.println("encoder: "+sampleRate+" samples/s, "+observedSamples[0]+" observed, "
+				+encoder.getMetrics().getOverflowCount()+" overflows, peak queue depth "
+				+encoder.getMetrics().getPeakQueueDepth());
+		System.out.println("board: "+ioio.getSampleCount()+" samples, "+ioio.getPwmWriteCount()+" PWM writes, "
+				+ioio.getDigitalWriteCount()+" digital writes, "+ioio.getBatchCount()+" batches");
+
+		// connection loss: the next writes and the reader thread must notice it
+		ioio.scheduleConnectionLoss(100);
+		boolean lost = false;
+		long deadlineNanos = Clock.now()+500*1000000L;
+		while (!lost && Clock.now()-deadlineNanos < 0) {
+			try {
+				peripheralCircuit.forceSet(true);
+				Clock.get().parkNanos(1000000);
+			} catch (ConnectionLostException e) {
+				lost = true;
+			}
+		}
+		check("connection loss thrown to the writers", lost, ioio.getState());
+		String prefix = "AnalogValueReader.pin"+Constants.ROTARY_ENCODER_ANALOG_INPUT_PIN+".";
+		long readerLosses = 0;
+		for (int i=0; i<100 && readerLosses == 0; i++) {
+			Clock.get().parkNanos(1000000);
+			readerLosses = MetricsRegistry.getDefault().snapshot().getValue(prefix+"connectionLost", 0);
+		}
+		check("connection loss seen by the reader thread", readerLosses == 1, readerLosses);
+
+		System.out.print(MetricsRegistry.getDefault().snapshot().toText());
+		if (failureCount_ > 0) {
+			System.out.println(failureCount_+" check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+		System.exit(0);
+	}
+
+	private static void check(String name, boolean passed, Object value) {
+		System.out.println((passed?"ok      ":"FAILED  ")+name+" ("+value+")");
+		if (!passed) {
+			failureCount_++;
+		}
+	}
+}
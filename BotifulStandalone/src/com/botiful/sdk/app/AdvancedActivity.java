@@ -1,7 +1,6 @@
 package com.botiful.sdk.app;
 
 import ioio.lib.api.exception.ConnectionLostException;
-import ioio.lib.util.BaseIOIOLooper;
 import ioio.lib.util.IOIOLooper;
 import ioio.lib.util.android.IOIOActivity;
 import android.os.Bundle;
@@ -17,12 +16,23 @@ import android.widget.SeekBar.OnSeekBarChangeListener;
 import android.widget.TextView;
 import android.widget.ToggleButton;
 
+import com.botiful.sdk.helpers.AndroidLogger;
 import com.botiful.sdk.helpers.BluetoothHelper;
+import com.botiful.sdk.models.PwmCalibration;
 import com.botiful.sdk.models.PwmSpeed;
+import com.botiful.sdk.robot.AnalogInputMetrics;
 import com.botiful.sdk.robot.AnalogValueReader;
 import com.botiful.sdk.robot.AnalogValueReader.AnalogValueObserver;
+import com.botiful.sdk.robot.CommandMailbox;
 import com.botiful.sdk.robot.Constants;
+import com.botiful.sdk.robot.EndStopLimiter;
+import com.botiful.sdk.robot.EventDrivenLooper;
+import com.botiful.sdk.robot.LatencyProbe;
+import com.botiful.sdk.robot.Logger;
+import com.botiful.sdk.robot.MotorInterlock;
+import com.botiful.sdk.robot.OutputBatcher;
 import com.botiful.sdk.robot.PwmMotor;
+import com.botiful.sdk.robot.StallDetector;
 import com.botiful.sdk.robot.Switch;
 import com.botiful.sdk.R;
 
@@ -52,10 +62,31 @@ public class AdvancedActivity extends IOIOActivity {
 	/** rotary encoder: reads a the position of the head */
 	private AnalogValueReader mRotaryEncoder;
 	private RotaryEncoderObserver mRotaryEncoderObserver;
+	/** rotary encoder telemetry, kept across connections to size the buffer of the next reader */
+	private AnalogInputMetrics mRotaryEncoderMetrics = new AnalogInputMetrics();
+	/** end-stops of the head, evaluated by the rotary encoder reader thread */
+	private MotorInterlock mHeadLowestInterlock,mHeadHighestInterlock;
+	/** slow the head down before it reaches its end-stops */
+	private EndStopLimiter mHeadLowestLimiter,mHeadHighestLimiter;
+	/** cuts the head motor when it is blocked */
+	private StallDetector mHeadStallDetector;
 	/** Main circuit switch */
 	Switch mPeripheralCircuitSwitch;
 	/** Sleep switch for the motors */
 	Switch mWheelsSleepSwitch,mHeadSleepSwitch;
+	/** collects the writes to the outputs, flushed once per loop */
+	private OutputBatcher mOutputBatcher;
+	/** commands posted by the UI thread, applied by the looper */
+	private final CommandMailbox<PwmSpeed> mLeftSpeedCommand = new CommandMailbox<PwmSpeed>();
+	private final CommandMailbox<PwmSpeed> mRightSpeedCommand = new CommandMailbox<PwmSpeed>();
+	private final CommandMailbox<PwmSpeed> mHeadSpeedCommand = new CommandMailbox<PwmSpeed>();
+	private final CommandMailbox<Boolean> mPeripheralCircuitCommand = new CommandMailbox<Boolean>();
+	private final CommandMailbox<Boolean> mWheelsSleepCommand = new CommandMailbox<Boolean>();
+	private final CommandMailbox<Boolean> mHeadSleepCommand = new CommandMailbox<Boolean>();
+	/** latency of the speed commands, from the seekbars to the writes */
+	private final LatencyProbe mLeftWheelProbe = new LatencyProbe("left wheel");
+	private final LatencyProbe mRightWheelProbe = new LatencyProbe("right wheel");
+	private final LatencyProbe mHeadProbe = new LatencyProbe("head");
 	
 	/**
 	 * This class describes what happens when the rotary encoder get a new value or 
@@ -75,37 +106,12 @@ public class AdvancedActivity extends IOIOActivity {
 
 		@Override
 		public void onValueAlertAboveThreshold(float value) {
-			runOnUiThread(new Runnable() {
-				@Override
-				public void run() {
-					if (headMotor != null && !headMotor.getSpeed().isPositive()) {
-						try {
-							headMotor.stop();
-						} catch (ConnectionLostException e) {
-							e.printStackTrace();
-							setConnectionStatus(false);
-						}
-					}
-				}
-			});			
+			// void - the head end-stops are handled by the interlocks, on the reader thread
 		}
 
 		@Override
 		public void onValueAlertBelowThreshold(float value) {
-			runOnUiThread(new Runnable() {
-				@Override
-				public void run() {
-					if (headMotor != null && headMotor.getSpeed().isPositive()) {
-						try {
-							headMotor.stop();
-						} catch (ConnectionLostException e) {
-							e.printStackTrace();
-							setConnectionStatus(false);
-						}
-					}
-				}
-			});	
-			
+			// void - the head end-stops are handled by the interlocks, on the reader thread
 		}
 		
 	}
@@ -117,13 +123,13 @@ public class AdvancedActivity extends IOIOActivity {
 		public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
 			switch (buttonView.getId()) {
 			case R.id.toggleButton_peripheral_circuit_control:
-				switchSwitch(mPeripheralCircuitSwitch,isChecked);
+				mPeripheralCircuitCommand.post(Boolean.valueOf(isChecked));
 				break;
 			case R.id.toggleButton_wheels_sleep_mode_control:
-				switchSwitch(mWheelsSleepSwitch,isChecked);
+				mWheelsSleepCommand.post(Boolean.valueOf(isChecked));
 				break;
 			case R.id.toggleButton_head_sleep_mode_control:
-				switchSwitch(mHeadSleepSwitch,isChecked);
+				mHeadSleepCommand.post(Boolean.valueOf(isChecked));
 				break;
 			case R.id.checkbox_rotary_encoder_threshold_above:
 				setThresholdDetection(mRotaryEncoder, isChecked, true);
@@ -145,13 +151,17 @@ public class AdvancedActivity extends IOIOActivity {
 		public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
 			switch (seekBar.getId()) {
 			case (R.id.seekBarLeftWheel):
-				setMotorSpeed(leftMotor,new PwmSpeed(progress-PwmSpeed.MAX));
+				mLeftSpeedCommand.post(PwmSpeed.valueOf(progress-PwmSpeed.MAX));
 				break;
 			case (R.id.seekBarRightWheel):
-				setMotorSpeed(rightMotor,new PwmSpeed(progress-PwmSpeed.MAX));
+				mRightSpeedCommand.post(PwmSpeed.valueOf(progress-PwmSpeed.MAX));
 				break;
 			case (R.id.seekBarHead):
-				setMotorSpeed(headMotor,new PwmSpeed(progress-PwmSpeed.MAX));
+				if (progress==PwmSpeed.MAX && mHeadStallDetector!=null) {
+					// back to neutral: the head can be driven again after a stall
+					mHeadStallDetector.clearStall();
+				}
+				mHeadSpeedCommand.post(PwmSpeed.valueOf(progress-PwmSpeed.MAX));
 				break;
 			default:
 				// void
@@ -170,6 +180,7 @@ public class AdvancedActivity extends IOIOActivity {
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		Logger.set(new AndroidLogger());
 		setContentView(R.layout.activity_low_level_control);
 		
 		// Get handles to the widgets
@@ -210,6 +221,10 @@ public class AdvancedActivity extends IOIOActivity {
 		// Ask to enable Bluetooth if not already enabled
 		setConnectionStatus(false);
 		BluetoothHelper.enableBluetooth(this);
+		
+		mLeftSpeedCommand.setProbe(mLeftWheelProbe);
+		mRightSpeedCommand.setProbe(mRightWheelProbe);
+		mHeadSpeedCommand.setProbe(mHeadProbe);
 	}
 	
 	@Override
@@ -248,8 +263,9 @@ public class AdvancedActivity extends IOIOActivity {
 	 * been established (which might happen several times!). Then, loop() will
 	 * be called repetitively until the IOIO gets disconnected.
 	 */
-	class Looper extends BaseIOIOLooper {
-		private static final int LOOP_CYCLE_MILLISECONDS = 100;
+	class Looper extends EventDrivenLooper {
+		/** period of the steps of the wheels toward the speeds of the seekbars, while they ramp */
+		private static final int RAMP_STEP_MILLISECONDS = 20;
 		
 
 		/**
@@ -266,16 +282,25 @@ public class AdvancedActivity extends IOIOActivity {
 
 			setConnectionStatus(true);
 			
+			// all the writes of a tick are sent together, at the end of loop()
+			mOutputBatcher = new OutputBatcher(ioio_);
+			
 			// ========= Wheels configuration =========
 			leftMotor = new PwmMotor(ioio_,
 					Constants.LEFT_WHEEL_POSITIVE_PWM_OUTPUT_PIN,
-					Constants.LEFT_WHEEL_REVERSE_PWM_OUTPUT_PIN);
-			leftMotor.setSpeed(new PwmSpeed(mSeekbarLeftWheel.getProgress()-PwmSpeed.MAX));
+					Constants.LEFT_WHEEL_REVERSE_PWM_OUTPUT_PIN,
+					PwmCalibration.get(Constants.LEFT_WHEEL_ALPHA, PwmSpeed.TAU0_DEFAULT, Constants.PWM_FREQUENCY));
+			leftMotor.setOutputBatcher(mOutputBatcher);
+			leftMotor.setAcceleration(Constants.WHEEL_ACCELERATION);
+			leftMotor.setSpeed(PwmSpeed.valueOf(mSeekbarLeftWheel.getProgress()-PwmSpeed.MAX));
 			
 			rightMotor = new PwmMotor(ioio_,
 					Constants.RIGHT_WHEEL_POSITIVE_PWM_OUTPUT_PIN,
-					Constants.RIGHT_WHEEL_REVERSE_PWM_OUTPUT_PIN);
-			rightMotor.setSpeed(new PwmSpeed(mSeekbarRightWheel.getProgress()-PwmSpeed.MAX));
+					Constants.RIGHT_WHEEL_REVERSE_PWM_OUTPUT_PIN,
+					PwmCalibration.get(Constants.RIGHT_WHEEL_ALPHA, PwmSpeed.TAU0_DEFAULT, Constants.PWM_FREQUENCY));
+			rightMotor.setOutputBatcher(mOutputBatcher);
+			rightMotor.setAcceleration(Constants.WHEEL_ACCELERATION);
+			rightMotor.setSpeed(PwmSpeed.valueOf(mSeekbarRightWheel.getProgress()-PwmSpeed.MAX));
 			
 
 			// The peripheral circuit can be turned OFF if necessary. It can be
@@ -284,6 +309,7 @@ public class AdvancedActivity extends IOIOActivity {
 			mPeripheralCircuitSwitch = new Switch(ioio_,
 					Constants.PERIPHERAL_CIRCUIT_DIGITAL_OUTPUT_PIN,
 					mPeripheralCircuitToggle.isChecked());
+			mPeripheralCircuitSwitch.setOutputBatcher(mOutputBatcher);
 
 			// Motors drivers can use a sleep mode that allows minimun current
 			// consumption. When set to ON, motors are consuming a very small
@@ -292,42 +318,128 @@ public class AdvancedActivity extends IOIOActivity {
 			mWheelsSleepSwitch = new Switch(ioio_,
 					Constants.WHEELS_MOTOR_DRIVERS_SLEEP_MODE_PIN,
 					mWheelsSleepMode.isChecked());
+			mWheelsSleepSwitch.setOutputBatcher(mOutputBatcher);
 
 			// ========= Head configuration =========
 			headMotor = new PwmMotor(ioio_,
 					Constants.HEAD_POSITIVE_PWM_OUTPUT_PIN,
 					Constants.HEAD_REVERSE_PWM_OUTPUT_PIN);
-			headMotor.setSpeed(new PwmSpeed(mSeekbarHead.getProgress()-PwmSpeed.MAX));
+			headMotor.setOutputBatcher(mOutputBatcher);
+			headMotor.setSpeed(PwmSpeed.valueOf(mSeekbarHead.getProgress()-PwmSpeed.MAX));
 			
 			mHeadSleepSwitch = new Switch(ioio_,
 					Constants.HEAD_MOTOR_DRIVERS_SLEEP_MODE_PIN,
 					mHeadSleepMode.isChecked());
+			mHeadSleepSwitch.setOutputBatcher(mOutputBatcher);
 			
 			mRotaryEncoder = new AnalogValueReader(ioio_,
-					Constants.ROTARY_ENCODER_ANALOG_INPUT_PIN);
+					Constants.ROTARY_ENCODER_ANALOG_INPUT_PIN,
+					mRotaryEncoderMetrics);
 
 			mRotaryEncoderObserver = new RotaryEncoderObserver();
 			mRotaryEncoder.setObserver(mRotaryEncoderObserver);
 			mRotaryEncoder.subscribeToValuesUpdates(100);
+			
+			// lowest head angle: stop lowering the head. Highest: stop raising it
+			mHeadLowestInterlock = new MotorInterlock(headMotor,
+					Constants.ROTARY_ENCODER_MAX_VALUE, true, MotorInterlock.Action.BLOCK_REVERSE);
+			mHeadHighestInterlock = new MotorInterlock(headMotor,
+					Constants.ROTARY_ENCODER_MIN_VALUE, false, MotorInterlock.Action.BLOCK_POSITIVE);
+			// positive speeds raise the head, i.e. decrease the rotary encoder value
+			mHeadLowestLimiter = new EndStopLimiter(headMotor,
+					Float.NEGATIVE_INFINITY, Constants.ROTARY_ENCODER_MAX_VALUE, false,
+					Constants.HEAD_ACTUATION_LATENCY_MILLIS, Constants.HEAD_BRAKING_HORIZON_MILLIS);
+			mHeadHighestLimiter = new EndStopLimiter(headMotor,
+					Constants.ROTARY_ENCODER_MIN_VALUE, Float.POSITIVE_INFINITY, false,
+					Constants.HEAD_ACTUATION_LATENCY_MILLIS, Constants.HEAD_BRAKING_HORIZON_MILLIS);
 			setThresholdDetection(mRotaryEncoder,mRotEncStopAbove.isChecked(),true);
 			setThresholdDetection(mRotaryEncoder,mRotEncStopBelow.isChecked(),false);
+			
+			mHeadStallDetector = new StallDetector(headMotor,
+					Constants.HEAD_STALL_MIN_VELOCITY_PER_SPEED_UNIT, Constants.HEAD_STALL_MAX_SAMPLES);
+			mRotaryEncoder.addInterlock(mHeadStallDetector);
+			
+			// ========= Commands =========
+			// wake up on each command of the UI, and send the writes right away
+			watch(mLeftSpeedCommand);
+			watch(mRightSpeedCommand);
+			watch(mHeadSpeedCommand);
+			watch(mPeripheralCircuitCommand);
+			watch(mWheelsSleepCommand);
+			watch(mHeadSleepCommand);
+			setOutputBatcher(mOutputBatcher);
+			addProbe(mLeftWheelProbe);
+			addProbe(mRightWheelProbe);
+			addProbe(mHeadProbe);
 		}
 
 		/**
-		 * Called repetitively while the IOIO is connected.
+		 * Called each time the looper wakes up: on each command of the UI, and periodically while the wheels ramp.
 		 * 
 		 * @throws ConnectionLostException
 		 *             When IOIO connection is lost.
 		 * 
-		 * @see ioio.lib.util.AbstractIOIOActivity.IOIOThread#loop()
+		 * @see com.botiful.sdk.robot.EventDrivenLooper#processCommands()
+		 */
+		@Override
+		protected void processCommands() throws ConnectionLostException {
+			// apply the latest commands of the UI
+			applySpeedCommand(leftMotor, mLeftSpeedCommand);
+			applySpeedCommand(rightMotor, mRightSpeedCommand);
+			applySpeedCommand(headMotor, mHeadSpeedCommand);
+			applySwitchCommand(mPeripheralCircuitSwitch, mPeripheralCircuitCommand);
+			applySwitchCommand(mWheelsSleepSwitch, mWheelsSleepCommand);
+			applySwitchCommand(mHeadSleepSwitch, mHeadSleepCommand);
+			
+			// step the wheels toward the speeds of the seekbars
+			leftMotor.updateSpeed();
+			rightMotor.updateSpeed();
+		}
+		
+		/**
+		 * Wake up for the next step while a wheel ramps, sleep until the next command otherwise
+		 * 
+		 * @see com.botiful.sdk.robot.EventDrivenLooper#getNanosUntilNextDeadline(long)
+		 */
+		@Override
+		protected long getNanosUntilNextDeadline(long nowNanos) {
+			if (isRamping(leftMotor) || isRamping(rightMotor)) {
+				return RAMP_STEP_MILLISECONDS*1000000L;
+			}
+			return Long.MAX_VALUE;
+		}
+		
+		private boolean isRamping(PwmMotor motor) {
+			return !motor.isAtTargetSpeed();
+		}
+		
+		/**
+		 * Called when the connection is lost, e.g. while applying the commands of the UI.
+		 * 
+		 * @see ioio.lib.util.BaseIOIOLooper#disconnected()
 		 */
 		@Override
-		public void loop() throws ConnectionLostException {
-			try {
-				Thread.sleep(LOOP_CYCLE_MILLISECONDS);
-			} catch (InterruptedException e) {
-				// wait period has been interrupted - most probably because the user has left the app
-				// no action
+		public void disconnected() {
+			setConnectionStatus(false);
+		}
+		
+		/**
+		 * Applies the latest speed posted for a motor, if any
+		 */
+		private void applySpeedCommand(PwmMotor motor, CommandMailbox<PwmSpeed> command) throws ConnectionLostException {
+			PwmSpeed speed = command.take();
+			if (speed!=null) {
+				motor.setSpeed(speed);
+			}
+		}
+		
+		/**
+		 * Applies the latest state posted for a switch, if any
+		 */
+		private void applySwitchCommand(Switch switchToSwitch, CommandMailbox<Boolean> command) throws ConnectionLostException {
+			Boolean state = command.take();
+			if (state!=null) {
+				switchToSwitch.set(state.booleanValue());
 			}
 		}
 
@@ -344,49 +456,22 @@ public class AdvancedActivity extends IOIOActivity {
 	}
 	
 	/**
-	 * Changes the motor speed and handles errors gracefully.
-	 * @param motor target motor
-	 * @param newspeed 
-	 */
-	private void setMotorSpeed(PwmMotor motor, PwmSpeed newSpeed) {
-		if (motor!=null) {
-			try {
-				motor.setSpeed(newSpeed);
-			} catch (ConnectionLostException e) {
-				setConnectionStatus(false);
-			}
-		}
-	}
-	
-	/**
-	 * Switches any switch which has to be switched, and handles errors gracefully like a wicked switch.
-	 * @param switchtoSwitch switch which we wish switched
-	 * @param newState state into which we switch the switch
-	 */
-	private void switchSwitch(Switch switchToSwitch, boolean newState) {
-		if (switchToSwitch != null) {
-			try {
-				switchToSwitch.set(newState);
-			} catch (ConnectionLostException e) {
-				setConnectionStatus(false);
-			}
-		}
-	}
-	
-	/**
-	 * Sets the threshold detection (or reset it) for a target analog value reader.
+	 * Sets the threshold detection (or reset it) for a target analog value reader.<br />
+	 * The head end-stop interlock and limiter are added to or removed from the reader.
 	 * @param reader target reader
 	 * @param newState if true, the detection will be activated, else it will be deactivated
 	 * @param isAbove tells which threshold detector (high[true] or low[false] values) to target
 	 */
 	private void setThresholdDetection(AnalogValueReader reader,boolean newState, boolean isAbove) {
 		if (reader!=null) {
-			if (isAbove) {
-				float threshold = newState?Constants.ROTARY_ENCODER_MAX_VALUE:Float.NaN;
-				reader.subscribeToRisingEdgeThresholdDetection(threshold);				
-			} else {
-				float threshold = newState?Constants.ROTARY_ENCODER_MIN_VALUE:Float.NaN;
-				reader.subscribeToFallingEdgeThresholdDetection(threshold);						
+			MotorInterlock interlock = isAbove?mHeadLowestInterlock:mHeadHighestInterlock;
+			EndStopLimiter limiter = isAbove?mHeadLowestLimiter:mHeadHighestLimiter;
+			// removing first avoids adding the same interlock twice
+			reader.removeInterlock(limiter);
+			reader.removeInterlock(interlock);
+			if (newState) {
+				reader.addInterlock(limiter);
+				reader.addInterlock(interlock);
 			}
 		}
 	}
@@ -1,13 +1,14 @@
 package com.botiful.sdk.app;
 
-import ioio.lib.api.AnalogInput;
 import ioio.lib.api.DigitalOutput;
-import ioio.lib.api.PwmOutput;
 import ioio.lib.api.exception.ConnectionLostException;
-import ioio.lib.util.BaseIOIOLooper;
 import ioio.lib.util.IOIOLooper;
 import ioio.lib.util.android.IOIOActivity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.os.Bundle;
+import android.os.Handler;
 import android.view.Menu;
 import android.view.MotionEvent;
 import android.view.View;
@@ -16,22 +17,45 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import com.botiful.sdk.R;
+import com.botiful.sdk.helpers.AndroidLogger;
 import com.botiful.sdk.helpers.BluetoothHelper;
+import com.botiful.sdk.models.PwmCalibration;
 import com.botiful.sdk.models.PwmSpeed;
+import com.botiful.sdk.robot.AnalogValueReader;
+import com.botiful.sdk.robot.Clock;
 import com.botiful.sdk.robot.Constants;
+import com.botiful.sdk.robot.DifferentialDrive;
+import com.botiful.sdk.robot.EventDrivenLooper;
+import com.botiful.sdk.robot.ExpiringCommand;
+import com.botiful.sdk.robot.HeadPositionController;
+import com.botiful.sdk.robot.LatencyProbe;
+import com.botiful.sdk.robot.Logger;
+import com.botiful.sdk.robot.PwmMotor;
 
 /**
  * This simple example activity demonstrates how to use IOIO to control Botiful.<br />
  * It uses a IOIOActivity, which is a helper activity very easy to manage.<br />
- * All actions are managed inside a periodic loop which runs in its own thread, it is mostly
+ * All actions are managed inside a loop which runs in its own thread and wakes up on each command, it is mostly
  * managed by the IOIOActivity (except for its creation in the createIOIOLooper() method).
  */
 public class SimpleActivity extends IOIOActivity {
 	
-	// speeds of the various motors
-	private PwmSpeed leftSpeed,rightSpeed,headSpeed;
-	// Head angle, range: Constants.ROTARY_ENCODER_MIN_VALUE to ROTARY_ENCODER_MAX_VALUE
-	private float encoderValue;
+	// drive commands of the buttons (on the PwmSpeed scale)
+	private static final DifferentialDrive.Command FORWARD = new DifferentialDrive.Command(PwmSpeed.MAX, 0);
+	private static final DifferentialDrive.Command BACKWARD = new DifferentialDrive.Command(-PwmSpeed.MAX, 0);
+	private static final DifferentialDrive.Command TURN_LEFT = new DifferentialDrive.Command(0, PwmSpeed.MAX);
+	private static final DifferentialDrive.Command TURN_RIGHT = new DifferentialDrive.Command(0, -PwmSpeed.MAX);
+
+	// drive command, kept alive while a button is held, and head steps not applied yet (positive to lower the head)
+	private final ExpiringCommand<DifferentialDrive.Command> driveCommand =
+			new ExpiringCommand<DifferentialDrive.Command>(DifferentialDrive.Command.STOP,
+					Constants.DRIVE_COMMAND_LIFETIME_MILLIS);
+	private final Handler keepAliveHandler = new Handler();
+	private final AtomicInteger pendingHeadSteps = new AtomicInteger();
+	/** latency from the touch on a move button to the write of the wheel speeds */
+	private final LatencyProbe wheelsProbe = new LatencyProbe("wheels");
+	/** the looper, woken up when the head buttons are pressed */
+	private volatile Looper looper;
 
 	// Manage the button UI
 	private ImageButton btnForward;
@@ -46,6 +70,7 @@ public class SimpleActivity extends IOIOActivity {
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		Logger.set(new AndroidLogger());
 		setContentView(R.layout.activity_main);
 
 		// get handles to UI components
@@ -73,10 +98,7 @@ public class SimpleActivity extends IOIOActivity {
 		// Ask to enable Bluetooth if not already enabled
 		BluetoothHelper.enableBluetooth(this);
 		
-		// init motor speeds
-		leftSpeed = new PwmSpeed(0);
-		rightSpeed = new PwmSpeed(0);
-		headSpeed = new PwmSpeed(0);
+		driveCommand.setProbe(wheelsProbe);
 	}
 
 	@Override
@@ -88,30 +110,47 @@ public class SimpleActivity extends IOIOActivity {
 
 	private class MoveOnTouchListener implements View.OnTouchListener {
 
+		/** keeps the drive command alive while the button is held, stops when the command is gone */
+		private final Runnable keepAlive = new Runnable() {
+			@Override
+			public void run() {
+				if (driveCommand.keepAlive()) {
+					keepAliveHandler.postDelayed(this, Constants.DRIVE_KEEP_ALIVE_PERIOD_MILLIS);
+				}
+			}
+		};
+
 		@Override
 		public boolean onTouch(View v, MotionEvent event) {
-			if (event.getAction() == android.view.MotionEvent.ACTION_DOWN) {
+			switch (event.getAction()) {
+			case MotionEvent.ACTION_DOWN:
+				wheelsProbe.commandCreated();
 				switch (v.getId()) {
 				case R.id.moveForward:
-					leftSpeed = new PwmSpeed(PwmSpeed.MAX);
-					rightSpeed = new PwmSpeed(PwmSpeed.MAX);
+					driveCommand.post(FORWARD);
 					break;
 				case R.id.moveBackward:
-					leftSpeed = new PwmSpeed(-PwmSpeed.MAX);
-					rightSpeed = new PwmSpeed(-PwmSpeed.MAX);
+					driveCommand.post(BACKWARD);
 					break;
 				case R.id.moveLeft:
-					leftSpeed = new PwmSpeed(-PwmSpeed.MAX);
-					rightSpeed = new PwmSpeed(PwmSpeed.MAX);
+					driveCommand.post(TURN_LEFT);
 					break;
 				case R.id.moveRight:
-					leftSpeed = new PwmSpeed(PwmSpeed.MAX);
-					rightSpeed = new PwmSpeed(-PwmSpeed.MAX);
+					driveCommand.post(TURN_RIGHT);
 					break;
 				}
-			} else {
-				leftSpeed = new PwmSpeed(0);
-				rightSpeed = new PwmSpeed(0);
+				keepAliveHandler.removeCallbacks(keepAlive);
+				keepAliveHandler.postDelayed(keepAlive, Constants.DRIVE_KEEP_ALIVE_PERIOD_MILLIS);
+				break;
+			case MotionEvent.ACTION_MOVE:
+				// still held
+				break;
+			default:
+				// released or cancelled: stop right away
+				wheelsProbe.commandCreated();
+				keepAliveHandler.removeCallbacks(keepAlive);
+				driveCommand.cancel();
+				break;
 			}
 			return false;
 		}
@@ -124,12 +163,17 @@ public class SimpleActivity extends IOIOActivity {
 			if (event.getAction() == android.view.MotionEvent.ACTION_DOWN) {
 				switch (v.getId()) {
 				case R.id.buttonHeadUp:
-					headSpeed.increase();
+					// the highest angle is the lowest value
+					pendingHeadSteps.decrementAndGet();
 					break;
 				case R.id.buttonHeadDown:
-					headSpeed.decrease();
+					pendingHeadSteps.incrementAndGet();
 					break;
 				}
+				Looper currentLooper = looper;
+				if (currentLooper!=null) {
+					currentLooper.wakeUp();
+				}
 			}
 			return false;
 		}
@@ -142,21 +186,18 @@ public class SimpleActivity extends IOIOActivity {
 	 * been established (which might happen several times!). Then, loop() will
 	 * be called repetitively until the IOIO gets disconnected.
 	 */
-	class Looper extends BaseIOIOLooper {
-		private static final int LOOP_CYCLE_MILLISECONDS = 100;
-		
+	class Looper extends EventDrivenLooper {
 		/**
-		 * The wheels motors are controlled by PWM. There is two PWMs per motors
+		 * The wheels motors are controlled by PWM. There is two PWMs per motors,
+		 * both wheels are driven together
 		 */
-		private PwmOutput pwmLeft1;
-		private PwmOutput pwmLeft2;
-		private PwmOutput pwmRight1;
-		private PwmOutput pwmRight2;
+		private DifferentialDrive drive;
 
 		/** The head motor is controlled by a 2 PWM */
-		private PwmOutput pwmHead1;
-		private PwmOutput pwmHead2;
-		private AnalogInput rotaryEncoder;
+		private PwmMotor headMotor;
+		private AnalogValueReader rotaryEncoder;
+		/** drives the head toward its target, on each sample of the rotary encoder */
+		private HeadPositionController headController;
 
 		/**
 		 * Called every time a connection with IOIO has been established.
@@ -178,10 +219,15 @@ public class SimpleActivity extends IOIOActivity {
 			});
 			
 			// ========= Wheels configuration =========
-			pwmRight1 = ioio_.openPwmOutput(Constants.LEFT_WHEEL_POSITIVE_PWM_OUTPUT_PIN, Constants.PWM_FREQUENCY);
-			pwmRight2 = ioio_.openPwmOutput(Constants.LEFT_WHEEL_REVERSE_PWM_OUTPUT_PIN, Constants.PWM_FREQUENCY);
-			pwmLeft1 = ioio_.openPwmOutput(Constants.RIGHT_WHEEL_POSITIVE_PWM_OUTPUT_PIN, Constants.PWM_FREQUENCY);
-			pwmLeft2 = ioio_.openPwmOutput(Constants.RIGHT_WHEEL_REVERSE_PWM_OUTPUT_PIN, Constants.PWM_FREQUENCY);
+			PwmMotor leftMotor = new PwmMotor(ioio_,
+					Constants.LEFT_WHEEL_POSITIVE_PWM_OUTPUT_PIN,
+					Constants.LEFT_WHEEL_REVERSE_PWM_OUTPUT_PIN,
+					PwmCalibration.get(Constants.LEFT_WHEEL_ALPHA, PwmSpeed.TAU0_DEFAULT, Constants.PWM_FREQUENCY));
+			PwmMotor rightMotor = new PwmMotor(ioio_,
+					Constants.RIGHT_WHEEL_POSITIVE_PWM_OUTPUT_PIN,
+					Constants.RIGHT_WHEEL_REVERSE_PWM_OUTPUT_PIN,
+					PwmCalibration.get(Constants.RIGHT_WHEEL_ALPHA, PwmSpeed.TAU0_DEFAULT, Constants.PWM_FREQUENCY));
+			drive = new DifferentialDrive(ioio_, leftMotor, rightMotor);
 
 			// The peripheral circuit can be turned OFF if necessary. It can be
 			// for instance used to minimize energy consumption (for instance
@@ -197,8 +243,9 @@ public class SimpleActivity extends IOIOActivity {
 			sleepMode.write(true);
 
 			// ========= Head configuration =========
-			pwmHead1 = ioio_.openPwmOutput(Constants.HEAD_POSITIVE_PWM_OUTPUT_PIN, Constants.PWM_FREQUENCY);
-			pwmHead2 = ioio_.openPwmOutput(Constants.HEAD_REVERSE_PWM_OUTPUT_PIN, Constants.PWM_FREQUENCY);
+			headMotor = new PwmMotor(ioio_,
+					Constants.HEAD_POSITIVE_PWM_OUTPUT_PIN,
+					Constants.HEAD_REVERSE_PWM_OUTPUT_PIN);
 
 			// Turn the sleep mode of the motor driver to OFF
 			sleepMode = ioio_.openDigitalOutput(Constants.HEAD_MOTOR_DRIVERS_SLEEP_MODE_PIN);
@@ -208,64 +255,52 @@ public class SimpleActivity extends IOIOActivity {
 			// the voltage is proportional to the head angle
 			// minimum value ~0.26 <=> highest possible angle
 			// maximum value ~0.49 <=> lowest possible angle
-			rotaryEncoder = ioio_.openAnalogInput(Constants.ROTARY_ENCODER_ANALOG_INPUT_PIN);
-
+			rotaryEncoder = new AnalogValueReader(ioio_, Constants.ROTARY_ENCODER_ANALOG_INPUT_PIN);
+			
+			// positive speeds raise the head, i.e. decrease the rotary encoder value
+			headController = new HeadPositionController(headMotor, false,
+					Constants.HEAD_POSITION_PROPORTIONAL_GAIN,
+					Constants.HEAD_POSITION_INTEGRAL_GAIN,
+					Constants.HEAD_POSITION_DERIVATIVE_GAIN);
+			headController.setTolerance(Constants.HEAD_POSITION_TOLERANCE);
+			rotaryEncoder.addInterlock(headController);
+			
+			// ========= Commands =========
+			// wake up on new drive commands, and when they expire
+			watch(driveCommand);
+			addProbe(wheelsProbe);
 		}
 
 		/**
-		 * Called repetitively while the IOIO is connected. In this loop we send the commands to 
+		 * Called each time the looper wakes up, i.e. on each command of the UI. In this method we send the commands to 
 		 * the various outputs (e.g. PWM controlled motors).<br />
-		 * All commands will be run for the duration of the loop 
+		 * Drive commands are applied until released, or until they expire if the UI stops keeping them alive
 		 * 
 		 * @throws ConnectionLostException
 		 *             When IOIO connection is lost.
 		 * 
-		 * @see ioio.lib.util.AbstractIOIOActivity.IOIOThread#loop()
+		 * @see com.botiful.sdk.robot.EventDrivenLooper#processCommands()
 		 */
 		@Override
-		public void loop() throws ConnectionLostException {
-			pwmLeft1.setPulseWidth(leftSpeed.getPulseWidthForPositivePin());
-			pwmLeft2.setPulseWidth(leftSpeed.getPulseWidthForReversePin());
-
-			pwmRight1.setPulseWidth(rightSpeed.getPulseWidthForPositivePin());
-			pwmRight2.setPulseWidth(rightSpeed.getPulseWidthForReversePin());
+		protected void processCommands() throws ConnectionLostException {
+			// apply the new drive command, or stop the wheels if the held command has expired
+			DifferentialDrive.Command command = driveCommand.poll(Clock.now());
+			if (command!=null) {
+				drive.drive(command);
+			}
 			
-			// reset wheels speed
-			leftSpeed = new PwmSpeed(0);
-			rightSpeed = new PwmSpeed(0);
-
-			try {
-				encoderValue = rotaryEncoder.read();
-				
-				// depending on the current position of the head (angle) we move or not				
-				// if we are raising the head
-				if (headSpeed.isPositive()) {
-					if (encoderValue <= Constants.ROTARY_ENCODER_MIN_VALUE) {
-						// we are at the highest point (lowest value), stop the motor
-						headSpeed = new PwmSpeed(0);
-					}
-				} else {
-					// we are lowering the head
-					if (encoderValue >= Constants.ROTARY_ENCODER_MAX_VALUE) {
-						// we are at the lowest point (highest value), stop the motor
-						headSpeed = new PwmSpeed(0);				
-					}					
+			// move the head target, the head is driven by its controller on the reader thread
+			int steps = pendingHeadSteps.getAndSet(0);
+			if (steps!=0) {
+				float target = headController.getTarget();
+				if (Float.isNaN(target)) {
+					// start from the current position of the head
+					target = rotaryEncoder.getLastValue();
+				}
+				if (!Float.isNaN(target)) {
+					headController.setTarget(Math.max(Constants.ROTARY_ENCODER_MIN_VALUE,
+							Math.min(Constants.ROTARY_ENCODER_MAX_VALUE, target+steps*Constants.HEAD_POSITION_STEP)));
 				}
-				// apply speed
-				pwmHead1.setPulseWidth(headSpeed.getPulseWidthForPositivePin());
-				pwmHead2.setPulseWidth(headSpeed.getPulseWidthForReversePin());
-				
-
-			} catch (InterruptedException e1) {
-				// this means we have not been able to get the angle of the head (rotary encoder position)
-				//  no action
-			}
-
-			try {
-				Thread.sleep(LOOP_CYCLE_MILLISECONDS);
-			} catch (InterruptedException e) {
-				// wait period has been interrupted - most probably because the user has left the app
-				// no action
 			}
 		}
 	}
@@ -277,6 +312,7 @@ public class SimpleActivity extends IOIOActivity {
 	 */
 	@Override
 	protected IOIOLooper createIOIOLooper() {
-		return new Looper();
+		looper = new Looper();
+		return looper;
 	}
 }
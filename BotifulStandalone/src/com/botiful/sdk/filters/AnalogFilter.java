@@ -0,0 +1,23 @@
+package com.botiful.sdk.filters;
+
+/**
+ * A stage of an {@link AnalogFilterPipeline}.<br />
+ * Filters process blocks of samples in place, on the thread acquiring them: implementations must not
+ * allocate memory nor block in {@link #process}.
+ */
+public abstract class AnalogFilter {
+	/**
+	 * Filters a block of samples in place. Stages reducing the number of samples (e.g. decimation)
+	 * move the samples they keep, with their dates, to the front of the arrays.
+	 * @param values sample values, oldest first, replaced by the filtered values
+	 * @param timestampsNanos sample dates, oldest first, same length as the values
+	 * @param count number of samples in the arrays
+	 * @return the number of samples left in the arrays after filtering, may be 0
+	 */
+	public abstract int process(float[] values, long[] timestampsNanos, int count);
+
+	/**
+	 * Forgets the previous samples, the filter starts again from its initial state
+	 */
+	public abstract void reset();
+}
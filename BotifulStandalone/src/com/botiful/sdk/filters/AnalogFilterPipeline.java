@@ -0,0 +1,92 @@
+package com.botiful.sdk.filters;
+
+/**
+ * A chain of {@link AnalogFilter} stages, applied in the order they were added.<br />
+ * Add all the stages before passing the pipeline to a reader: the samples then go through it
+ * on the acquisition thread, without any allocation.
+ */
+public class AnalogFilterPipeline {
+	private AnalogFilter[] stages_;
+	/** dates of the samples of the current block, reused */
+	private long[] timestampsNanos_;
+
+	/**
+	 * Build an empty pipeline (samples go through unchanged)
+	 */
+	public AnalogFilterPipeline() {
+		stages_ = new AnalogFilter[0];
+		timestampsNanos_ = new long[0];
+	}
+
+	/**
+	 * Appends a stage to the pipeline
+	 * @param stage filter to apply after the current ones
+	 * @return this pipeline, to chain the calls
+	 */
+	public AnalogFilterPipeline add(AnalogFilter stage) {
+		AnalogFilter[] stages = new AnalogFilter[stages_.length+1];
+		System.arraycopy(stages_, 0, stages, 0, stages_.length);
+		stages[stages_.length] = stage;
+		stages_ = stages;
+		return this;
+	}
+
+	/**
+	 * Filters a block of evenly spaced samples in place.
+	 * @param values sample values, oldest first, replaced by the filtered values
+	 * @param count number of samples in the array
+	 * @param firstTimestampNanos date of the first sample
+	 * @param samplePeriodNanos time between two samples
+	 * @return the number of samples left after filtering, their dates are given by {@link #getTimestampsNanos()}
+	 */
+	public int process(float[] values, int count, long firstTimestampNanos, long samplePeriodNanos) {
+		ensureCapacity(values.length, count);
+		for (int i=0; i<count; i++) {
+			timestampsNanos_[i] = firstTimestampNanos+i*samplePeriodNanos;
+		}
+		return processStages(values, count);
+	}
+
+	/**
+	 * Filters a block of dated samples in place, e.g. replayed from a capture.
+	 * @param values sample values, oldest first, replaced by the filtered values
+	 * @param timestampsNanos dates of the samples, oldest first, left unchanged
+	 * @param count number of samples in the arrays
+	 * @return the number of samples left after filtering, their dates are given by {@link #getTimestampsNanos()}
+	 */
+	public int process(float[] values, long[] timestampsNanos, int count) {
+		ensureCapacity(values.length, count);
+		System.arraycopy(timestampsNanos, 0, timestampsNanos_, 0, count);
+		return processStages(values, count);
+	}
+
+	private void ensureCapacity(int length, int count) {
+		if (timestampsNanos_.length < count) {
+			// only happens on the first blocks
+			timestampsNanos_ = new long[length];
+		}
+	}
+
+	private int processStages(float[] values, int count) {
+		for (int s=0; s<stages_.length && count>0; s++) {
+			count = stages_[s].process(values, timestampsNanos_, count);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the dates of the samples left by the last call to {@link #process}
+	 */
+	public long[] getTimestampsNanos() {
+		return timestampsNanos_;
+	}
+
+	/**
+	 * Resets all the stages
+	 */
+	public void reset() {
+		for (int s=0; s<stages_.length; s++) {
+			stages_[s].reset();
+		}
+	}
+}
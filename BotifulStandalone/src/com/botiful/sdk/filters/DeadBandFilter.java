@@ -0,0 +1,39 @@
+package com.botiful.sdk.filters;
+
+/**
+ * Only lets a sample through if it differs from the last sample let through by at least the band width.
+ * Removes the small oscillations of a signal which is not moving.
+ */
+public class DeadBandFilter extends AnalogFilter {
+	private final float band_;
+	/** last value let through, or NaN before the first sample */
+	private float lastValue_;
+
+	/**
+	 * @param band minimum change of the value to let a new sample through
+	 */
+	public DeadBandFilter(float band) {
+		band_ = Math.abs(band);
+		reset();
+	}
+
+	@Override
+	public int process(float[] values, long[] timestampsNanos, int count) {
+		int kept = 0;
+		for (int i=0; i<count; i++) {
+			float value = values[i];
+			if (Float.isNaN(lastValue_) || Math.abs(value-lastValue_) >= band_) {
+				values[kept] = value;
+				timestampsNanos[kept] = timestampsNanos[i];
+				kept++;
+				lastValue_ = value;
+			}
+		}
+		return kept;
+	}
+
+	@Override
+	public void reset() {
+		lastValue_ = Float.NaN;
+	}
+}
@@ -0,0 +1,40 @@
+package com.botiful.sdk.filters;
+
+/**
+ * Keeps one sample out of N.<br />
+ * Put a low-pass stage (e.g. a {@link MovingAverageFilter} over N samples) before it to avoid aliasing.
+ */
+public class DecimationFilter extends AnalogFilter {
+	private final int factor_;
+	/** number of samples to skip before the next one kept */
+	private int skip_;
+
+	/**
+	 * @param factor one sample is kept every factor samples
+	 */
+	public DecimationFilter(int factor) {
+		factor_ = Math.max(1, factor);
+		reset();
+	}
+
+	@Override
+	public int process(float[] values, long[] timestampsNanos, int count) {
+		int kept = 0;
+		for (int i=0; i<count; i++) {
+			if (skip_ == 0) {
+				values[kept] = values[i];
+				timestampsNanos[kept] = timestampsNanos[i];
+				kept++;
+				skip_ = factor_-1;
+			} else {
+				skip_--;
+			}
+		}
+		return kept;
+	}
+
+	@Override
+	public void reset() {
+		skip_ = 0;
+	}
+}
@@ -0,0 +1,39 @@
+package com.botiful.sdk.filters;
+
+/**
+ * First order low-pass filter: y = y + alpha*(x-y)
+ */
+public class ExponentialMovingAverageFilter extends AnalogFilter {
+	private final float alpha_;
+	/** last output, or NaN before the first sample */
+	private float output_;
+
+	/**
+	 * @param alpha smoothing factor in ]0,1], 1 means no smoothing
+	 */
+	public ExponentialMovingAverageFilter(float alpha) {
+		alpha_ = Math.max(Float.MIN_VALUE, Math.min(1, alpha));
+		reset();
+	}
+
+	@Override
+	public int process(float[] values, long[] timestampsNanos, int count) {
+		float output = output_;
+		int i = 0;
+		if (Float.isNaN(output) && count > 0) {
+			output = values[0];
+			i = 1;
+		}
+		for (; i<count; i++) {
+			output += alpha_*(values[i]-output);
+			values[i] = output;
+		}
+		output_ = output;
+		return count;
+	}
+
+	@Override
+	public void reset() {
+		output_ = Float.NaN;
+	}
+}
@@ -0,0 +1,68 @@
+package com.botiful.sdk.filters;
+
+/**
+ * Median of the last N samples, removes isolated spikes.<br />
+ * Meant for small windows (3 to 9 samples): the cost is proportional to the window size.
+ */
+public class MedianFilter extends AnalogFilter {
+	/** last samples, in arrival order */
+	private final float[] window_;
+	/** same samples, sorted */
+	private final float[] sorted_;
+	/** number of samples in the window, up to its size */
+	private int size_;
+	/** index of the oldest sample in the window */
+	private int oldest_;
+
+	/**
+	 * @param windowSize number of samples to take the median of, preferably odd
+	 */
+	public MedianFilter(int windowSize) {
+		window_ = new float[Math.max(1, windowSize)];
+		sorted_ = new float[window_.length];
+		reset();
+	}
+
+	@Override
+	public int process(float[] values, long[] timestampsNanos, int count) {
+		for (int i=0; i<count; i++) {
+			float value = values[i];
+			int index;
+			if (size_ < window_.length) {
+				index = size_++;
+			} else {
+				// replace the oldest sample in the sorted array
+				index = indexOf(window_[oldest_]);
+			}
+			window_[oldest_] = value;
+			oldest_ = (oldest_+1 == window_.length)?0:oldest_+1;
+			// move the new value to its place, one insertion sort step
+			while (index > 0 && sorted_[index-1] > value) {
+				sorted_[index] = sorted_[index-1];
+				index--;
+			}
+			while (index < size_-1 && sorted_[index+1] < value) {
+				sorted_[index] = sorted_[index+1];
+				index++;
+			}
+			sorted_[index] = value;
+			values[i] = sorted_[size_/2];
+		}
+		return count;
+	}
+
+	private int indexOf(float value) {
+		for (int i=0; i<size_; i++) {
+			if (Float.compare(sorted_[i], value) == 0) {
+				return i;
+			}
+		}
+		return size_-1;
+	}
+
+	@Override
+	public void reset() {
+		size_ = 0;
+		oldest_ = 0;
+	}
+}
@@ -0,0 +1,45 @@
+package com.botiful.sdk.filters;
+
+/**
+ * Average of the last N samples
+ */
+public class MovingAverageFilter extends AnalogFilter {
+	private final float[] window_;
+	/** sum of the samples in the window, in double to avoid the accumulation of rounding errors */
+	private double sum_;
+	/** number of samples in the window, up to its size */
+	private int size_;
+	/** index of the oldest sample in the window */
+	private int oldest_;
+
+	/**
+	 * @param windowSize number of samples to average
+	 */
+	public MovingAverageFilter(int windowSize) {
+		window_ = new float[Math.max(1, windowSize)];
+		reset();
+	}
+
+	@Override
+	public int process(float[] values, long[] timestampsNanos, int count) {
+		for (int i=0; i<count; i++) {
+			if (size_ < window_.length) {
+				size_++;
+			} else {
+				sum_ -= window_[oldest_];
+			}
+			window_[oldest_] = values[i];
+			sum_ += values[i];
+			oldest_ = (oldest_+1 == window_.length)?0:oldest_+1;
+			values[i] = (float) (sum_/size_);
+		}
+		return count;
+	}
+
+	@Override
+	public void reset() {
+		sum_ = 0;
+		size_ = 0;
+		oldest_ = 0;
+	}
+}
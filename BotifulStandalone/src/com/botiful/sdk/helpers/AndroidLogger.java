@@ -0,0 +1,21 @@
+package com.botiful.sdk.helpers;
+
+import android.util.Log;
+
+import com.botiful.sdk.robot.Logger;
+
+/**
+ * Sends the messages of the SDK to the Android log.<br />
+ * Install it when the app starts: Logger.set(new AndroidLogger());
+ */
+public class AndroidLogger extends Logger {
+	@Override
+	public void warn(String tag, Throwable throwable) {
+		Log.w(tag, throwable);
+	}
+
+	@Override
+	public void error(String tag, String message) {
+		Log.e(tag, message);
+	}
+}
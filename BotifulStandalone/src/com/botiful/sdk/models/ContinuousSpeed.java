@@ -0,0 +1,100 @@
+package com.botiful.sdk.models;
+
+/**
+ * Model for high-resolution speed values, on the same [-10;10] scale as {@link PwmSpeed}<br />
+ * Values are stored in fixed point, with RESOLUTION steps per unit of PwmSpeed, and converted to pulse
+ * widths through the same curve (see {@link PwmCalibration}).<br />
+ * Like PwmSpeed, values are immutable and interned: {@link #valueOf(float)} never allocates.
+ */
+public final class ContinuousSpeed {
+	/** number of steps per unit of PwmSpeed */
+	public static final int RESOLUTION = 100;
+	/** max fixed-point value (absolute value) */
+	public static final int MAX_FIXED_POINT = PwmSpeed.MAX*RESOLUTION;
+	
+	/** interned instances, from -MAX_FIXED_POINT to MAX_FIXED_POINT */
+	private static final ContinuousSpeed[] VALUES = new ContinuousSpeed[2*MAX_FIXED_POINT+1];
+	static {
+		for (int i=0; i<VALUES.length; i++) {
+			VALUES[i] = new ContinuousSpeed(i-MAX_FIXED_POINT);
+		}
+	}
+	/** null speed */
+	public static final ContinuousSpeed ZERO = fromFixedPoint(0);
+	
+	/** speed value, in 1/RESOLUTION units */
+	private final int fixedPointValue_;
+	
+	private ContinuousSpeed(int fixedPointValue) {
+		fixedPointValue_ = fixedPointValue;
+	}
+	
+	/**
+	 * Get the speed for a value.
+	 * @param value value between -10 (full speed, reverse) and 10 (full speed). Clipped if out of range.
+	 * @return the unique instance for the nearest step
+	 */
+	public static ContinuousSpeed valueOf(float value) {
+		return fromFixedPoint(Math.round(value*RESOLUTION));
+	}
+	
+	/**
+	 * Get the speed matching a PwmSpeed.
+	 * @param speed integer speed
+	 * @return the unique instance for this value
+	 */
+	public static ContinuousSpeed valueOf(PwmSpeed speed) {
+		return VALUES[speed.getValue()*RESOLUTION+MAX_FIXED_POINT];
+	}
+	
+	/**
+	 * Get the speed for a fixed-point value.
+	 * @param fixedPointValue value in 1/RESOLUTION units, clipped if out of range.
+	 * @return the unique instance for this value
+	 */
+	public static ContinuousSpeed fromFixedPoint(int fixedPointValue) {
+		if (fixedPointValue>MAX_FIXED_POINT) {
+			fixedPointValue = MAX_FIXED_POINT;
+		} else if (fixedPointValue<-MAX_FIXED_POINT) {
+			fixedPointValue = -MAX_FIXED_POINT;
+		}
+		return VALUES[fixedPointValue+MAX_FIXED_POINT];
+	}
+	
+	/**
+	 * @return the value, between -10 and 10
+	 */
+	public float getValue() {
+		return (float) fixedPointValue_/RESOLUTION;
+	}
+	
+	/**
+	 * @return the value in 1/RESOLUTION units
+	 */
+	public int getFixedPointValue() {
+		return fixedPointValue_;
+	}
+	
+	/**
+	 * @return the nearest integer speed
+	 */
+	public PwmSpeed toPwmSpeed() {
+		return PwmSpeed.valueOf(Math.round(getValue()));
+	}
+	
+	/**
+	 * @return true if the speed is positive or null, false else
+	 */
+	public boolean isPositive() {
+		return (fixedPointValue_>=0);
+	}
+	
+	/**
+	 * Comparison by value
+	 * @param s other speed object to compare
+	 * @return true if an only if the values match.
+	 */
+	public boolean equals(ContinuousSpeed s) {
+		return ((s!=null) && (this.fixedPointValue_ == s.fixedPointValue_));
+	}
+}
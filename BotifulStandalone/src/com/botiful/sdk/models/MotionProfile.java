@@ -0,0 +1,164 @@
+package com.botiful.sdk.models;
+
+/**
+ * Precomputed setpoints of a move, one per control tick.<br />
+ * Two kinds of profiles:
+ * <ul><li>speed profiles: the setpoints are speeds, e.g. drive forward for 1.5s with a 300ms ramp
+ * <li>position profiles: the setpoints are positions of a sensor, e.g. tilt the head to an encoder value;
+ * the velocity at each tick is stored too, to be used as a feed-forward term</ul>
+ * Ramps are linear (TRAPEZOIDAL) or follow a half cosine (S_CURVE), which starts and ends them smoothly.
+ * The whole profile is computed when it is built: playing it back is a lookup per tick.
+ */
+public final class MotionProfile {
+	/** Shape of the ramps */
+	public enum Shape {
+		/** constant acceleration */
+		TRAPEZOIDAL,
+		/** acceleration rising and falling smoothly */
+		S_CURVE
+	}
+	
+	private final int tickMillis_;
+	/** setpoints */
+	private final float[] values_;
+	/** rate of change of the setpoints per second, only for position profiles */
+	private final float[] velocities_;
+	
+	private MotionProfile(int tickMillis, float[] values, float[] velocities) {
+		tickMillis_ = tickMillis;
+		values_ = values;
+		velocities_ = velocities;
+	}
+	
+	/**
+	 * Build a speed profile: ramps up to the speed, holds it, then ramps down to zero.
+	 * @param shape shape of the ramps
+	 * @param speed speed to hold, on the PwmSpeed scale
+	 * @param durationMillis duration of the whole move, ramps included
+	 * @param rampMillis duration of each ramp, at most half the duration
+	 * @param tickMillis period of the control ticks
+	 * @return the profile, whose last setpoint is zero
+	 */
+	public static MotionProfile speed(Shape shape, float speed, int durationMillis, int rampMillis, int tickMillis) {
+		tickMillis = Math.max(1, tickMillis);
+		durationMillis = Math.max(0, durationMillis);
+		float ramp = Math.max(0, Math.min(rampMillis, durationMillis/2f));
+		int length = (durationMillis+tickMillis-1)/tickMillis+1;
+		float[] values = new float[length];
+		for (int i=0; i<length-1; i++) {
+			float t = (float) i*tickMillis;
+			values[i] = speed*rampFactor(shape, t, durationMillis-t, ramp);
+		}
+		values[length-1] = 0;
+		return new MotionProfile(tickMillis, values, null);
+	}
+	
+	/**
+	 * Build a position profile from a point to another, with a limited velocity and acceleration.
+	 * If the distance is too short to reach the velocity, the profile is triangular.
+	 * @param shape shape of the ramps
+	 * @param from starting position
+	 * @param to final position
+	 * @param maxVelocity highest velocity, in position units per second
+	 * @param acceleration acceleration of the ramps, in position units per second per second
+	 * @param tickMillis period of the control ticks
+	 * @return the profile, whose last setpoint is the final position
+	 */
+	public static MotionProfile position(Shape shape, float from, float to, float maxVelocity, float acceleration,
+			int tickMillis) {
+		tickMillis = Math.max(1, tickMillis);
+		float distance = Math.abs(to-from);
+		float direction = Math.signum(to-from);
+		maxVelocity = Math.abs(maxVelocity);
+		acceleration = Math.abs(acceleration);
+		if (distance == 0 || maxVelocity == 0 || acceleration == 0) {
+			return new MotionProfile(tickMillis, new float[] {to}, new float[] {0});
+		}
+		// durations in seconds: ramp, cruise
+		float rampTime = maxVelocity/acceleration;
+		float peakVelocity = maxVelocity;
+		if (acceleration*rampTime*rampTime > distance) {
+			rampTime = (float) Math.sqrt(distance/acceleration);
+			peakVelocity = acceleration*rampTime;
+		}
+		float cruiseTime = (distance-peakVelocity*rampTime)/peakVelocity;
+		float totalTime = 2*rampTime+cruiseTime;
+		float tick = tickMillis/1000f;
+		int length = (int) Math.ceil(totalTime/tick)+1;
+		float[] values = new float[length];
+		float[] velocities = new float[length];
+		float travelled = 0;
+		for (int i=0; i<length; i++) {
+			float t = Math.min(i*tick, totalTime);
+			velocities[i] = peakVelocity*rampFactor(shape, t, totalTime-t, rampTime);
+			if (i > 0) {
+				travelled += (velocities[i-1]+velocities[i])/2*tick;
+			}
+			values[i] = travelled;
+		}
+		// both ramp shapes cover the same distance, correct the integration error
+		float scale = (travelled > 0)?distance/travelled:0;
+		for (int i=0; i<length; i++) {
+			values[i] = from+direction*values[i]*scale;
+			velocities[i] *= direction;
+		}
+		values[length-1] = to;
+		velocities[length-1] = 0;
+		return new MotionProfile(tickMillis, values, velocities);
+	}
+	
+	/**
+	 * @return the ramp factor in [0,1] at some time from the start and before the end
+	 */
+	private static float rampFactor(Shape shape, float sinceStart, float beforeEnd, float ramp) {
+		if (ramp <= 0) {
+			return 1;
+		}
+		float r = Math.max(0, Math.min(1, Math.min(sinceStart, beforeEnd)/ramp));
+		if (shape == Shape.S_CURVE) {
+			return (float) (1-Math.cos(Math.PI*r))/2;
+		}
+		return r;
+	}
+	
+	/**
+	 * @return the number of setpoints (ticks) of the profile
+	 */
+	public int getLength() {
+		return values_.length;
+	}
+	
+	public int getTickMillis() {
+		return tickMillis_;
+	}
+	
+	/**
+	 * @return true for a position profile, false for a speed profile
+	 */
+	public boolean isPositionProfile() {
+		return velocities_ != null;
+	}
+	
+	/**
+	 * @param tick index of the tick, from 0 to getLength()-1
+	 * @return the setpoint for this tick
+	 */
+	public float getValue(int tick) {
+		return values_[tick];
+	}
+	
+	/**
+	 * @param tick index of the tick, from 0 to getLength()-1
+	 * @return the velocity at this tick (position units per second), 0 for a speed profile
+	 */
+	public float getVelocity(int tick) {
+		return (velocities_ == null)?0:velocities_[tick];
+	}
+	
+	/**
+	 * @return the last setpoint
+	 */
+	public float getFinalValue() {
+		return values_[values_.length-1];
+	}
+}
@@ -0,0 +1,123 @@
+package com.botiful.sdk.models;
+
+import java.util.ArrayList;
+
+/**
+ * Conversion of speeds to PWM pulse widths, for one set of duty cycle scaling parameters.<br />
+ * The pulse width is tau = alpha*log(abs(x))+tau0, for alpha and tau0 given at 50kHz and scaled to the
+ * actual PWM frequency, and clipped to the PWM period.<br />
+ * Pulse widths are computed once, into a table at the resolution of {@link ContinuousSpeed}, when the
+ * calibration is created: converting a speed is a lookup. Calibrations are interned, use {@link #get(float, float, int)} to obtain one.
+ */
+public final class PwmCalibration {
+	/** PWM frequency at which alpha and tau0 are given */
+	public static final int REFERENCE_FREQUENCY = 50000; // [Hz]
+	
+	/** calibrations created so far */
+	private static final ArrayList<PwmCalibration> CALIBRATIONS = new ArrayList<PwmCalibration>();
+	/** default calibration, at the reference frequency */
+	public static final PwmCalibration DEFAULT = get(PwmSpeed.ALPHA_DEFAULT, PwmSpeed.TAU0_DEFAULT, REFERENCE_FREQUENCY);
+	
+	private final float alpha_;
+	private final float tau0_;
+	private final int pwmFrequency_;
+	/** pulse widths in us, indexed by the absolute fixed-point value of the speed */
+	private final float[] pulseWidths_;
+	
+	private PwmCalibration(float alpha, float tau0, int pwmFrequency) {
+		alpha_ = alpha;
+		tau0_ = tau0;
+		pwmFrequency_ = pwmFrequency;
+		float periodMicros = 1e6f/pwmFrequency;
+		float scale = (float) REFERENCE_FREQUENCY/pwmFrequency;
+		pulseWidths_ = new float[ContinuousSpeed.MAX_FIXED_POINT+1];
+		pulseWidths_[0] = 0;
+		for (int i=1; i<pulseWidths_.length; i++) {
+			// the curve goes below zero for the smallest speeds
+			float pulseWidth = (float) (alpha * Math.log((double) i/ContinuousSpeed.RESOLUTION) + tau0) * scale;
+			pulseWidths_[i] = Math.max(0, Math.min(periodMicros, pulseWidth));
+		}
+	}
+	
+	/**
+	 * Get the calibration for a set of parameters. Tables are only computed the first time.
+	 * @param alpha alpha parameter in us at 50kHz, e.g. 1.10*ALPHA_DEFAULT to speed a wheel up
+	 * @param tau0 tau0 parameter in us at 50kHz
+	 * @param pwmFrequency frequency of the PWM outputs, e.g. Constants.PWM_FREQUENCY
+	 * @return the calibration
+	 */
+	public static synchronized PwmCalibration get(float alpha, float tau0, int pwmFrequency) {
+		if (pwmFrequency <= 0) {
+			throw new IllegalArgumentException("The PWM frequency must be positive");
+		}
+		for (int i=0; i<CALIBRATIONS.size(); i++) {
+			PwmCalibration calibration = CALIBRATIONS.get(i);
+			if (calibration.alpha_ == alpha && calibration.tau0_ == tau0 && calibration.pwmFrequency_ == pwmFrequency) {
+				return calibration;
+			}
+		}
+		PwmCalibration calibration = new PwmCalibration(alpha, tau0, pwmFrequency);
+		CALIBRATIONS.add(calibration);
+		return calibration;
+	}
+	
+	/**
+	 * @param alpha new value of alpha
+	 * @return the calibration with the same tau0 and frequency, and a new alpha
+	 */
+	public PwmCalibration withAlpha(float alpha) {
+		return get(alpha, tau0_, pwmFrequency_);
+	}
+	
+	/**
+	 * Get the PWM pulse width in us for the direct (positive) pin.
+	 * @param speed speed to convert
+	 * @return the value to be passed to IOIO
+	 */
+	public float getPulseWidthForPositivePin(PwmSpeed speed) {
+		int value = speed.getValue();
+		return (value>0)?pulseWidths_[value*ContinuousSpeed.RESOLUTION]:0;
+	}
+	
+	/**
+	 * Get the PWM pulse width in us for the reverse (negative) pin.
+	 * @param speed speed to convert
+	 * @return the value to be passed to IOIO
+	 */
+	public float getPulseWidthForReversePin(PwmSpeed speed) {
+		int value = speed.getValue();
+		return (value<0)?pulseWidths_[-value*ContinuousSpeed.RESOLUTION]:0;
+	}
+	
+	/**
+	 * Get the PWM pulse width in us for the direct (positive) pin.
+	 * @param speed speed to convert
+	 * @return the value to be passed to IOIO
+	 */
+	public float getPulseWidthForPositivePin(ContinuousSpeed speed) {
+		int value = speed.getFixedPointValue();
+		return (value>0)?pulseWidths_[value]:0;
+	}
+	
+	/**
+	 * Get the PWM pulse width in us for the reverse (negative) pin.
+	 * @param speed speed to convert
+	 * @return the value to be passed to IOIO
+	 */
+	public float getPulseWidthForReversePin(ContinuousSpeed speed) {
+		int value = speed.getFixedPointValue();
+		return (value<0)?pulseWidths_[-value]:0;
+	}
+	
+	public float getAlpha() {
+		return alpha_;
+	}
+	
+	public float getTau0() {
+		return tau0_;
+	}
+	
+	public int getPwmFrequency() {
+		return pwmFrequency_;
+	}
+}
@@ -16,4 +16,33 @@ public abstract class AbstractRoboticElement {
 	protected AbstractRoboticElement(IOIO ioio) {
 		IOIO_ = ioio;
 	}
+	
+	/**
+	 * Get a counter of the default {@link MetricsRegistry}. Name it after the hardware rather than the instance
+	 * (e.g. "PwmMotor.pin40.writes"), so that it keeps counting across reconnections.
+	 * @param name name of the counter
+	 * @return the counter, to keep in a field
+	 */
+	protected static MetricsRegistry.Counter counter(String name) {
+		return MetricsRegistry.getDefault().counter(name);
+	}
+	
+	/**
+	 * Register a gauge into the default {@link MetricsRegistry}, replacing the one of a previous connection
+	 * @param name name of the gauge
+	 * @param gauge the gauge
+	 */
+	protected static void gauge(String name, MetricsRegistry.Gauge gauge) {
+		MetricsRegistry.getDefault().gauge(name, gauge);
+	}
+	
+	/**
+	 * Unregister a gauge from the default {@link MetricsRegistry}, unless another connection replaced it already,
+	 * so that the registry does not keep the element reachable once it is closed
+	 * @param name name of the gauge
+	 * @param gauge the gauge registered by this element
+	 */
+	protected static void removeGauge(String name, MetricsRegistry.Gauge gauge) {
+		MetricsRegistry.getDefault().removeGauge(name, gauge);
+	}
 }
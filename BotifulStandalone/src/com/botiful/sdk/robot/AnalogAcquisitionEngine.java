@@ -0,0 +1,294 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * Acquisition of several analog inputs from a single thread.<br />
+ * IOIO samples all the open analog pins in the same scan, at the same rate. This engine reads
+ * one sample of each pin in turn, which gives time-aligned multi-channel frames, delivered to an
+ * optional FrameObserver.<br />
+ * Each pin also gets its own {@link AnalogChannel}, with the same observers, periodic updates and threshold
+ * alerts as an {@link AnalogValueReader}.<br />
+ * Whatever the number of pins, there is one thread and a fixed set of arrays allocated at construction.<br />
+ * Each pin is monitored by an {@link AnalogInputMetrics} object, see {@link #getMetrics(int)}.
+ */
+public class AnalogAcquisitionEngine extends AbstractRoboticElement {
+	/**
+	 * A custom interface to receive all the frames read, one block at a time
+	 */
+	public interface FrameObserver {
+		/**
+		 * This interface method is called with every frame read, once per iteration of the acquisition thread<br />
+		 * Frames are interleaved: the value of channel c in frame f is at index f*channelCount+c.<br />
+		 * The array is reused for the next block: copy the values if they are needed after the call.<br />
+		 * <b>Delegate the processing to another thread, CPU time here can lead to delayed/lost samples</b>
+		 * @param frames new values in the [0,1] range, oldest frame first
+		 * @param frameCount number of valid frames in the array
+		 * @param channelCount number of values per frame
+		 * @param firstFrameTimeNanos estimated date of the first frame, in the Clock.now() time base
+		 */
+		public void onNewFrames(float[] frames, int frameCount, int channelCount, long firstFrameTimeNanos);
+	}
+
+	private final AnalogInput[] analogInputs_;
+	private final AnalogChannel[] channels_;
+	/** interleaved frames of the current block */
+	private final float[] frames_;
+	/** values of the current block, one array per channel */
+	private final float[][] channelBlocks_;
+	/** maximum number of frames per block */
+	private final int maxFrames_;
+	/** time between two frames in nanoseconds */
+	private final long samplePeriodNanos_;
+	/** overflows, queue depth and sample rate of each pin */
+	private final AnalogInputMetrics[] metrics_;
+	/** number of samples waiting in the IOIO-side buffer of each pin at the last read, including the ones drained */
+	private final int[] queueDepths_;
+	private volatile FrameObserver frameObserver_;
+	/** control variable for the thread */
+	private volatile boolean running_;
+	/** a thread to wait for incoming frames and dispatch them */
+	private Thread acquisitionThread_;
+
+	/**
+	 * Build the engine and open all the analog inputs
+	 * @param ioio handle to the ioio interface
+	 * @param pins index numbers of the analog input pins, one channel per pin in this order
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public AnalogAcquisitionEngine(IOIO ioio, int[] pins) throws ConnectionLostException {
+		this(ioio, pins, AnalogValueReader.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Build the engine and open all the analog inputs with a custom buffer size
+	 * @param ioio handle to the ioio interface
+	 * @param pins index numbers of the analog input pins, one channel per pin in this order
+	 * @param bufferSize number of samples buffered on the IOIO side for each pin, and maximum block size
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public AnalogAcquisitionEngine(IOIO ioio, int[] pins, int bufferSize) throws ConnectionLostException {
+		this(ioio, pins, bufferSize, null);
+	}
+
+	/**
+	 * Build the engine and open all the analog inputs, with a buffer sized from the metrics of the previous
+	 * connections.<br />
+	 * Keep the metrics objects across reconnections to let the SDK pick the smallest buffer that avoids loss.
+	 * @param ioio handle to the ioio interface
+	 * @param pins index numbers of the analog input pins, one channel per pin in this order
+	 * @param metrics metrics of each pin, in the same order, updated by this engine
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public AnalogAcquisitionEngine(IOIO ioio, int[] pins, AnalogInputMetrics[] metrics) throws ConnectionLostException {
+		this(ioio, pins, recommendedBufferSize(metrics), metrics);
+	}
+
+	private AnalogAcquisitionEngine(IOIO ioio, int[] pins, int bufferSize, AnalogInputMetrics[] metrics)
+			throws ConnectionLostException {
+		super(ioio);
+		if (pins==null || pins.length==0) {
+			throw new IllegalArgumentException("At least one analog pin is required");
+		}
+		if (metrics!=null && metrics.length!=pins.length) {
+			throw new IllegalArgumentException("One metrics object per pin is required");
+		}
+
+		maxFrames_ = Math.max(1, bufferSize);
+		analogInputs_ = new AnalogInput[pins.length];
+		channelBlocks_ = new float[pins.length][maxFrames_];
+		frames_ = new float[pins.length*maxFrames_];
+		for (int c=0; c<pins.length; c++) {
+			analogInputs_[c] = IOIO_.openAnalogInput(pins[c]);
+			analogInputs_[c].setBuffer(maxFrames_);
+		}
+		// all the analog pins are sampled at the same rate
+		samplePeriodNanos_ = (long) (1e9f / analogInputs_[0].getSampleRate());
+		channels_ = new AnalogChannel[pins.length];
+		metrics_ = new AnalogInputMetrics[pins.length];
+		queueDepths_ = new int[pins.length];
+		for (int c=0; c<pins.length; c++) {
+			channels_[c] = new AnalogChannel(samplePeriodNanos_);
+			metrics_[c] = (metrics==null)?new AnalogInputMetrics():metrics[c];
+			metrics_[c].startSession(maxFrames_, samplePeriodNanos_);
+		}
+		frameObserver_ = null;
+		running_ = false;
+		acquisitionThread_ = null;
+	}
+
+	/**
+	 * The frames are read in lockstep: all pins share the largest buffer size recommended.
+	 */
+	private static int recommendedBufferSize(AnalogInputMetrics[] metrics) {
+		int bufferSize = AnalogInputMetrics.MIN_BUFFER_SIZE;
+		for (int c=0; c<metrics.length; c++) {
+			bufferSize = Math.max(bufferSize, metrics[c].getRecommendedBufferSize());
+		}
+		return bufferSize;
+	}
+
+	private void createAndStartAcquisitionThread() {
+		acquisitionThread_ = new Thread() {
+			@Override
+			public void run() {
+				try {
+					skipPendingSamples();
+				} catch (ConnectionLostException e) {
+					stopOnConnectionLost(e);
+				}
+				while (running_) {
+					try {
+						// get the pending frames (blocks until at least one is available)
+						int count = readFrames();
+
+						// a single clock read dates the whole block
+						long timestamp = Clock.now();
+						for (int c=0; c<analogInputs_.length; c++) {
+							metrics_[c].recordDrain(count, queueDepths_[c], timestamp, analogInputs_[c].getOverflowCount());
+						}
+						long firstFrameTimeNanos = timestamp-(count-1)*samplePeriodNanos_;
+						FrameObserver frameObserver = frameObserver_;
+						if (frameObserver!=null) {
+							frameObserver.onNewFrames(frames_, count, channels_.length, firstFrameTimeNanos);
+						}
+						for (int c=0; c<channels_.length; c++) {
+							channels_[c].dispatch(channelBlocks_[c], count, firstFrameTimeNanos);
+						}
+
+					} catch (InterruptedException e) {
+						// just warn and loop
+						Logger.get().warn(this.getClass().getName(),e);
+					} catch (ConnectionLostException e) {
+						stopOnConnectionLost(e);
+					}
+				} // end of while loop
+			}
+		};
+		acquisitionThread_.setPriority(8); // should be as close to real-time as possible, but we don't want to freeze the UI either
+		acquisitionThread_.start();
+	}
+
+	/**
+	 * Discards the samples buffered so far, so that the first frame holds values from the same scan
+	 * (pins opened earlier may have buffered more samples).
+	 */
+	private void skipPendingSamples() throws ConnectionLostException {
+		for (int c=0; c<analogInputs_.length; c++) {
+			for (int i=analogInputs_[c].available(); i>0; i--) {
+				try {
+					analogInputs_[c].readBuffered();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next frame, then drains all the frames already complete.
+	 * @return the number of frames read (at least 1)
+	 * @throws InterruptedException when interrupted while waiting for the first frame
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	private int readFrames() throws InterruptedException, ConnectionLostException {
+		final int channelCount = analogInputs_.length;
+		int end = maxFrames_;
+		for (int c=0; c<channelCount; c++) {
+			float value = analogInputs_[c].readBuffered();
+			frames_[c] = value;
+			channelBlocks_[c][0] = value;
+			// a frame is complete when every pin has its sample
+			queueDepths_[c] = 1+analogInputs_[c].available();
+			end = Math.min(end, queueDepths_[c]);
+		}
+		for (int f=1; f<end; f++) {
+			for (int c=0; c<channelCount; c++) {
+				float value = analogInputs_[c].readBuffered();
+				frames_[f*channelCount+c] = value;
+				channelBlocks_[c][f] = value;
+			}
+		}
+		return end;
+	}
+
+	private void stopOnConnectionLost(ConnectionLostException e) {
+		// connection to bot lost -- cancel this thread
+		running_ = false;
+		frameObserver_ = null;
+		for (int c=0; c<channels_.length; c++) {
+			channels_[c].reset();
+		}
+		// log
+		Logger.get().error(this.getClass().getName(),e.getMessage());
+	}
+
+	/**
+	 * @return the number of channels (i.e. of analog pins)
+	 */
+	public int getChannelCount() {
+		return channels_.length;
+	}
+
+	/**
+	 * Get the channel of a pin, to set its observers and subscriptions
+	 * @param index index of the pin in the array passed at construction
+	 * @return the channel of this pin
+	 */
+	public AnalogChannel getChannel(int index) {
+		return channels_[index];
+	}
+
+	/**
+	 * Get the metrics of a pin: IOIO-side overflows, peak queue depth, effective sample rate...
+	 * @param index index of the pin in the array passed at construction
+	 * @return the metrics of this pin
+	 */
+	public AnalogInputMetrics getMetrics(int index) {
+		return metrics_[index];
+	}
+
+	/**
+	 * Set the observer receiving all the frames read.
+	 * @param frameObserver the FrameObserver to use, null to remove it
+	 */
+	public void setFrameObserver(FrameObserver frameObserver) {
+		frameObserver_ = frameObserver;
+	}
+
+	/**
+	 * @return true if the acquisition thread is running
+	 */
+	public boolean isRunning() {
+		return running_;
+	}
+
+	/**
+	 * Start the acquisition thread. Has no effect if it is already running.
+	 */
+	public void start() {
+		if (acquisitionThread_ != null) {
+			return;
+		}
+		running_ = true;
+		createAndStartAcquisitionThread();
+	}
+
+	/**
+	 * Stop the acquisition thread and wait for it to quit. Observers and subscriptions are kept.
+	 */
+	public void stop() {
+		running_ = false;
+		if (acquisitionThread_==null) {
+			return;
+		}
+		try {
+			acquisitionThread_.join();
+		} catch (InterruptedException e) {
+			// void
+		}
+		acquisitionThread_ = null;
+	}
+}
@@ -0,0 +1,230 @@
+package com.botiful.sdk.robot;
+
+import com.botiful.sdk.filters.AnalogFilterPipeline;
+import com.botiful.sdk.robot.AnalogValueReader.AnalogValueBlockObserver;
+import com.botiful.sdk.robot.AnalogValueReader.AnalogValueObserver;
+
+/**
+ * Observations of one analog signal: observers, periodic value updates and threshold detection.<br />
+ * Any number of consumers can follow the signal through their own {@link AnalogSubscription}, see
+ * {@link #addSubscriber}. The observer methods of this class manage a default subscription.<br />
+ * This class holds no thread and no pin: samples are pushed into it by the thread acquiring them
+ * (an {@link AnalogValueReader} or an {@link AnalogAcquisitionEngine}), and the observers are notified
+ * from this same thread.<br />
+ * An optional {@link AnalogFilterPipeline} filters the samples before they reach the observers and the
+ * threshold detectors.
+ */
+public class AnalogChannel {
+	/**
+	 * Default threshold to protect from abusive above/under threshold notifications.
+	 * It prevents multiple detections when the analog value is slightly oscillating
+	 * around its value.
+	 * @value {@value #HYSTERESIS_PROTECTION_RANGE} */
+	public static final float HYSTERESIS_PROTECTION_RANGE = 0.01f;
+
+	/** time between two samples in nanoseconds */
+	private final long samplePeriodNanos_;
+	/** subscription used by the observer methods of this class, always the first subscriber */
+	private final AnalogSubscription defaultSubscription_;
+	/** all the subscriptions. Never modified: replaced by a new copy when a subscription is added or removed */
+	private volatile AnalogSubscription[] subscribers_;
+	/** Last value observed if any, or NaN */
+	private volatile float lastValue_;
+	/** Filters applied to the samples before notifications, or null */
+	private volatile AnalogFilterPipeline pipeline_;
+
+	/**
+	 * Build the channel, with no observer and no subscription
+	 * @param samplePeriodNanos time between two samples in nanoseconds
+	 */
+	public AnalogChannel(long samplePeriodNanos) {
+		samplePeriodNanos_ = samplePeriodNanos;
+		lastValue_ = Float.NaN;
+		pipeline_ = null;
+		defaultSubscription_ = new AnalogSubscription(null, null);
+		subscribers_ = new AnalogSubscription[] { defaultSubscription_ };
+	}
+
+	/**
+	 * Notifies all the subscribers of a block of new samples: block observers, periodic updates and threshold alerts.
+	 * To be called by the thread acquiring the samples.<br />
+	 * If a filter pipeline is set, the dates of the samples it leaves are passed on to the block observers.
+	 * @param values new values, oldest first. Modified in place if a filter pipeline is set
+	 * @param count number of values, at least 1
+	 * @param firstSampleTimeNanos date of the first value
+	 */
+	public void dispatch(float[] values, int count, long firstSampleTimeNanos) {
+		long[] timestampsNanos = null;
+		AnalogFilterPipeline pipeline = pipeline_;
+		if (pipeline != null) {
+			count = pipeline.process(values, count, firstSampleTimeNanos, samplePeriodNanos_);
+			if (count == 0) {
+				// everything filtered out, nothing to notify
+				return;
+			}
+			timestampsNanos = pipeline.getTimestampsNanos();
+			firstSampleTimeNanos = timestampsNanos[0];
+		}
+		notifySubscribers(values, timestampsNanos, count, firstSampleTimeNanos);
+	}
+
+	/**
+	 * Notifies all the subscribers of a block of samples with their own dates, e.g. replayed from a capture.
+	 * To be called by the thread acquiring the samples.
+	 * @param values new values, oldest first. Modified in place if a filter pipeline is set
+	 * @param timestampsNanos dates of the values, oldest first
+	 * @param count number of values, at least 1
+	 */
+	public void dispatch(float[] values, long[] timestampsNanos, int count) {
+		AnalogFilterPipeline pipeline = pipeline_;
+		if (pipeline != null) {
+			count = pipeline.process(values, timestampsNanos, count);
+			if (count == 0) {
+				return;
+			}
+			timestampsNanos = pipeline.getTimestampsNanos();
+		}
+		notifySubscribers(values, timestampsNanos, count, timestampsNanos[0]);
+	}
+
+	private void notifySubscribers(float[] values, long[] timestampsNanos, int count, long firstSampleTimeNanos) {
+		lastValue_ = values[count-1];
+
+		AnalogSubscription[] subscribers = subscribers_;
+		for (int i=0; i<subscribers.length; i++) {
+			subscribers[i].dispatch(values, timestampsNanos, count, firstSampleTimeNanos, samplePeriodNanos_);
+		}
+	}
+
+	/**
+	 * @return true if any subscriber has an observer
+	 */
+	public boolean hasObserver() {
+		AnalogSubscription[] subscribers = subscribers_;
+		for (int i=0; i<subscribers.length; i++) {
+			if (subscribers[i].hasObserver()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all observers and subscribers, and cancels all subscriptions
+	 */
+	public synchronized void reset() {
+		defaultSubscription_.reset();
+		subscribers_ = new AnalogSubscription[] { defaultSubscription_ };
+	}
+
+	/**
+	 * Adds a subscriber. Can be called from any thread.
+	 * @param subscription the subscription to notify, with its own observers and settings
+	 * @return the subscription
+	 */
+	public synchronized AnalogSubscription addSubscriber(AnalogSubscription subscription) {
+		AnalogSubscription[] subscribers = new AnalogSubscription[subscribers_.length+1];
+		System.arraycopy(subscribers_, 0, subscribers, 0, subscribers_.length);
+		subscribers[subscribers_.length] = subscription;
+		subscribers_ = subscribers;
+		return subscription;
+	}
+
+	/**
+	 * Removes a subscriber. Can be called from any thread.
+	 * @param subscription the subscription to stop notifying
+	 * @return true if it was a subscriber of this channel
+	 */
+	public synchronized boolean removeSubscriber(AnalogSubscription subscription) {
+		if (subscription == defaultSubscription_) {
+			return false;
+		}
+		for (int i=1; i<subscribers_.length; i++) {
+			if (subscribers_[i] == subscription) {
+				AnalogSubscription[] subscribers = new AnalogSubscription[subscribers_.length-1];
+				System.arraycopy(subscribers_, 0, subscribers, 0, i);
+				System.arraycopy(subscribers_, i+1, subscribers, i, subscribers.length-i);
+				subscribers_ = subscribers;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Set the filters to apply to the samples before the notifications and threshold detection.<br />
+	 * The pipeline must not be shared with another channel.
+	 * @param pipeline the filters to use, null to notify the raw samples
+	 */
+	public void setFilterPipeline(AnalogFilterPipeline pipeline) {
+		if (pipeline != null) {
+			pipeline.reset();
+		}
+		pipeline_ = pipeline;
+	}
+
+	/**
+	 * @return the latest value received (after filtering), in the [0,1] range, or Float.Nan if not available
+	 */
+	public float getLastValue() {
+		return lastValue_;
+	}
+
+	/**
+	 * @return the time between two samples in nanoseconds
+	 */
+	public long getSamplePeriodNanos() {
+		return samplePeriodNanos_;
+	}
+
+	/**
+	 * Set the hysteresis of the threshold detectors subscribed afterwards.<br />
+	 * Default is {@link #HYSTERESIS_PROTECTION_RANGE}, filtered signals can use a smaller range without false alerts.
+	 * @param range distance between the two thresholds of the detectors
+	 */
+	public void setHysteresisRange(float range) {
+		defaultSubscription_.setHysteresisRange(range);
+	}
+
+	/**
+	 * Set the observer for value updates and threshold detection alerts.
+	 * @param observer the AnalogValueObserver to use, null to remove it
+	 */
+	public void setObserver(AnalogValueObserver observer) {
+		defaultSubscription_.setObserver(observer);
+	}
+
+	/**
+	 * Set the observer receiving all the samples, one block at a time.
+	 * @param blockObserver the AnalogValueBlockObserver to use, null to remove it
+	 */
+	public void setBlockObserver(AnalogValueBlockObserver blockObserver) {
+		defaultSubscription_.setBlockObserver(blockObserver);
+	}
+
+	/**
+	 * Subscribe to value updates.
+	 * @param updatePeriodMillis minimum update period in milliseconds
+	 */
+	public void subscribeToValuesUpdates(int updatePeriodMillis) {
+		defaultSubscription_.subscribeToValuesUpdates(updatePeriodMillis);
+	}
+
+	/**
+	 * Subscribe to rising edge threshold detection (detects if a value goes above a certain threshold)<br />
+	 * If threshold passed if Float.NaN, it cancels edge detection.
+	 * @param threshold threshold to trigger alerts.
+	 */
+	public void subscribeToRisingEdgeThresholdDetection(float threshold) {
+		defaultSubscription_.subscribeToRisingEdgeThresholdDetection(threshold);
+	}
+
+	/**
+	 * Subscribe to falling edge threshold detection (detects if a value goes below a certain threshold)<br />
+	 * If threshold passed if Float.NaN, it cancels edge detection.
+	 * @param threshold threshold to trigger alerts.
+	 */
+	public void subscribeToFallingEdgeThresholdDetection(float threshold) {
+		defaultSubscription_.subscribeToFallingEdgeThresholdDetection(threshold);
+	}
+}
@@ -0,0 +1,148 @@
+package com.botiful.sdk.robot;
+
+/**
+ * Telemetry of one analog input pin: samples read, IOIO-side buffer overflows, queue depth and drain latency.<br />
+ * Keep the same instance across reconnections and pass it to the new {@link AnalogValueReader}: the buffer
+ * is then sized from what was observed during the previous connection, see {@link #getRecommendedBufferSize()}.<br />
+ * Values are written by the acquisition thread only and can be read from any thread.
+ */
+public class AnalogInputMetrics {
+	/** smallest buffer size recommended */
+	public static final int MIN_BUFFER_SIZE = AnalogValueReader.DEFAULT_BUFFER_SIZE;
+	/** largest buffer size recommended */
+	public static final int MAX_BUFFER_SIZE = 256;
+
+	/** buffer size used by the current connection */
+	private volatile int bufferSize_;
+	/** time between two samples in nanoseconds */
+	private volatile long samplePeriodNanos_;
+	/** overflows and samples of the previous connections */
+	private volatile long previousOverflowCount_, previousSampleCount_;
+	/** overflows and samples of the current connection */
+	private volatile long overflowCount_, sampleCount_;
+	/** peak values of the current connection */
+	private volatile int peakQueueDepth_;
+	private volatile long peakDrainIntervalNanos_;
+	/** dates of the first and last drains of the current connection */
+	private volatile long firstDrainNanos_, lastDrainNanos_;
+
+	/**
+	 * Build empty metrics for a pin, the first connection will use the default buffer size
+	 */
+	public AnalogInputMetrics() {
+		bufferSize_ = MIN_BUFFER_SIZE;
+		samplePeriodNanos_ = 0;
+		previousOverflowCount_ = 0;
+		previousSampleCount_ = 0;
+		overflowCount_ = 0;
+		sampleCount_ = 0;
+		peakQueueDepth_ = 0;
+		peakDrainIntervalNanos_ = 0;
+		firstDrainNanos_ = 0;
+		lastDrainNanos_ = 0;
+	}
+
+	/**
+	 * Called when the pin is opened (e.g. on every connection): the per-connection values are reset.
+	 * @param bufferSize size of the IOIO-side buffer
+	 * @param samplePeriodNanos time between two samples in nanoseconds
+	 */
+	void startSession(int bufferSize, long samplePeriodNanos) {
+		previousOverflowCount_ += overflowCount_;
+		previousSampleCount_ += sampleCount_;
+		bufferSize_ = bufferSize;
+		samplePeriodNanos_ = samplePeriodNanos;
+		overflowCount_ = 0;
+		sampleCount_ = 0;
+		peakQueueDepth_ = 0;
+		peakDrainIntervalNanos_ = 0;
+		firstDrainNanos_ = 0;
+		lastDrainNanos_ = 0;
+	}
+
+	/**
+	 * Called by the acquisition thread each time it drains the buffer.
+	 * @param count number of samples drained
+	 * @param queueDepth number of samples found in the buffer (may exceed count)
+	 * @param timestampNanos date of the drain
+	 * @param overflowCount overflow count reported by IOIO for the current connection
+	 */
+	void recordDrain(int count, int queueDepth, long timestampNanos, int overflowCount) {
+		sampleCount_ += count;
+		overflowCount_ = overflowCount;
+		if (queueDepth > peakQueueDepth_) {
+			peakQueueDepth_ = queueDepth;
+		}
+		if (lastDrainNanos_ == 0) {
+			firstDrainNanos_ = timestampNanos;
+		} else if (timestampNanos-lastDrainNanos_ > peakDrainIntervalNanos_) {
+			peakDrainIntervalNanos_ = timestampNanos-lastDrainNanos_;
+		}
+		lastDrainNanos_ = timestampNanos;
+	}
+
+	/**
+	 * @return the size of the IOIO-side buffer of the current connection
+	 */
+	public int getBufferSize() {
+		return bufferSize_;
+	}
+
+	/**
+	 * @return the number of samples lost because the IOIO-side buffer was full, over all connections
+	 */
+	public long getOverflowCount() {
+		return previousOverflowCount_+overflowCount_;
+	}
+
+	/**
+	 * @return the number of samples read, over all connections
+	 */
+	public long getSampleCount() {
+		return previousSampleCount_+sampleCount_;
+	}
+
+	/**
+	 * @return the largest number of samples found waiting in the buffer during the current connection
+	 */
+	public int getPeakQueueDepth() {
+		return peakQueueDepth_;
+	}
+
+	/**
+	 * @return the longest time between two drains of the buffer during the current connection, in nanoseconds
+	 */
+	public long getPeakDrainIntervalNanos() {
+		return peakDrainIntervalNanos_;
+	}
+
+	/**
+	 * @return the rate at which samples were read during the current connection in Hz, or 0 if unknown
+	 */
+	public float getEffectiveSampleRate() {
+		long elapsed = lastDrainNanos_-firstDrainNanos_;
+		long count = sampleCount_;
+		if (elapsed <= 0 || count < 2) {
+			return 0;
+		}
+		return (float) ((count-1)*1e9/elapsed);
+	}
+
+	/**
+	 * Smallest buffer size holding all the samples that arrive during the longest drain interval
+	 * observed so far, with a 2x margin. Doubles the current size if samples overflowed.
+	 * @return the buffer size to use for the next connection
+	 */
+	public int getRecommendedBufferSize() {
+		long samplePeriodNanos = samplePeriodNanos_;
+		if (samplePeriodNanos <= 0) {
+			// nothing observed yet
+			return bufferSize_;
+		}
+		long needed = Math.max(peakQueueDepth_, peakDrainIntervalNanos_/samplePeriodNanos+1)*2;
+		if (overflowCount_ > 0) {
+			needed = Math.max(needed, bufferSize_*2L);
+		}
+		return (int) Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, needed));
+	}
+}
@@ -0,0 +1,26 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * Acts on actuators from the samples of an analog input, see {@link AnalogValueReader#addInterlock}.<br />
+ * Interlocks are called by the reader thread as soon as the samples are read, before the observers:
+ * <b>they must not block nor allocate</b>.
+ */
+public interface AnalogInterlock {
+	/**
+	 * Evaluates a block of new samples and acts on the actuators if needed.
+	 * @param values new values, oldest first
+	 * @param count number of values, at least 1
+	 * @param lastSampleTimeNanos date at which the samples were read, i.e. date of the last value
+	 * @param samplePeriodNanos time between two samples
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public void inputNewValues(float[] values, int count, long lastSampleTimeNanos, long samplePeriodNanos)
+			throws ConnectionLostException;
+
+	/**
+	 * Lifts the restrictions put on the actuators, called when the interlock is removed. Must not throw.
+	 */
+	public void release();
+}
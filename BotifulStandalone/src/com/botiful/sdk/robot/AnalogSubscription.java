@@ -0,0 +1,261 @@
+package com.botiful.sdk.robot;
+
+import com.botiful.sdk.robot.AnalogValueReader.AnalogValueBlockObserver;
+import com.botiful.sdk.robot.AnalogValueReader.AnalogValueObserver;
+
+/**
+ * One consumer of an analog signal, see {@link AnalogChannel#addSubscriber}.<br />
+ * Each subscription has its own observers, update period, threshold detectors, zones and decimation,
+ * so that several consumers can follow the same signal at different rates.<br />
+ * Settings can be changed from any thread, the observers are called from the thread acquiring the samples.
+ */
+public class AnalogSubscription {
+	/** Observer notified of new values or alerts */
+	private volatile AnalogValueObserver observer_;
+	/** Observer notified of blocks of samples */
+	private volatile AnalogValueBlockObserver blockObserver_;
+	// two kinds of notifications: regular value updates or threshold detection
+	/** minimum update period to notify the observer in nanoseconds */
+	private volatile long notificationPeriodNanos_;
+	private volatile boolean observerWantsPeriodicNotifications_;
+	/** date of the last periodic notification. Only used by the thread pushing the samples */
+	private long lastNotificationTimestampNanos_;
+	/** Threshold detectors */
+	private volatile HysteresisComparator risingEdgeDetector_,fallingEdgeDetector_;
+	/** Zone detection, and its observer */
+	private volatile ZoneDetection zoneDetection_;
+	/** hysteresis of the threshold detectors */
+	private volatile float hysteresisRange_;
+	/** one sample out of decimation_ is passed to the block observer */
+	private volatile int decimation_;
+	/** number of samples to skip before the next one passed to the block observer */
+	private int skip_;
+	/** samples kept for the block observer when decimating, and their dates if they are not evenly spaced, reused */
+	private float[] decimatedBlock_;
+	private long[] decimatedTimestampsNanos_;
+
+	/** A comparator bank and its observer, swapped as a whole */
+	private static class ZoneDetection {
+		final HysteresisComparatorBank bank_;
+		final HysteresisComparatorBank.ZoneObserver observer_;
+		ZoneDetection(HysteresisComparatorBank bank, HysteresisComparatorBank.ZoneObserver observer) {
+			bank_ = bank;
+			observer_ = observer;
+		}
+	}
+
+	/**
+	 * Build the subscription, with no subscription to updates or alerts yet
+	 * @param observer observer for value updates and threshold alerts, may be null
+	 * @param blockObserver observer for blocks of samples, may be null
+	 */
+	public AnalogSubscription(AnalogValueObserver observer, AnalogValueBlockObserver blockObserver) {
+		hysteresisRange_ = AnalogChannel.HYSTERESIS_PROTECTION_RANGE;
+		decimatedBlock_ = new float[0];
+		decimatedTimestampsNanos_ = new long[0];
+		reset();
+		observer_ = observer;
+		blockObserver_ = blockObserver;
+	}
+
+	/**
+	 * Notifies the observers of a block of new samples: block observer, periodic updates and threshold alerts.
+	 * @param values new values, oldest first
+	 * @param timestampsNanos dates of the values, or null if they are evenly spaced by samplePeriodNanos
+	 * @param count number of values, at least 1
+	 * @param firstSampleTimeNanos date of the first value
+	 * @param samplePeriodNanos time between two samples
+	 */
+	void dispatch(float[] values, long[] timestampsNanos, int count, long firstSampleTimeNanos, long samplePeriodNanos) {
+		AnalogValueBlockObserver blockObserver = blockObserver_;
+		if (blockObserver!=null) {
+			dispatchBlock(blockObserver, values, timestampsNanos, count, firstSampleTimeNanos, samplePeriodNanos);
+		}
+
+		// notify of new values if needed, record the date
+		AnalogValueObserver observer = observer_;
+		long lastSampleTimeNanos = (timestampsNanos==null)?
+				firstSampleTimeNanos+(count-1)*samplePeriodNanos:timestampsNanos[count-1];
+		if (observerWantsPeriodicNotifications_ &&
+				(lastSampleTimeNanos-lastNotificationTimestampNanos_>notificationPeriodNanos_)) {
+			if (observer!=null) {
+				observer.onNewValue(values[count-1]);
+			}
+			lastNotificationTimestampNanos_ = lastSampleTimeNanos;
+		}
+
+		// notify of zone changes
+		ZoneDetection zoneDetection = zoneDetection_;
+		if (zoneDetection != null) {
+			HysteresisComparatorBank bank = zoneDetection.bank_;
+			int events = bank.inputNewValues(values, count);
+			for (int e=0; e<events; e++) {
+				zoneDetection.observer_.onZoneChanged(bank.getEventPreviousZone(e), bank.getEventZone(e),
+						values[bank.getEventSampleIndex(e)]);
+			}
+		}
+
+		// notify of threshold detection
+		HysteresisComparator risingEdgeDetector = risingEdgeDetector_;
+		HysteresisComparator fallingEdgeDetector = fallingEdgeDetector_;
+		if (risingEdgeDetector==null && fallingEdgeDetector==null) {
+			return;
+		}
+		for (int i=0; i<count; i++) {
+			float value = values[i];
+			if (risingEdgeDetector != null &&
+					HysteresisComparator.EVENT_RISING_EDGE == risingEdgeDetector.inputNewValue(value) &&
+					observer!=null) {
+				observer.onValueAlertAboveThreshold(value);
+			}
+			if (fallingEdgeDetector != null &&
+					HysteresisComparator.EVENT_FALLING_EDGE == fallingEdgeDetector.inputNewValue(value) &&
+					observer!=null) {
+				observer.onValueAlertBelowThreshold(value);
+			}
+		}
+	}
+
+	private void dispatchBlock(AnalogValueBlockObserver blockObserver, float[] values, long[] timestampsNanos,
+			int count, long firstSampleTimeNanos, long samplePeriodNanos) {
+		int decimation = decimation_;
+		if (decimation <= 1) {
+			blockObserver.onNewValues(values, timestampsNanos, count, firstSampleTimeNanos, samplePeriodNanos);
+			return;
+		}
+		if (decimatedBlock_.length < count) {
+			// only happens on the first blocks
+			decimatedBlock_ = new float[values.length];
+			decimatedTimestampsNanos_ = new long[values.length];
+		}
+		int kept = 0;
+		long firstKeptTimeNanos = 0;
+		for (int i=0; i<count; i++) {
+			if (skip_ > 0) {
+				skip_--;
+				continue;
+			}
+			if (kept == 0) {
+				firstKeptTimeNanos = (timestampsNanos==null)?
+						firstSampleTimeNanos+i*samplePeriodNanos:timestampsNanos[i];
+			}
+			if (timestampsNanos != null) {
+				decimatedTimestampsNanos_[kept] = timestampsNanos[i];
+			}
+			decimatedBlock_[kept++] = values[i];
+			skip_ = decimation-1;
+		}
+		if (kept > 0) {
+			// the kept samples are decimation periods apart
+			blockObserver.onNewValues(decimatedBlock_, (timestampsNanos==null)?null:decimatedTimestampsNanos_, kept,
+					firstKeptTimeNanos, decimation*samplePeriodNanos);
+		}
+	}
+
+	/**
+	 * @return true if any observer is set
+	 */
+	public boolean hasObserver() {
+		return observer_!=null || blockObserver_!=null;
+	}
+
+	/**
+	 * Removes the observers and cancels all subscriptions
+	 */
+	public void reset() {
+		observer_ = null;
+		blockObserver_ = null;
+		observerWantsPeriodicNotifications_ = false;
+		risingEdgeDetector_ = null;
+		fallingEdgeDetector_ = null;
+		zoneDetection_ = null;
+		decimation_ = 1;
+	}
+
+	/**
+	 * Set the observer for value updates and threshold detection alerts.
+	 * @param observer the AnalogValueObserver to use, null to remove it
+	 */
+	public void setObserver(AnalogValueObserver observer) {
+		observer_ = observer;
+	}
+
+	/**
+	 * Set the observer receiving the samples, one block at a time.
+	 * @param blockObserver the AnalogValueBlockObserver to use, null to remove it
+	 */
+	public void setBlockObserver(AnalogValueBlockObserver blockObserver) {
+		blockObserver_ = blockObserver;
+	}
+
+	/**
+	 * Only pass one sample out of N to the block observer (threshold detection still uses all the samples).<br />
+	 * The block observer is then given N times the sample period, or the dates of the samples it receives.
+	 * @param decimation N, 1 to pass all the samples
+	 */
+	public void setDecimation(int decimation) {
+		decimation_ = Math.max(1, decimation);
+	}
+
+	/**
+	 * Set the hysteresis of the threshold detectors subscribed afterwards.
+	 * @param range distance between the two thresholds of the detectors
+	 */
+	public void setHysteresisRange(float range) {
+		hysteresisRange_ = Math.abs(range);
+	}
+
+	/**
+	 * Subscribe to value updates.
+	 * @param updatePeriodMillis minimum update period in milliseconds
+	 */
+	public void subscribeToValuesUpdates(int updatePeriodMillis) {
+		notificationPeriodNanos_ = Math.max(0, updatePeriodMillis)*1000000L;
+		observerWantsPeriodicNotifications_ = true;
+	}
+
+	/**
+	 * Subscribe to rising edge threshold detection (detects if a value goes above a certain threshold)<br />
+	 * If threshold passed if Float.NaN, it cancels edge detection.
+	 * @param threshold threshold to trigger alerts.
+	 */
+	public void subscribeToRisingEdgeThresholdDetection(float threshold) {
+		if (Float.isNaN(threshold)) {
+			risingEdgeDetector_ = null;
+		} else {
+			risingEdgeDetector_ = new HysteresisComparator(threshold-hysteresisRange_,
+					threshold,
+					false);
+		}
+	}
+
+	/**
+	 * Subscribe to falling edge threshold detection (detects if a value goes below a certain threshold)<br />
+	 * If threshold passed if Float.NaN, it cancels edge detection.
+	 * @param threshold threshold to trigger alerts.
+	 */
+	public void subscribeToFallingEdgeThresholdDetection(float threshold) {
+		if (Float.isNaN(threshold)) {
+			fallingEdgeDetector_ = null;
+		} else {
+			fallingEdgeDetector_ = new HysteresisComparator(threshold,
+					threshold+hysteresisRange_,
+					true);
+		}
+	}
+
+	/**
+	 * Subscribe to zone changes: the range of the signal is split into many zones by a comparator bank.<br />
+	 * The event buffer of the bank must be at least as large as the blocks of samples, or events are lost.
+	 * @param bank the comparator bank defining the zones, not shared with other subscriptions
+	 * @param observer the observer notified of each zone change
+	 */
+	public void subscribeToZoneDetection(HysteresisComparatorBank bank, HysteresisComparatorBank.ZoneObserver observer) {
+		if (bank == null || observer == null) {
+			zoneDetection_ = null;
+		} else {
+			bank.reset();
+			zoneDetection_ = new ZoneDetection(bank, observer);
+		}
+	}
+}
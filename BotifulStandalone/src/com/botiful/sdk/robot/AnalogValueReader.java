@@ -3,36 +3,61 @@ package com.botiful.sdk.robot;
 import ioio.lib.api.AnalogInput;
 import ioio.lib.api.IOIO;
 import ioio.lib.api.exception.ConnectionLostException;
-import android.os.SystemClock;
-import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.botiful.sdk.filters.AnalogFilterPipeline;
 
 /**
  * A class to manage analog inputs.<br />
  * It provides asynchronous updates to a subscribing AnalogValueObserver for either:
  * - raw values: careful with these the output rate is 1kHz
- * - alerts when reaching a predefined threshold
+ * - alerts when reaching a predefined threshold<br />
+ * An AnalogValueBlockObserver can also be set to receive all the samples, one block at a time.<br />
+ * More consumers can follow the same samples, each at its own rate, through {@link #addSubscriber}.<br />
+ * Interlocks ({@link MotorInterlock}, {@link EndStopLimiter}...) are always evaluated on the reader thread,
+ * before the observers.<br />
+ * By default the observers run on the reader thread. Use {@link #enableAsynchronousDispatch} to run them
+ * on a separate thread, so that a slow observer never delays the acquisition.<br />
+ * The IOIO-side buffer is monitored by an {@link AnalogInputMetrics} object, see {@link #getMetrics()}.
  */
 public class AnalogValueReader extends AbstractRoboticElement {
 	/**
-	 * Threshold to protect from abusive above/under threshold notifications.
-	 * It prevents multiple detections when the analog value is slightly oscillating
-	 * around its value. 
-	 * @value {@value #HYSTERESIS_PROTECTION_RANGE} */
-	private static final float HYSTERESIS_PROTECTION_RANGE = 0.01f;
+	 * Default size of the IOIO-side sample buffer, which is also the maximum block size.
+	 * @value {@value #DEFAULT_BUFFER_SIZE} */
+	public static final int DEFAULT_BUFFER_SIZE = 8;
 	
 	private AnalogInput analogInput_;
-	/** Observer notified of new values or alerts. Also used as control variable for the thread */
-	private AnalogValueObserver observer_;
+	/** Observers and subscriptions */
+	private final AnalogChannel channel_;
+	/** control variable for the threads */
+	private volatile boolean running_;
 	/** Last value observed if any, or NaN */
 	private float lastValue_;
 	/** a thread to wait for incoming value and store them */
 	private Thread readerThread_;
-	// two kinds of notifications: regular value updates or threshold detection
-	/** minimum update period to notify the observer in milliseconds */
-	private long notificationPeriodMillis_;
-	private boolean observerWantsPeriodicNotifications_;
-	/** Threshold detectors */
-	private HysteresisComparator risingEdgeDetector_,fallingEdgeDetector_;
+	/** reused storage for the samples drained at each iteration of the reader thread */
+	private final float[] block_;
+	/** time between two samples in nanoseconds, used to date the first sample of a block */
+	private final long samplePeriodNanos_;
+	/** overflows, queue depth and sample rate of the pin */
+	private final AnalogInputMetrics metrics_;
+	/** number of samples waiting in the IOIO-side buffer at the last read, including the ones drained */
+	private int lastQueueDepth_;
+	/** queue between the reader thread and the dispatcher thread, or null if the observers run on the reader thread */
+	private SampleRingBuffer queue_;
+	/** a thread to run the observers when the queue is used */
+	private Thread dispatcherThread_;
+	/** interlocks evaluated on the reader thread. Never modified: replaced by a new copy on changes */
+	private volatile AnalogInterlock[] interlocks_;
+	/** samples read, blocks read, blocks passed to the observers, connection losses */
+	private final MetricsRegistry.Counter sampleCounter_;
+	private final MetricsRegistry.Counter blockCounter_;
+	private final MetricsRegistry.Counter dispatchCounter_;
+	private final MetricsRegistry.Counter connectionLostCounter_;
+	/** gauge of the dropped samples, only registered while the reader thread runs: it keeps the reader reachable */
+	private final String droppedSamplesGaugeName_;
+	private final MetricsRegistry.Gauge droppedSamplesGauge_;
 	
 	/**
 	 * A custom interface to specify entry point for asynchronous updates
@@ -60,6 +85,26 @@ public class AnalogValueReader extends AbstractRoboticElement {
 		 */
 		public void onValueAlertBelowThreshold(float value);
 	}
+	
+	/**
+	 * A custom interface to receive all the samples read, one block at a time
+	 */
+	public interface AnalogValueBlockObserver {
+		/**
+		 * This interface method is called with every sample read, once per iteration of the reader thread<br />
+		 * The array is reused for the next block: copy the values if they are needed after the call.<br />
+		 * <b>Delegate the processing to another thread, CPU time here can lead to delayed/lost samples</b>
+		 * @param samples new values in the [0,1] range, oldest first. Only the first count values are valid
+		 * @param timestampsNanos dates of the samples, in the Clock.now() time base, or null if they are evenly
+		 * spaced: the date of sample i is then firstSampleTimeNanos+i*samplePeriodNanos. Filters dropping samples
+		 * (see {@link AnalogFilterPipeline}) leave irregular dates. Reused like the samples
+		 * @param count number of valid samples in the arrays
+		 * @param firstSampleTimeNanos estimated date of the first sample, in the Clock.now() time base
+		 * @param samplePeriodNanos time between two samples, when they are evenly spaced
+		 */
+		public void onNewValues(float[] samples, long[] timestampsNanos, int count, long firstSampleTimeNanos,
+				long samplePeriodNanos);
+	}
 
 	/**
 	 * Build the analog input
@@ -68,71 +113,161 @@ public class AnalogValueReader extends AbstractRoboticElement {
 	 * @throws ConnectionLostException when connection to the robot is lost
 	 */
 	public AnalogValueReader(IOIO ioio, int pin) throws ConnectionLostException {
+		this(ioio, pin, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Build the analog input with a custom buffer size.<br />
+	 * A larger buffer allows larger blocks for the AnalogValueBlockObserver.
+	 * @param ioio handle to the ioio interface
+	 * @param pin index number of the analog input pin
+	 * @param bufferSize number of samples buffered on the IOIO side, and maximum block size
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public AnalogValueReader(IOIO ioio, int pin, int bufferSize) throws ConnectionLostException {
+		this(ioio, pin, bufferSize, new AnalogInputMetrics());
+	}
+	
+	/**
+	 * Build the analog input, with a buffer sized from the metrics of the previous connections.<br />
+	 * Keep the metrics object across reconnections to let the SDK pick the smallest buffer that avoids loss.
+	 * @param ioio handle to the ioio interface
+	 * @param pin index number of the analog input pin
+	 * @param metrics metrics of this pin, updated by this reader
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public AnalogValueReader(IOIO ioio, int pin, AnalogInputMetrics metrics) throws ConnectionLostException {
+		this(ioio, pin, metrics.getRecommendedBufferSize(), metrics);
+	}
+	
+	private AnalogValueReader(IOIO ioio, int pin, int bufferSize, AnalogInputMetrics metrics) throws ConnectionLostException {
 		super(ioio);
 		
+		bufferSize = Math.max(1, bufferSize);
 		analogInput_ = IOIO_.openAnalogInput(pin);
-		analogInput_.setBuffer(8); // we don't need a large buffer, 8 samples is more that enough
-		observer_ = null;
+		analogInput_.setBuffer(bufferSize);
+		block_ = new float[bufferSize];
+		samplePeriodNanos_ = (long) (1e9f / analogInput_.getSampleRate());
+		metrics_ = metrics;
+		metrics_.startSession(bufferSize, samplePeriodNanos_);
+		lastQueueDepth_ = 0;
+		channel_ = new AnalogChannel(samplePeriodNanos_);
 		lastValue_ = Float.NaN;
-		observerWantsPeriodicNotifications_ = false;
-		risingEdgeDetector_ = null;
-		fallingEdgeDetector_ = null;
+		running_ = false;
+		interlocks_ = new AnalogInterlock[0];
 		readerThread_ = null;
-		
+		queue_ = null;
+		dispatcherThread_ = null;
+		String prefix = "AnalogValueReader.pin"+pin+".";
+		sampleCounter_ = counter(prefix+"samples");
+		blockCounter_ = counter(prefix+"blocks");
+		dispatchCounter_ = counter(prefix+"dispatches");
+		connectionLostCounter_ = counter(prefix+"connectionLost");
+		droppedSamplesGaugeName_ = prefix+"droppedSamples";
+		droppedSamplesGauge_ = new MetricsRegistry.Gauge() {
+			@Override
+			public long getValue() {
+				return getDroppedSampleCount();
+			}
+		};
 	}
 	
 	private void createAndStartReaderThread() {
 		readerThread_ = new Thread() {
 			@Override
 			public void run() {
-				long lastMotificationTimestampMillis = 0;
-				while (observer_!=null) {
+				while (running_) {
 					try {
-						// get the current value (blocks until data is available)
-						lastValue_=analogInput_.readBuffered();
+						// get the pending values (blocks until at least one is available)
+						int count = readBlock();
+						lastValue_ = block_[count-1];
+						sampleCounter_.add(count);
+						blockCounter_.increment();
 						
-						// notify of new values if needed, record the date
-						long timestamp = SystemClock.elapsedRealtime();
-						if (observerWantsPeriodicNotifications_ &&
-								(timestamp-lastMotificationTimestampMillis>notificationPeriodMillis_)) {
-							if (observer_!=null) {
-								observer_.onNewValue(lastValue_);
-							}
-							lastMotificationTimestampMillis = timestamp;
-						}
+						// a single clock read dates the whole block
+						long timestamp = Clock.now();
+						metrics_.recordDrain(count, lastQueueDepth_, timestamp, analogInput_.getOverflowCount());
 						
-						// notify of threshold detection
-						if (risingEdgeDetector_ != null && 
-								HysteresisComparator.EVENT_RISING_EDGE == risingEdgeDetector_.inputNewValue(lastValue_) &&
-								observer_!=null) {
-							observer_.onValueAlertAboveThreshold(lastValue_);
+						// act on the motors before anything else
+						AnalogInterlock[] interlocks = interlocks_;
+						for (int i=0; i<interlocks.length; i++) {
+							interlocks[i].inputNewValues(block_, count, timestamp, samplePeriodNanos_);
 						}
-						if (fallingEdgeDetector_ != null && 
-								HysteresisComparator.EVENT_FALLING_EDGE == fallingEdgeDetector_.inputNewValue(lastValue_) &&
-								observer_!=null) {
-							observer_.onValueAlertBelowThreshold(lastValue_);
+						
+						long firstSampleTimeNanos = timestamp-(count-1)*samplePeriodNanos_;
+						if (queue_ == null) {
+							channel_.dispatch(block_, count, firstSampleTimeNanos);
+							dispatchCounter_.increment();
+						} else {
+							// never wait for the observers: the queue drops samples if it is full
+							queue_.offer(block_, count, firstSampleTimeNanos, samplePeriodNanos_);
+							LockSupport.unpark(dispatcherThread_);
 						}
 						
 					} catch (InterruptedException e) {
 						// just warn and loop
-						Log.w(this.getClass().getName(),e);
+						Logger.get().warn(this.getClass().getName(),e);
 					} catch (ConnectionLostException e) {
 						// connection to bot lost -- cancel this thread
-						observer_ = null;
-						observerWantsPeriodicNotifications_ = false;
-						risingEdgeDetector_ = null;
-						fallingEdgeDetector_ = null;
+						running_ = false;
+						channel_.reset();
+						connectionLostCounter_.increment();
+						removeGauge(droppedSamplesGaugeName_, droppedSamplesGauge_);
 						// log
-						Log.e(this.getClass().getName(),e.getMessage());
+						Logger.get().error(this.getClass().getName(),e.getMessage());
 					}
 				} // end of while loop
-
+				
+				if (dispatcherThread_ != null) {
+					// let it drain the queue and quit
+					LockSupport.unpark(dispatcherThread_);
+				}
 			}
 		};
 		readerThread_.setPriority(8); // should be as close to real-time as possible, but we don't want to freeze the UI either
 		readerThread_.start();
 	}
 	
+	private void createAndStartDispatcherThread() {
+		dispatcherThread_ = new Thread() {
+			@Override
+			public void run() {
+				float[] values = new float[block_.length];
+				long[] timestampsNanos = new long[block_.length];
+				while (true) {
+					int count = queue_.drain(values, timestampsNanos, values.length);
+					if (count > 0) {
+						channel_.dispatch(values, count, timestampsNanos[0]);
+						dispatchCounter_.increment();
+					} else if (running_) {
+						// woken up by the reader thread when new samples are queued
+						LockSupport.park(this);
+					} else {
+						break;
+					}
+				}
+			}
+		};
+		dispatcherThread_.start();
+	}
+	
+	/**
+	 * Waits for the next sample, then drains all the samples already buffered into the block array.
+	 * @return the number of samples stored in the block array (at least 1)
+	 * @throws InterruptedException when interrupted while waiting for the first sample
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	private int readBlock() throws InterruptedException, ConnectionLostException {
+		block_[0] = analogInput_.readBuffered();
+		int count = 1;
+		lastQueueDepth_ = 1 + analogInput_.available();
+		int end = Math.min(lastQueueDepth_, block_.length);
+		while (count < end) {
+			block_[count++] = analogInput_.readBuffered();
+		}
+		return count;
+	}
+	
 	/**
 	 * Read the value available at the pin in [0,1]<br />
 	 * Note that if no observer has been set at any time prior to this call, 
@@ -149,27 +284,155 @@ public class AnalogValueReader extends AbstractRoboticElement {
 	 * @param observer the AnalogValueObserver to add
 	 */
 	public void setObserver(AnalogValueObserver observer) {
-		observer_ = observer;
+		channel_.setObserver(observer);
 		if (observer==null) {
 			return;
 		}
+		startReaderThreadIfNeeded();
+	}
+	
+	/**
+	 * Set the observer receiving all the samples read, one block at a time, start the reader thread.<br />
+	 * It can be used alone or together with the AnalogValueObserver.<br />
+	 * If the argument is null, has no effect (use {@link #deleteObserver} to cancel updates)
+	 * @param blockObserver the AnalogValueBlockObserver to add
+	 */
+	public void setBlockObserver(AnalogValueBlockObserver blockObserver) {
+		channel_.setBlockObserver(blockObserver);
+		if (blockObserver==null) {
+			return;
+		}
+		startReaderThreadIfNeeded();
+	}
+	
+	/**
+	 * Add a consumer of the samples, with its own observers, update period, thresholds and decimation.
+	 * Start the reader thread.<br />
+	 * Can be called from any thread, the subscription settings can be changed at any time.
+	 * @param subscription the subscription to notify
+	 * @return the subscription, to be passed to {@link #removeSubscriber}
+	 */
+	public AnalogSubscription addSubscriber(AnalogSubscription subscription) {
+		channel_.addSubscriber(subscription);
+		startReaderThreadIfNeeded();
+		return subscription;
+	}
+	
+	/**
+	 * Stop notifying a consumer. The reader thread keeps running until {@link #deleteObserver} is called.<br />
+	 * Can be called from any thread.
+	 * @param subscription the subscription returned by {@link #addSubscriber}
+	 */
+	public void removeSubscriber(AnalogSubscription subscription) {
+		channel_.removeSubscriber(subscription);
+	}
+	
+	/**
+	 * Add an interlock, evaluated on the reader thread as soon as samples are read. Start the reader thread.<br />
+	 * Can be called from any thread.
+	 * @param interlock the interlock to evaluate
+	 */
+	public void addInterlock(AnalogInterlock interlock) {
+		synchronized (channel_) {
+			AnalogInterlock[] interlocks = new AnalogInterlock[interlocks_.length+1];
+			System.arraycopy(interlocks_, 0, interlocks, 0, interlocks_.length);
+			interlocks[interlocks_.length] = interlock;
+			interlocks_ = interlocks;
+		}
+		startReaderThreadIfNeeded();
+	}
+	
+	/**
+	 * Remove an interlock, and release the restrictions it put on the actuators. Can be called from any thread.
+	 * @param interlock the interlock to remove
+	 */
+	public void removeInterlock(AnalogInterlock interlock) {
+		synchronized (channel_) {
+			for (int i=0; i<interlocks_.length; i++) {
+				if (interlocks_[i] == interlock) {
+					AnalogInterlock[] interlocks = new AnalogInterlock[interlocks_.length-1];
+					System.arraycopy(interlocks_, 0, interlocks, 0, i);
+					System.arraycopy(interlocks_, i+1, interlocks, i, interlocks.length-i);
+					interlocks_ = interlocks;
+					interlock.release();
+					return;
+				}
+			}
+		}
+	}
+	
+	private synchronized void startReaderThreadIfNeeded() {
 		if (readerThread_==null) {
 			// start the treader thread, be prepared for observations.
+			running_ = true;
+			gauge(droppedSamplesGaugeName_, droppedSamplesGauge_);
+			if (queue_ != null) {
+				createAndStartDispatcherThread();
+			}
 			createAndStartReaderThread();
 		}
 	}
 	
+	/**
+	 * Runs the observers on a dedicated thread instead of the reader thread.<br />
+	 * The samples are passed through a preallocated queue: when the observers are too slow and the queue is full,
+	 * samples are dropped according to the overrun policy instead of delaying the acquisition.<br />
+	 * Must be called before the observers are set (or after {@link #deleteObserver}).
+	 * @param capacity number of samples the queue can hold
+	 * @param policy what to do with the samples when the queue is full
+	 * @throws IllegalStateException if the reader thread is already running
+	 */
+	public synchronized void enableAsynchronousDispatch(int capacity, SampleRingBuffer.OverrunPolicy policy) {
+		if (readerThread_ != null) {
+			throw new IllegalStateException("Reader thread already running, call deleteObserver() first");
+		}
+		queue_ = new SampleRingBuffer(Math.max(capacity, block_.length), policy);
+	}
+	
+	/**
+	 * @return the metrics of the pin: IOIO-side overflows, peak queue depth, effective sample rate...
+	 */
+	public AnalogInputMetrics getMetrics() {
+		return metrics_;
+	}
+	
+	/**
+	 * Number of samples lost because the observers could not keep up with the acquisition.
+	 * @return the number of dropped samples, always 0 if {@link #enableAsynchronousDispatch} was not called
+	 */
+	public long getDroppedSampleCount() {
+		SampleRingBuffer queue = queue_;
+		return (queue==null)?0:queue.getDroppedSampleCount();
+	}
+	
 	/**
 	 * Subscribe to asynchronous value updates.<br />
 	 * Use {@link #AnalogValueReader.setObserver(AnalogValueObserver) setObserver} to actually start the updates.
 	 * @param updatePeriodMillis minimum update period in milliseconds
 	 */
 	public void subscribeToValuesUpdates(int updatePeriodMillis) {
-		notificationPeriodMillis_ = Math.max(0, updatePeriodMillis);
-		observerWantsPeriodicNotifications_ = true;
+		channel_.subscribeToValuesUpdates(updatePeriodMillis);
 	}
 
 	
+	/**
+	 * Set the filters applied to the samples before the notifications and the threshold detection.<br />
+	 * Filtering runs on the thread running the observers.
+	 * @param pipeline the filters to use, null to notify the raw samples
+	 */
+	public void setFilterPipeline(AnalogFilterPipeline pipeline) {
+		channel_.setFilterPipeline(pipeline);
+	}
+	
+	/**
+	 * Set the hysteresis of the threshold detectors subscribed afterwards.<br />
+	 * Default is {@link AnalogChannel#HYSTERESIS_PROTECTION_RANGE}, filtered signals can use a smaller range.
+	 * @param range distance between the two thresholds of the detectors
+	 */
+	public void setHysteresisRange(float range) {
+		channel_.setHysteresisRange(range);
+	}
+	
 	/**
 	 * Subscribe to asynchronous rising edge threshold detection (detects if a value goes above a certain threshold)<br />
 	 * Use {@link #AnalogValueReader.setObserver(AnalogValueObserver) setObserver} to actually start the updates.<br />
@@ -177,13 +440,7 @@ public class AnalogValueReader extends AbstractRoboticElement {
 	 * @param threshold threshold to trigger alerts.
 	 */
 	public void subscribeToRisingEdgeThresholdDetection(float threshold) {
-		if (Float.isNaN(threshold)) {
-			risingEdgeDetector_ = null;
-		} else {
-			risingEdgeDetector_ = new HysteresisComparator(threshold-HYSTERESIS_PROTECTION_RANGE,
-					threshold,
-					false);
-		}
+		channel_.subscribeToRisingEdgeThresholdDetection(threshold);
 	}
 	
 	/**
@@ -193,28 +450,36 @@ public class AnalogValueReader extends AbstractRoboticElement {
 	 * @param threshold threshold to trigger alerts.
 	 */
 	public void subscribeToFallingEdgeThresholdDetection(float threshold) {
-		if (Float.isNaN(threshold)) {
-			fallingEdgeDetector_ = null;
-		} else {
-			fallingEdgeDetector_ = new HysteresisComparator(threshold,
-					threshold+HYSTERESIS_PROTECTION_RANGE,
-					true);
-		}
+		channel_.subscribeToFallingEdgeThresholdDetection(threshold);
 	}
 	
 	/**
-	 * Removes the observer if any. Resets all observations and stops the reading thread (no more async anything)
+	 * Removes the observers and subscribers if any. Resets all observations and stops the reading thread
+	 * (no more async anything). The droppedSamples gauge is unregistered until the reader is started again.
 	 */
-	public void deleteObserver() {
-		observer_ = null; // this causes the thread to quit
-		observerWantsPeriodicNotifications_ = false;
-		risingEdgeDetector_ = null;
-		fallingEdgeDetector_ = null;
+	public synchronized void deleteObserver() {
+		running_ = false; // this causes the threads to quit
+		channel_.reset();
+		removeGauge(droppedSamplesGaugeName_, droppedSamplesGauge_);
+		synchronized (channel_) {
+			for (int i=0; i<interlocks_.length; i++) {
+				interlocks_[i].release();
+			}
+			interlocks_ = new AnalogInterlock[0];
+		}
+		if (readerThread_==null) {
+			return;
+		}
 		try {
 			readerThread_.join();
+			if (dispatcherThread_ != null) {
+				dispatcherThread_.join();
+			}
 		} catch (InterruptedException e) {
 			// void
 		}
+		readerThread_ = null;
+		dispatcherThread_ = null;
 	}
 	
 }
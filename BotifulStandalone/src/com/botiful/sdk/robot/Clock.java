@@ -0,0 +1,67 @@
+package com.botiful.sdk.robot;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The time base of the SDK: every date and every wait of the robotic elements goes through the current clock.<br />
+ * It is the system clock by default. A simulation can install another one with {@link #set(Clock)}, e.g. a virtual
+ * clock running faster than real time, before the elements are built.<br />
+ * Dates are in ns with an arbitrary origin, like System.nanoTime(): only differences are meaningful.
+ */
+public abstract class Clock {
+	/** System.nanoTime(), and real waits */
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+	
+	private static volatile Clock current_ = SYSTEM;
+	
+	/**
+	 * @return the current clock of the SDK
+	 */
+	public static Clock get() {
+		return current_;
+	}
+	
+	/**
+	 * Replace the clock of the SDK. Install it before building the robotic elements: the dates they already
+	 * hold are meaningless in another time base.
+	 * @param clock the new clock, null for {@link #SYSTEM}
+	 */
+	public static void set(Clock clock) {
+		current_ = (clock==null)?SYSTEM:clock;
+	}
+	
+	/**
+	 * @return the current date of the SDK clock, in ns
+	 */
+	public static long now() {
+		return current_.nanoTime();
+	}
+	
+	/**
+	 * @return the current date, in ns
+	 */
+	public abstract long nanoTime();
+	
+	/**
+	 * Park the calling thread for a duration of this clock. Like LockSupport.parkNanos(), it may return early,
+	 * e.g. when the thread is unparked or interrupted.
+	 * @param nanos duration in ns
+	 */
+	public void parkNanos(long nanos) {
+		LockSupport.parkNanos(nanos);
+	}
+	
+	/**
+	 * Sleep for a duration of this clock
+	 * @param nanos duration in ns
+	 * @throws InterruptedException when the thread is interrupted
+	 */
+	public void sleepNanos(long nanos) throws InterruptedException {
+		Thread.sleep(nanos/1000000, (int) (nanos%1000000));
+	}
+}
@@ -0,0 +1,83 @@
+package com.botiful.sdk.robot;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single-slot, latest-value-wins mailbox, to pass commands to the thread driving the robot.<br />
+ * Any thread (e.g. the UI thread) can post a command without blocking: it replaces the command
+ * which has not been taken yet, if any. The control thread takes the latest command once per tick,
+ * so that a flood of intermediate values (e.g. while dragging a seekbar) results in a single write.<br />
+ * Lock-free, and allocation-free with immutable interned commands such as PwmSpeed or Boolean.<br />
+ * Watched by an {@link EventDrivenLooper}, posting a command wakes the control thread up right away.
+ * @param <T> type of the commands
+ */
+public class CommandMailbox<T> {
+	private final AtomicReference<T> command_ = new AtomicReference<T>();
+	/** number of commands replaced before being taken */
+	private volatile long coalescedCount_;
+	/** looper woken up by new commands, or null */
+	private volatile EventDrivenLooper looper_;
+	/** latency measurement of the commands, or null */
+	private volatile LatencyProbe probe_;
+	
+	/**
+	 * Post a command, replacing the pending one. Never blocks.
+	 * @param command the command, not null
+	 */
+	public void post(T command) {
+		LatencyProbe probe = probe_;
+		if (probe!=null) {
+			probe.commandEnqueued();
+		}
+		if (command_.getAndSet(command) != null) {
+			coalescedCount_++;
+		}
+		EventDrivenLooper looper = looper_;
+		if (looper!=null) {
+			looper.wakeUp();
+		}
+	}
+	
+	/**
+	 * Measure the latency of the commands posted to this mailbox
+	 * @param probe the probe of the actuator, null to stop measuring
+	 */
+	public void setProbe(LatencyProbe probe) {
+		probe_ = probe;
+	}
+	
+	/**
+	 * Wake up a looper when a command is posted, see {@link EventDrivenLooper#watch(CommandMailbox)}
+	 */
+	void setLooper(EventDrivenLooper looper) {
+		looper_ = looper;
+	}
+	
+	/**
+	 * Take the latest command, if any. Called by the control thread.
+	 * @return the latest command posted since the last call, or null if there is none
+	 */
+	public T take() {
+		T command = command_.getAndSet(null);
+		LatencyProbe probe = probe_;
+		if (command!=null && probe!=null) {
+			probe.commandTaken();
+		}
+		return command;
+	}
+	
+	/**
+	 * @return true if a command is waiting
+	 */
+	public boolean hasCommand() {
+		return command_.get() != null;
+	}
+	
+	/**
+	 * @return the number of commands replaced by a later one before being taken (approximate if
+	 * several threads post)
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount_;
+	}
+}
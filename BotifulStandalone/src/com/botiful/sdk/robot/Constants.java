@@ -1,5 +1,7 @@
 package com.botiful.sdk.robot;
 
+import com.botiful.sdk.models.PwmSpeed;
+
 /**
  * Pin numbers and other constants
  */
@@ -28,4 +30,29 @@ public class Constants {
 	public static final float ROTARY_ENCODER_MAX_VALUE = .49f;
 	/** min value of the rotary encoder (maximum angle for the head) */
 	public static final float ROTARY_ENCODER_MIN_VALUE = .26f;
+	/** duty cycle scaling of each wheel (see PwmCalibration), adjust one to make the robot go straight */
+	public static final float LEFT_WHEEL_ALPHA = PwmSpeed.ALPHA_DEFAULT;
+	public static final float RIGHT_WHEEL_ALPHA = PwmSpeed.ALPHA_DEFAULT;
+	/** largest change of the wheel speeds, in PwmSpeed units per second (0 to full speed in 250ms) */
+	public static final float WHEEL_ACCELERATION = 40f;
+	/** time between a head motor command and its effect on the rotary encoder, in ms */
+	public static final int HEAD_ACTUATION_LATENCY_MILLIS = 30;
+	/** time to the head limits below which the head is slowed down, in ms */
+	public static final int HEAD_BRAKING_HORIZON_MILLIS = 150;
+	/** lowest rotary encoder velocity of a free head, per unit of PwmSpeed, in 1/s */
+	public static final float HEAD_STALL_MIN_VELOCITY_PER_SPEED_UNIT = .003f;
+	/** number of consecutive stalled rotary encoder samples before the head motor is cut (1 kHz sampling) */
+	public static final int HEAD_STALL_MAX_SAMPLES = 100;
+	/** gains of the head position controller: PwmSpeed units per unit of rotary encoder error, per unit.s and per unit/s */
+	public static final float HEAD_POSITION_PROPORTIONAL_GAIN = 200f;
+	public static final float HEAD_POSITION_INTEGRAL_GAIN = 100f;
+	public static final float HEAD_POSITION_DERIVATIVE_GAIN = 20f;
+	/** rotary encoder error below which the head is considered in position */
+	public static final float HEAD_POSITION_TOLERANCE = .003f;
+	/** change of the head target at each press of the head buttons, in rotary encoder units */
+	public static final float HEAD_POSITION_STEP = .02f;
+	/** time after which a held drive command stops the wheels if it is not kept alive, in ms */
+	public static final int DRIVE_COMMAND_LIFETIME_MILLIS = 250;
+	/** period of the keep-alive of held drive commands, in ms, well below their lifetime */
+	public static final int DRIVE_KEEP_ALIVE_PERIOD_MILLIS = 100;
 }
@@ -0,0 +1,252 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * Runs control tasks at fixed rates, e.g. a 50 Hz drive loop and a 10 Hz housekeeping loop, on the IOIO thread.<br />
+ * Call {@link #runCycle()} from the loop() of a BaseIOIOLooper: it runs the tasks which are due, then waits for the
+ * next deadline. Deadlines are absolute dates on a fixed grid (Clock.now()): the time spent in the tasks or
+ * in the IOIO calls does not make the periods drift. A task more than one period late skips the missed periods
+ * rather than running several times in a row.<br />
+ * Tasks due at the same time run in the order they were scheduled: schedule the fastest first.<br />
+ * The statistics of each task (see {@link ScheduledTask}) tell whether its rate is actually achieved.
+ */
+public class ControlScheduler {
+	/**
+	 * A periodic control task
+	 */
+	public interface ControlTask {
+		/**
+		 * Called at the rate of the task, from the thread calling {@link ControlScheduler#runCycle()}
+		 * @throws ConnectionLostException when connection to the robot is lost
+		 */
+		public void run() throws ConnectionLostException;
+	}
+
+	/**
+	 * A task scheduled at a fixed rate, and its statistics.<br />
+	 * Statistics are written by the scheduling thread and can be read from any thread.
+	 */
+	public static final class ScheduledTask {
+		private final ControlTask task_;
+		private final long periodNanos_;
+		/** next deadline, only used by the scheduling thread */
+		private long deadlineNanos_;
+		private volatile long runCount_;
+		private volatile long missedDeadlineCount_;
+		private volatile long overrunCount_;
+		private volatile long maxJitterNanos_;
+		private volatile long totalJitterNanos_;
+		private volatile long maxExecutionNanos_;
+		private volatile long firstRunNanos_;
+		private volatile long lastRunNanos_;
+
+		private ScheduledTask(ControlTask task, long periodNanos, long nowNanos) {
+			task_ = task;
+			periodNanos_ = periodNanos;
+			deadlineNanos_ = nowNanos;
+			resetStatistics();
+		}
+
+		/**
+		 * Runs the task if it is due
+		 * @return true if it ran
+		 */
+		private boolean runIfDue(long nowNanos) throws ConnectionLostException {
+			long lateNanos = nowNanos-deadlineNanos_;
+			if (lateNanos < 0) {
+				return false;
+			}
+			if (lateNanos >= periodNanos_) {
+				// skip the periods which are over, stay on the grid
+				long missed = lateNanos/periodNanos_;
+				missedDeadlineCount_ += missed;
+				deadlineNanos_ += missed*periodNanos_;
+				lateNanos -= missed*periodNanos_;
+			}
+			deadlineNanos_ += periodNanos_;
+			task_.run();
+			long executionNanos = Clock.now()-nowNanos;
+			if (executionNanos > periodNanos_) {
+				overrunCount_++;
+			}
+			if (executionNanos > maxExecutionNanos_) {
+				maxExecutionNanos_ = executionNanos;
+			}
+			if (lateNanos > maxJitterNanos_) {
+				maxJitterNanos_ = lateNanos;
+			}
+			totalJitterNanos_ += lateNanos;
+			if (runCount_ == 0) {
+				firstRunNanos_ = nowNanos;
+			}
+			lastRunNanos_ = nowNanos;
+			runCount_++;
+			return true;
+		}
+
+		/**
+		 * Clears the statistics
+		 */
+		public void resetStatistics() {
+			runCount_ = 0;
+			missedDeadlineCount_ = 0;
+			overrunCount_ = 0;
+			maxJitterNanos_ = 0;
+			totalJitterNanos_ = 0;
+			maxExecutionNanos_ = 0;
+		}
+
+		/**
+		 * @return the period of the task, in ns
+		 */
+		public long getPeriodNanos() {
+			return periodNanos_;
+		}
+
+		/**
+		 * @return the number of runs of the task
+		 */
+		public long getRunCount() {
+			return runCount_;
+		}
+
+		/**
+		 * @return the number of periods skipped because the task could not run before the next deadline
+		 */
+		public long getMissedDeadlineCount() {
+			return missedDeadlineCount_;
+		}
+
+		/**
+		 * @return the number of runs which lasted longer than the period
+		 */
+		public long getOverrunCount() {
+			return overrunCount_;
+		}
+
+		/**
+		 * @return the largest delay between a deadline and the start of the task, in ns
+		 */
+		public long getMaxJitterNanos() {
+			return maxJitterNanos_;
+		}
+
+		/**
+		 * @return the mean delay between a deadline and the start of the task, in ns
+		 */
+		public long getMeanJitterNanos() {
+			long runs = runCount_;
+			return (runs == 0)?0:totalJitterNanos_/runs;
+		}
+
+		/**
+		 * @return the longest run of the task, in ns
+		 */
+		public long getMaxExecutionNanos() {
+			return maxExecutionNanos_;
+		}
+
+		/**
+		 * @return the rate actually achieved since the statistics were reset, in Hz (0 until the task ran twice)
+		 */
+		public float getAchievedRateHz() {
+			long runs = runCount_;
+			long elapsedNanos = lastRunNanos_-firstRunNanos_;
+			if (runs < 2 || elapsedNanos <= 0) {
+				return 0;
+			}
+			return (runs-1)*1e9f/elapsedNanos;
+		}
+	}
+
+	/** longest wait of {@link #runCycle()} without any task, so that a loop calling it does not spin */
+	public static final long IDLE_WAIT_NANOS = 10000000L;
+
+	/** scheduled tasks. Never modified: replaced by a new copy on changes */
+	private volatile ScheduledTask[] tasks_;
+
+	/**
+	 * Build the scheduler, with no task
+	 */
+	public ControlScheduler() {
+		tasks_ = new ScheduledTask[0];
+	}
+
+	/**
+	 * Schedule a task. It runs at the next cycle, then at its rate.
+	 * @param task the task to run
+	 * @param rateHz number of runs per second
+	 * @return the scheduled task, giving its statistics
+	 */
+	public synchronized ScheduledTask schedule(ControlTask task, float rateHz) {
+		long periodNanos = Math.max(1, (long) (1e9/rateHz));
+		ScheduledTask scheduledTask = new ScheduledTask(task, periodNanos, Clock.now());
+		ScheduledTask[] tasks = new ScheduledTask[tasks_.length+1];
+		System.arraycopy(tasks_, 0, tasks, 0, tasks_.length);
+		tasks[tasks_.length] = scheduledTask;
+		tasks_ = tasks;
+		return scheduledTask;
+	}
+
+	/**
+	 * Remove a task
+	 * @param scheduledTask the task, as returned by {@link #schedule(ControlTask, float)}
+	 */
+	public synchronized void cancel(ScheduledTask scheduledTask) {
+		for (int i=0; i<tasks_.length; i++) {
+			if (tasks_[i] == scheduledTask) {
+				ScheduledTask[] tasks = new ScheduledTask[tasks_.length-1];
+				System.arraycopy(tasks_, 0, tasks, 0, i);
+				System.arraycopy(tasks_, i+1, tasks, i, tasks.length-i);
+				tasks_ = tasks;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Runs the tasks which are due, without waiting. For loopers waiting on other events too, see
+	 * {@link EventDrivenLooper}.
+	 * @return the next deadline (Clock.now() date), meaningless if there is no task
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public long runDueTasks() throws ConnectionLostException {
+		ScheduledTask[] tasks = tasks_;
+		long nextDeadlineNanos = 0;
+		for (int i=0; i<tasks.length; i++) {
+			tasks[i].runIfDue(Clock.now());
+			long deadline = tasks[i].deadlineNanos_;
+			if (i == 0 || deadline-nextDeadlineNanos < 0) {
+				nextDeadlineNanos = deadline;
+			}
+		}
+		return nextDeadlineNanos;
+	}
+
+	/**
+	 * @return true if at least one task is scheduled
+	 */
+	public boolean hasTasks() {
+		return tasks_.length > 0;
+	}
+
+	/**
+	 * Runs the tasks which are due, then waits for the next deadline, or for {@link #IDLE_WAIT_NANOS} if there is no
+	 * task. Call it from the loop() of the IOIO looper.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 * @throws InterruptedException when the thread is interrupted (e.g. on disconnection), the flag is left set
+	 */
+	public void runCycle() throws ConnectionLostException, InterruptedException {
+		long nextDeadlineNanos = (tasks_.length == 0)?Clock.now()+IDLE_WAIT_NANOS:runDueTasks();
+		Thread thread = Thread.currentThread();
+		long delayNanos;
+		while ((delayNanos = nextDeadlineNanos-Clock.now()) > 0 && !thread.isInterrupted()) {
+			Clock.get().parkNanos(delayNanos);
+		}
+		if (thread.isInterrupted()) {
+			// let the IOIO thread disconnect, rather than spinning: parking returns at once while the flag is set
+			throw new InterruptedException("Scheduler thread interrupted");
+		}
+	}
+}
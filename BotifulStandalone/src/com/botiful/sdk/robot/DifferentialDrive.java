@@ -0,0 +1,141 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.models.PwmSpeed;
+
+/**
+ * Drives the two wheels together, from linear and angular velocity commands.<br />
+ * Commands are on the PwmSpeed scale: the left wheel gets linear-angular and the right wheel linear+angular,
+ * so a positive angular velocity turns left. When a wheel would exceed the maximum speed, both are scaled
+ * down to keep the curvature of the path.<br />
+ * Each wheel applies its own calibration (see {@link PwmMotor#setCalibration}). Both wheels are updated in a
+ * single IOIO batch, or in the same flush if they share an {@link OutputBatcher}: the robot never runs
+ * with one wheel updated and not the other.
+ */
+public class DifferentialDrive extends AbstractRoboticElement {
+	/**
+	 * An immutable drive command, e.g. to be posted to the control thread through an {@link ExpiringCommand}
+	 */
+	public static final class Command {
+		/** stops both wheels */
+		public static final Command STOP = new Command(0, 0);
+		
+		private final float linear_;
+		private final float angular_;
+		
+		/**
+		 * @param linear forward speed, negative to go backward
+		 * @param angular turn rate, positive to turn left (counter-clockwise)
+		 */
+		public Command(float linear, float angular) {
+			linear_ = linear;
+			angular_ = angular;
+		}
+		
+		public float getLinear() {
+			return linear_;
+		}
+		
+		public float getAngular() {
+			return angular_;
+		}
+	}
+	
+	private final PwmMotor leftMotor_;
+	private final PwmMotor rightMotor_;
+	
+	/**
+	 * Build the drive
+	 * @param ioio handle to the ioio interface
+	 * @param leftMotor motor of the left wheel
+	 * @param rightMotor motor of the right wheel
+	 */
+	public DifferentialDrive(IOIO ioio, PwmMotor leftMotor, PwmMotor rightMotor) {
+		super(ioio);
+		leftMotor_ = leftMotor;
+		rightMotor_ = rightMotor;
+	}
+	
+	/**
+	 * Drive the robot. Call this method from inside the IOIO looper's loop.
+	 * @param linear forward speed, negative to go backward
+	 * @param angular turn rate, positive to turn left (counter-clockwise)
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public void drive(float linear, float angular) throws ConnectionLostException {
+		float left = linear-angular;
+		float right = linear+angular;
+		float largest = Math.max(Math.abs(left), Math.abs(right));
+		if (largest > PwmSpeed.MAX) {
+			float scale = PwmSpeed.MAX/largest;
+			left *= scale;
+			right *= scale;
+		}
+		setWheelSpeeds(left, right);
+	}
+	
+	/**
+	 * Drive the robot. Call this method from inside the IOIO looper's loop.
+	 * @param command the linear and angular speeds to apply
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public void drive(Command command) throws ConnectionLostException {
+		drive(command.getLinear(), command.getAngular());
+	}
+	
+	/**
+	 * Set the speed of both wheels at once. Call this method from inside the IOIO looper's loop.
+	 * @param left speed of the left wheel
+	 * @param right speed of the right wheel
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void setWheelSpeeds(float left, float right) throws ConnectionLostException {
+		IOIO_.beginBatch();
+		try {
+			leftMotor_.setSpeed(ContinuousSpeed.valueOf(left));
+			rightMotor_.setSpeed(ContinuousSpeed.valueOf(right));
+		} finally {
+			IOIO_.endBatch();
+		}
+	}
+	
+	/**
+	 * Step both wheels toward their target speeds, when their acceleration is limited
+	 * (see {@link PwmMotor#updateSpeed()}). Call this method at each control tick.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void updateSpeed() throws ConnectionLostException {
+		IOIO_.beginBatch();
+		try {
+			leftMotor_.updateSpeed();
+			rightMotor_.updateSpeed();
+		} finally {
+			IOIO_.endBatch();
+		}
+	}
+	
+	/**
+	 * Stop both wheels right away
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void stop() throws ConnectionLostException {
+		IOIO_.beginBatch();
+		try {
+			leftMotor_.stop();
+			rightMotor_.stop();
+		} finally {
+			IOIO_.endBatch();
+		}
+	}
+	
+	public PwmMotor getLeftMotor() {
+		return leftMotor_;
+	}
+	
+	public PwmMotor getRightMotor() {
+		return rightMotor_;
+	}
+}
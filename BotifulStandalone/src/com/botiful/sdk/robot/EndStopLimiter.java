@@ -0,0 +1,155 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.botiful.sdk.models.PwmSpeed;
+
+/**
+ * Predictive end-stops: slows a motor down before its position sensor reaches a limit.<br />
+ * The velocity of the sensor is estimated on the reader thread (see {@link VelocityEstimator}); from the
+ * distance to the limit the motor is heading to, it projects the time left before reaching it:
+ * <ul><li>below the actuation latency, the motor is cut in this direction
+ * <li>below the braking horizon, the speed allowed in this direction ramps down with the time left
+ * <li>beyond the limit, the direction is cut until the motor moves back</ul>
+ * The motor moving away from the limits is not restricted. Use an infinite value to watch only one limit:
+ * a direction is only ever limited by the limiter watching it.
+ * A {@link MotorInterlock} can be kept on the same signal as a last resort.
+ */
+public class EndStopLimiter implements AnalogInterlock {
+	/** Default number of samples of the velocity window */
+	public static final int DEFAULT_WINDOW_SIZE = 16;
+
+	private final PwmMotor motor_;
+	private final float minValue_;
+	private final float maxValue_;
+	/** true if positive speeds make the sensor value increase */
+	private final boolean positiveSpeedIncreasesValue_;
+	private final long latencyNanos_;
+	private final long brakingHorizonNanos_;
+	private final VelocityEstimator estimator_;
+	/** limits currently applied to the motor, only written by the reader thread */
+	private volatile int positiveSpeedLimit_;
+	private volatile int reverseSpeedLimit_;
+
+	/**
+	 * Build the limiter, with the default velocity window
+	 * @param motor motor to limit
+	 * @param minValue lowest allowed value of the sensor, Float.NEGATIVE_INFINITY for none
+	 * @param maxValue highest allowed value of the sensor, Float.POSITIVE_INFINITY for none
+	 * @param positiveSpeedIncreasesValue true if positive speeds make the sensor value increase
+	 * @param latencyMillis time between a motor command and its effect on the sensor
+	 * @param brakingHorizonMillis time to the limit below which the speed is ramped down, longer than the latency
+	 */
+	public EndStopLimiter(PwmMotor motor, float minValue, float maxValue, boolean positiveSpeedIncreasesValue,
+			int latencyMillis, int brakingHorizonMillis) {
+		this(motor, minValue, maxValue, positiveSpeedIncreasesValue, latencyMillis, brakingHorizonMillis,
+				DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Build the limiter
+	 * @param motor motor to limit
+	 * @param minValue lowest allowed value of the sensor, Float.NEGATIVE_INFINITY for none
+	 * @param maxValue highest allowed value of the sensor, Float.POSITIVE_INFINITY for none
+	 * @param positiveSpeedIncreasesValue true if positive speeds make the sensor value increase
+	 * @param latencyMillis time between a motor command and its effect on the sensor
+	 * @param brakingHorizonMillis time to the limit below which the speed is ramped down, longer than the latency
+	 * @param windowSize number of samples used to estimate the velocity
+	 */
+	public EndStopLimiter(PwmMotor motor, float minValue, float maxValue, boolean positiveSpeedIncreasesValue,
+			int latencyMillis, int brakingHorizonMillis, int windowSize) {
+		motor_ = motor;
+		minValue_ = Math.min(minValue, maxValue);
+		maxValue_ = Math.max(minValue, maxValue);
+		positiveSpeedIncreasesValue_ = positiveSpeedIncreasesValue;
+		latencyNanos_ = Math.max(0, latencyMillis)*1000000L;
+		brakingHorizonNanos_ = Math.max(latencyNanos_+1, brakingHorizonMillis*1000000L);
+		estimator_ = new VelocityEstimator(windowSize);
+		positiveSpeedLimit_ = PwmSpeed.MAX;
+		reverseSpeedLimit_ = PwmSpeed.MAX;
+	}
+
+	@Override
+	public void inputNewValues(float[] values, int count, long lastSampleTimeNanos, long samplePeriodNanos)
+			throws ConnectionLostException {
+		estimator_.inputNewValues(values, count, lastSampleTimeNanos, samplePeriodNanos);
+		float value = estimator_.getValue();
+		float velocity = estimator_.getVelocity();
+		int increasingLimit = computeSpeedLimit(maxValue_-value, velocity);
+		int decreasingLimit = computeSpeedLimit(value-minValue_, -velocity);
+		if (positiveSpeedIncreasesValue_) {
+			applyLimits(increasingLimit, decreasingLimit);
+		} else {
+			applyLimits(decreasingLimit, increasingLimit);
+		}
+	}
+
+	/**
+	 * @param distance distance to the limit, negative if it is passed
+	 * @param velocity velocity towards the limit, in units per second
+	 * @return the speed allowed towards the limit
+	 */
+	private int computeSpeedLimit(float distance, float velocity) {
+		if (distance <= 0) {
+			return 0;
+		}
+		if (velocity <= 0) {
+			return PwmSpeed.MAX;
+		}
+		long timeToLimitNanos = (long) (distance/velocity*1e9f);
+		if (timeToLimitNanos <= latencyNanos_) {
+			return 0;
+		}
+		if (timeToLimitNanos >= brakingHorizonNanos_) {
+			return PwmSpeed.MAX;
+		}
+		return (int) Math.ceil(PwmSpeed.MAX*(float) (timeToLimitNanos-latencyNanos_)/(brakingHorizonNanos_-latencyNanos_));
+	}
+
+	private void applyLimits(int positiveSpeedLimit, int reverseSpeedLimit) throws ConnectionLostException {
+		if (positiveSpeedLimit != positiveSpeedLimit_) {
+			positiveSpeedLimit_ = positiveSpeedLimit;
+			motor_.limitPositiveSpeed(positiveSpeedLimit);
+		}
+		if (reverseSpeedLimit != reverseSpeedLimit_) {
+			reverseSpeedLimit_ = reverseSpeedLimit;
+			motor_.limitReverseSpeed(reverseSpeedLimit);
+		}
+	}
+
+	/**
+	 * Lifts the limits set by this limiter, the other limits of the motor are kept.
+	 */
+	@Override
+	public void release() {
+		if (positiveSpeedLimit_ != PwmSpeed.MAX) {
+			positiveSpeedLimit_ = PwmSpeed.MAX;
+			motor_.unlimitPositiveSpeed();
+		}
+		if (reverseSpeedLimit_ != PwmSpeed.MAX) {
+			reverseSpeedLimit_ = PwmSpeed.MAX;
+			motor_.unlimitReverseSpeed();
+		}
+	}
+
+	/**
+	 * @return the estimated velocity of the sensor, in units per second
+	 */
+	public float getVelocity() {
+		return estimator_.getVelocity();
+	}
+
+	/**
+	 * @return the largest positive speed currently allowed
+	 */
+	public int getPositiveSpeedLimit() {
+		return positiveSpeedLimit_;
+	}
+
+	/**
+	 * @return the largest negative speed (in absolute value) currently allowed
+	 */
+	public int getReverseSpeedLimit() {
+		return reverseSpeedLimit_;
+	}
+}
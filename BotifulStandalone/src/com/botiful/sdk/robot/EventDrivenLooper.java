@@ -0,0 +1,182 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+import ioio.lib.util.BaseIOIOLooper;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An IOIO looper which sleeps until there is something to do, instead of polling at a fixed period.<br />
+ * The looper thread is parked until a command is posted to a watched {@link CommandMailbox} or
+ * {@link ExpiringCommand} (or {@link #wakeUp()} is called), a watched expiring command reaches its deadline, a
+ * task of the {@link #getScheduler() scheduler} is due, or {@link #getNanosUntilNextDeadline(long)} elapses.
+ * It then calls {@link #processCommands()}, runs the due tasks and flushes the {@link OutputBatcher}, if any,
+ * right away: commands reach the robot without waiting for a tick, and an idle robot costs no wakeup but one
+ * every {@link #MAX_IDLE_MILLIS}.<br />
+ * The latency of the commands can be measured with {@link LatencyProbe}s, see {@link #addProbe(LatencyProbe)}.<br />
+ * Subclasses implement setup() as usual, and processCommands() instead of loop().
+ */
+public abstract class EventDrivenLooper extends BaseIOIOLooper {
+	/** longest time parked, so that the looper notices a disconnection even when idle */
+	public static final int MAX_IDLE_MILLIS = 1000;
+
+	private final ControlScheduler scheduler_ = new ControlScheduler();
+	/** watched expiring commands. Never modified: replaced by a new copy on changes */
+	private volatile ExpiringCommand<?>[] expiringCommands_ = new ExpiringCommand<?>[0];
+	/** latency probes of the actuators. Never modified: replaced by a new copy on changes */
+	private volatile LatencyProbe[] probes_ = new LatencyProbe[0];
+	private volatile OutputBatcher batcher_;
+	private volatile Thread looperThread_;
+	private volatile long wakeUpCount_;
+	private final MetricsRegistry.Counter wakeUpCounter_ =
+			MetricsRegistry.getDefault().counter("EventDrivenLooper.wakeUps");
+	private final MetricsRegistry.Counter connectionLostCounter_ =
+			MetricsRegistry.getDefault().counter("EventDrivenLooper.connectionLost");
+
+	/**
+	 * Apply the pending commands: take the commands of the mailboxes, poll the expiring commands...<br />
+	 * Called from the looper thread each time it wakes up, whatever the reason.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	protected abstract void processCommands() throws ConnectionLostException;
+
+	/**
+	 * Override to wake up at a deadline of the subclass, e.g. while a motor ramps toward its target speed
+	 * @param nowNanos current date (Clock.now())
+	 * @return time until the looper must wake up again in ns, or Long.MAX_VALUE if there is no deadline
+	 */
+	protected long getNanosUntilNextDeadline(long nowNanos) {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Wake up the looper thread. Can be called from any thread, never blocks.
+	 * A wakeup sent while the looper is busy is not lost: it does not park at its next iteration.
+	 */
+	public void wakeUp() {
+		Thread thread = looperThread_;
+		if (thread!=null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Wake up when a command is posted to the mailbox
+	 * @param mailbox the mailbox, it wakes up this looper only
+	 */
+	public void watch(CommandMailbox<?> mailbox) {
+		mailbox.setLooper(this);
+	}
+
+	/**
+	 * Wake up when a command is posted or cancelled, and when it reaches its deadline
+	 * @param command the expiring command, it wakes up this looper only
+	 */
+	public synchronized void watch(ExpiringCommand<?> command) {
+		command.setLooper(this);
+		for (int i=0; i<expiringCommands_.length; i++) {
+			if (expiringCommands_[i] == command) {
+				// e.g. watched again at a reconnection
+				return;
+			}
+		}
+		ExpiringCommand<?>[] commands = new ExpiringCommand<?>[expiringCommands_.length+1];
+		System.arraycopy(expiringCommands_, 0, commands, 0, expiringCommands_.length);
+		commands[expiringCommands_.length] = command;
+		expiringCommands_ = commands;
+	}
+
+	/**
+	 * Stamp the commands of an actuator when their writes are sent. Set the probe on the mailbox of the
+	 * actuator too.
+	 * @param probe the probe of the actuator
+	 */
+	public synchronized void addProbe(LatencyProbe probe) {
+		for (int i=0; i<probes_.length; i++) {
+			if (probes_[i] == probe) {
+				return;
+			}
+		}
+		LatencyProbe[] probes = new LatencyProbe[probes_.length+1];
+		System.arraycopy(probes_, 0, probes, 0, probes_.length);
+		probes[probes_.length] = probe;
+		probes_ = probes;
+	}
+
+	/**
+	 * @return the scheduler of the periodic tasks, run by this looper
+	 */
+	public ControlScheduler getScheduler() {
+		return scheduler_;
+	}
+
+	/**
+	 * Flush a batcher after each wakeup, so that the writes of the commands and tasks are sent right away
+	 * @param batcher the batcher of the outputs, null to stop flushing
+	 */
+	public void setOutputBatcher(OutputBatcher batcher) {
+		batcher_ = batcher;
+	}
+
+	/**
+	 * @return the number of times the looper has woken up
+	 */
+	public long getWakeUpCount() {
+		return wakeUpCount_;
+	}
+
+	/**
+	 * Processes the commands and the due tasks, then parks until the next event.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 * @throws InterruptedException when the looper thread is interrupted, e.g. when the app stops the IOIO thread.
+	 * The interrupt flag is left set.
+	 */
+	@Override
+	public final void loop() throws ConnectionLostException, InterruptedException {
+		looperThread_ = Thread.currentThread();
+		wakeUpCount_++;
+		wakeUpCounter_.increment();
+		long delayNanos = MAX_IDLE_MILLIS*1000000L;
+		try {
+			processCommands();
+			if (scheduler_.hasTasks()) {
+				long nextTaskNanos = scheduler_.runDueTasks();
+				delayNanos = Math.min(delayNanos, nextTaskNanos-Clock.now());
+			}
+			OutputBatcher batcher = batcher_;
+			if (batcher!=null) {
+				batcher.flush();
+			}
+		} catch (ConnectionLostException e) {
+			connectionLostCounter_.increment();
+			throw e;
+		}
+		stampProbes();
+		long now = Clock.now();
+		delayNanos = Math.min(delayNanos, getNanosUntilNextDeadline(now));
+		ExpiringCommand<?>[] commands = expiringCommands_;
+		for (int i=0; i<commands.length; i++) {
+			delayNanos = Math.min(delayNanos, commands[i].getNanosUntilDeadline(now));
+		}
+		Thread thread = Thread.currentThread();
+		if (delayNanos > 0 && !thread.isInterrupted()) {
+			// returns early on wakeUp(), or if the thread is interrupted (e.g. on disconnection)
+			Clock.get().parkNanos(delayNanos);
+		}
+		if (thread.isInterrupted()) {
+			// let the IOIO thread disconnect, rather than spinning: parking returns at once while the flag is set
+			throw new InterruptedException("Looper thread interrupted");
+		}
+	}
+
+	/**
+	 * Stamps the written commands
+	 */
+	private void stampProbes() {
+		LatencyProbe[] probes = probes_;
+		long now = Clock.now();
+		for (int i=0; i<probes.length; i++) {
+			probes[i].commandWritten(now);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.botiful.sdk.robot;
+
+/**
+ * A latest-value-wins command with an expiry deadline, for hold-to-move controls.<br />
+ * The UI thread posts a command with a lifetime, and keeps it alive (see {@link #keepAlive()}) as long as the
+ * input is held. The control thread polls the command at each tick: once the deadline is passed, it gets the
+ * expired command (e.g. a null speed) instead, once. A stalled UI thread, or a lost release event, can
+ * therefore not leave the robot moving longer than the lifetime of the command.<br />
+ * The control thread should not sleep past {@link #getNanosUntilDeadline(long)}, so that the expiry is
+ * applied within a bounded latency whatever its period: an {@link EventDrivenLooper} watching the command
+ * wakes up on new commands and at their deadlines.
+ * @param <T> type of the commands, preferably immutable
+ */
+public class ExpiringCommand<T> {
+	private final T expiredCommand_;
+	private final long defaultLifetimeNanos_;
+	// guarded by this
+	private T command_;
+	private long lifetimeNanos_;
+	private long deadlineNanos_;
+	/** true if the command is live, i.e. not expired nor replaced by the expired command */
+	private boolean live_;
+	/** true if the command has changed since the last poll */
+	private boolean pending_;
+	private long expiryCount_;
+	/** looper woken up by new commands, or null */
+	private volatile EventDrivenLooper looper_;
+	/** latency measurement of the commands, or null */
+	private volatile LatencyProbe probe_;
+	/** true if the pending command was posted or cancelled, false if it expired */
+	private boolean pendingFromInput_;
+
+	/**
+	 * Build the command, with nothing posted yet
+	 * @param expiredCommand command applied when a command expires, e.g. PwmSpeed.ZERO
+	 * @param defaultLifetimeMillis lifetime of the commands posted without an explicit one
+	 */
+	public ExpiringCommand(T expiredCommand, long defaultLifetimeMillis) {
+		expiredCommand_ = expiredCommand;
+		defaultLifetimeNanos_ = Math.max(0, defaultLifetimeMillis)*1000000L;
+		command_ = expiredCommand;
+		lifetimeNanos_ = defaultLifetimeNanos_;
+		live_ = false;
+		pending_ = false;
+		expiryCount_ = 0;
+	}
+
+	/**
+	 * Post a command, with the default lifetime
+	 * @param command the command, replacing the previous one
+	 */
+	public void post(T command) {
+		post(command, defaultLifetimeNanos_/1000000L);
+	}
+
+	/**
+	 * Post a command
+	 * @param command the command, replacing the previous one
+	 * @param lifetimeMillis time after which the command expires, unless kept alive
+	 */
+	public synchronized void post(T command, long lifetimeMillis) {
+		command_ = command;
+		lifetimeNanos_ = Math.max(0, lifetimeMillis)*1000000L;
+		deadlineNanos_ = Clock.now()+lifetimeNanos_;
+		live_ = true;
+		pending_ = true;
+		enqueued();
+	}
+
+	/**
+	 * Post the expired command right away (e.g. when the input is released). It does not expire.
+	 */
+	public synchronized void cancel() {
+		command_ = expiredCommand_;
+		live_ = false;
+		pending_ = true;
+		enqueued();
+	}
+	
+	/**
+	 * Wake up a looper when a command is posted, see {@link EventDrivenLooper#watch(ExpiringCommand)}
+	 */
+	void setLooper(EventDrivenLooper looper) {
+		looper_ = looper;
+	}
+	
+	/**
+	 * Measure the latency of the posted and cancelled commands
+	 * @param probe the probe of the actuator, null to stop measuring
+	 */
+	public void setProbe(LatencyProbe probe) {
+		probe_ = probe;
+	}
+	
+	private void enqueued() {
+		pendingFromInput_ = true;
+		LatencyProbe probe = probe_;
+		if (probe!=null) {
+			probe.commandEnqueued();
+		}
+		EventDrivenLooper looper = looper_;
+		if (looper!=null) {
+			looper.wakeUp();
+		}
+	}
+
+	/**
+	 * Push the deadline of the current command back by its lifetime. Call it periodically while the input is held.
+	 * @return false if there is no live command to keep alive (it has expired or was cancelled)
+	 */
+	public synchronized boolean keepAlive() {
+		if (!live_) {
+			return false;
+		}
+		deadlineNanos_ = Clock.now()+lifetimeNanos_;
+		return true;
+	}
+
+	/**
+	 * Get the command to apply, if it has changed. Called by the control thread at each tick.
+	 * @param nowNanos current date (Clock.now())
+	 * @return the command posted since the last poll, or the expired command if the command has expired since the
+	 * last poll, or null if there is nothing new to apply
+	 */
+	public synchronized T poll(long nowNanos) {
+		if (live_ && nowNanos-deadlineNanos_ >= 0) {
+			live_ = false;
+			command_ = expiredCommand_;
+			pending_ = true;
+			pendingFromInput_ = false;
+			expiryCount_++;
+		}
+		if (!pending_) {
+			return null;
+		}
+		pending_ = false;
+		LatencyProbe probe = probe_;
+		if (pendingFromInput_ && probe!=null) {
+			probe.commandTaken();
+		}
+		return command_;
+	}
+
+	/**
+	 * @param nowNanos current date (Clock.now())
+	 * @return the time left before the current command expires in ns (0 if it is due), or Long.MAX_VALUE if
+	 * there is no live command
+	 */
+	public synchronized long getNanosUntilDeadline(long nowNanos) {
+		if (!live_) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, deadlineNanos_-nowNanos);
+	}
+
+	/**
+	 * @return true if a command is live (posted, not expired nor cancelled)
+	 */
+	public synchronized boolean isLive() {
+		return live_;
+	}
+
+	/**
+	 * @return the number of commands which expired, i.e. were not kept alive nor cancelled in time
+	 */
+	public synchronized long getExpiryCount() {
+		return expiryCount_;
+	}
+}
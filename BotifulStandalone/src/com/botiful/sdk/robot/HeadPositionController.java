@@ -0,0 +1,210 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.models.PwmSpeed;
+
+/**
+ * Drives a motor toward a target value of its position sensor, e.g. the head toward a rotary encoder value.<br />
+ * A PID loop is stepped on every sample of the sensor, on the reader thread (see
+ * {@link AnalogValueReader#addInterlock}), and the resulting speed is written to the motor at the end of each block,
+ * without waiting for the IOIO looper (see {@link PwmMotor#setSpeedNow}). It is written on every block, so that the
+ * motor restarts as soon as a block, limit or power cut is lifted; the motor suppresses the duplicate writes.<br />
+ * The output is clamped to a maximum speed. The integral term stops growing while the output is saturated, by
+ * the clamp or by the limits of the motor (end-stops, stall, power cut), and is itself bounded by the maximum speed.
+ * The derivative term uses the velocity of the sensor over a sliding window (see {@link VelocityEstimator})
+ * instead of the derivative of the error, so that target changes do not kick the motor and the sensor noise is
+ * averaged.<br />
+ * The controller is idle until a target is set, and leaves the motor alone once disabled.
+ */
+public class HeadPositionController implements AnalogInterlock {
+	/** Default number of samples of the velocity window */
+	public static final int DEFAULT_WINDOW_SIZE = 16;
+
+	private final PwmMotor motor_;
+	/** 1 if positive speeds increase the sensor value, -1 otherwise */
+	private final float direction_;
+	private final VelocityEstimator estimator_;
+	// settings, written by any thread
+	private volatile float proportionalGain_,integralGain_,derivativeGain_;
+	private volatile float maxOutput_;
+	private volatile float tolerance_;
+	/** target value of the sensor, NaN when disabled */
+	private volatile float target_;
+	// only used by the reader thread
+	private boolean active_;
+	private float integral_;
+	/** true if the last output was clamped to the maximum speed */
+	private boolean saturated_;
+	/** last fixed-point speed requested from the motor */
+	private int lastOutputValue_;
+	private volatile float error_;
+
+	/**
+	 * Build the controller, with the default velocity window
+	 * @param motor motor to drive
+	 * @param positiveSpeedIncreasesValue true if the sensor value increases when the motor runs at a positive speed
+	 * @param proportionalGain speed (in PwmSpeed units) per unit of error
+	 * @param integralGain speed per unit of error and per second
+	 * @param derivativeGain speed per unit of sensor velocity (units per second), slowing the motor down
+	 */
+	public HeadPositionController(PwmMotor motor, boolean positiveSpeedIncreasesValue,
+			float proportionalGain, float integralGain, float derivativeGain) {
+		this(motor, positiveSpeedIncreasesValue, proportionalGain, integralGain, derivativeGain, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Build the controller
+	 * @param motor motor to drive
+	 * @param positiveSpeedIncreasesValue true if the sensor value increases when the motor runs at a positive speed
+	 * @param proportionalGain speed (in PwmSpeed units) per unit of error
+	 * @param integralGain speed per unit of error and per second
+	 * @param derivativeGain speed per unit of sensor velocity (units per second), slowing the motor down
+	 * @param windowSize number of samples used to estimate the velocity
+	 */
+	public HeadPositionController(PwmMotor motor, boolean positiveSpeedIncreasesValue,
+			float proportionalGain, float integralGain, float derivativeGain, int windowSize) {
+		motor_ = motor;
+		direction_ = positiveSpeedIncreasesValue?1:-1;
+		estimator_ = new VelocityEstimator(windowSize);
+		setGains(proportionalGain, integralGain, derivativeGain);
+		maxOutput_ = PwmSpeed.MAX;
+		tolerance_ = 0;
+		target_ = Float.NaN;
+		active_ = false;
+		error_ = Float.NaN;
+	}
+
+	@Override
+	public void inputNewValues(float[] values, int count, long lastSampleTimeNanos, long samplePeriodNanos)
+			throws ConnectionLostException {
+		float target = target_;
+		if (Float.isNaN(target)) {
+			active_ = false;
+			error_ = Float.NaN;
+			return;
+		}
+		if (!active_) {
+			// (re)enabled: start from a clean state
+			active_ = true;
+			integral_ = 0;
+			saturated_ = false;
+			lastOutputValue_ = motor_.getContinuousSpeed().getFixedPointValue();
+			estimator_.reset();
+		}
+		// the limits of the motor (blocks, end-stops, stall, power cut) saturate the output too, while they last
+		boolean limited = motor_.getContinuousSpeed().getFixedPointValue() != lastOutputValue_;
+		float kp = proportionalGain_, ki = integralGain_, kd = derivativeGain_;
+		float maxOutput = maxOutput_, tolerance = tolerance_;
+		float dt = samplePeriodNanos/1e9f;
+		float output = 0;
+		for (int i=0; i<count; i++) {
+			estimator_.inputNewValue(values[i], lastSampleTimeNanos-(count-1-i)*samplePeriodNanos);
+			// error in the direction of the positive speeds
+			float error = direction_*(target-values[i]);
+			error_ = error;
+			if (Math.abs(error) <= tolerance) {
+				// on target: hold still, keep the integral for the next move
+				output = 0;
+				saturated_ = false;
+				continue;
+			}
+			// conditional integration: only if it does not push the output further into saturation
+			if (ki != 0 && !((limited || saturated_) && integral_*error > 0)) {
+				integral_ += error*dt;
+				float maxIntegral = maxOutput/Math.abs(ki);
+				integral_ = Math.max(-maxIntegral, Math.min(maxIntegral, integral_));
+			}
+			output = kp*error+ki*integral_;
+			if (estimator_.isReady()) {
+				output -= kd*direction_*estimator_.getVelocity();
+			}
+			saturated_ = Math.abs(output) > maxOutput;
+			output = Math.max(-maxOutput, Math.min(maxOutput, output));
+		}
+		ContinuousSpeed speed = ContinuousSpeed.valueOf(output);
+		lastOutputValue_ = speed.getFixedPointValue();
+		motor_.setSpeedNow(speed);
+	}
+
+	/**
+	 * Set the target value of the sensor, and enable the controller
+	 * @param target value to reach
+	 */
+	public void setTarget(float target) {
+		target_ = target;
+	}
+
+	/**
+	 * @return the target value of the sensor, NaN if the controller is disabled
+	 */
+	public float getTarget() {
+		return target_;
+	}
+
+	/**
+	 * Stop controlling the motor. The motor keeps its last speed, stop it if needed.
+	 */
+	public void disable() {
+		target_ = Float.NaN;
+	}
+
+	/**
+	 * @return true if a target is set
+	 */
+	public boolean isEnabled() {
+		return !Float.isNaN(target_);
+	}
+
+	/**
+	 * Disables the controller. Called when the controller is removed from its reader.
+	 */
+	@Override
+	public void release() {
+		disable();
+	}
+
+	/**
+	 * Set the gains of the PID loop
+	 * @param proportionalGain speed (in PwmSpeed units) per unit of error
+	 * @param integralGain speed per unit of error and per second
+	 * @param derivativeGain speed per unit of sensor velocity (units per second), slowing the motor down
+	 */
+	public void setGains(float proportionalGain, float integralGain, float derivativeGain) {
+		proportionalGain_ = proportionalGain;
+		integralGain_ = integralGain;
+		derivativeGain_ = derivativeGain;
+	}
+
+	/**
+	 * Set the largest speed applied by the controller
+	 * @param maxOutput max speed, in PwmSpeed units, up to PwmSpeed.MAX
+	 */
+	public void setMaxOutput(float maxOutput) {
+		maxOutput_ = Math.min(PwmSpeed.MAX, Math.abs(maxOutput));
+	}
+
+	/**
+	 * Set the error below which the target is considered reached, and the motor is stopped
+	 * @param tolerance largest distance to the target, in sensor units
+	 */
+	public void setTolerance(float tolerance) {
+		tolerance_ = Math.abs(tolerance);
+	}
+
+	/**
+	 * @return the last error (target minus value, in the direction of the positive speeds), NaN if disabled
+	 */
+	public float getError() {
+		return error_;
+	}
+
+	/**
+	 * @return true if the last value was within the tolerance of the target
+	 */
+	public boolean isOnTarget() {
+		float error = error_;
+		return !Float.isNaN(error) && Math.abs(error) <= tolerance_;
+	}
+}
@@ -0,0 +1,234 @@
+package com.botiful.sdk.robot;
+
+/**
+ * Many hysteresis comparators on the same signal, splitting its range into zones.<br />
+ * N boundaries, each with a low and a high threshold, define N+1 zones: zone 0 is below the first boundary,
+ * zone N above the last one. Like a {@link HysteresisComparator}, the zone goes up when the value reaches the
+ * high threshold of a boundary, and down when it reaches its low threshold.<br />
+ * Thresholds are kept in sorted primitive arrays: a sample staying in its zone costs two comparisons, a zone
+ * change is found by binary search, whatever the number of boundaries.<br />
+ * {@link #inputNewValues(float[], int)} processes a whole block and records the zone changes into a
+ * reusable event buffer.
+ */
+public class HysteresisComparatorBank {
+	/**
+	 * A custom interface to be notified of zone changes
+	 */
+	public interface ZoneObserver {
+		/**
+		 * This interface method is called when the value enters a new zone<br />
+		 * <b>Delegate the processing to another thread, CPU time here can lead to delayed/lost samples</b>
+		 * @param previousZone zone of the previous value
+		 * @param newZone zone of the new value
+		 * @param value new analog value
+		 */
+		public void onZoneChanged(int previousZone, int newZone, float value);
+	}
+
+	/** zone before the first value is received */
+	public static final int ZONE_UNKNOWN = -1;
+
+	private final float[] lowThresholds_;
+	private final float[] highThresholds_;
+	private int zone_;
+	// event buffer
+	private final int[] eventSampleIndices_;
+	private final int[] eventPreviousZones_;
+	private final int[] eventZones_;
+	private int eventCount_;
+	/** number of events which did not fit in the buffer */
+	private long lostEvents_;
+
+	/**
+	 * Build the bank from boundaries with the same hysteresis
+	 * @param boundaries zone boundaries, in increasing order
+	 * @param hysteresisRange distance between the low and high thresholds of each boundary
+	 * @param maxEvents capacity of the event buffer, i.e. the largest block processed at once
+	 */
+	public HysteresisComparatorBank(float[] boundaries, float hysteresisRange, int maxEvents) {
+		this(offset(boundaries, -Math.abs(hysteresisRange)/2), offset(boundaries, Math.abs(hysteresisRange)/2), maxEvents);
+	}
+
+	/**
+	 * Build the bank from explicit thresholds
+	 * @param lowThresholds low threshold of each boundary (to go down), in increasing order
+	 * @param highThresholds high threshold of each boundary (to go up), in increasing order
+	 * @param maxEvents capacity of the event buffer, i.e. the largest block processed at once
+	 * @throws IllegalArgumentException if the thresholds are not sorted or if the boundaries overlap
+	 */
+	public HysteresisComparatorBank(float[] lowThresholds, float[] highThresholds, int maxEvents) {
+		if (lowThresholds.length != highThresholds.length) {
+			throw new IllegalArgumentException("One low and one high threshold per boundary are required");
+		}
+		for (int i=0; i<lowThresholds.length; i++) {
+			if (lowThresholds[i] > highThresholds[i]
+					|| (i > 0 && highThresholds[i-1] >= lowThresholds[i])) {
+				throw new IllegalArgumentException("Thresholds must be sorted and boundaries must not overlap");
+			}
+		}
+		lowThresholds_ = lowThresholds.clone();
+		highThresholds_ = highThresholds.clone();
+		eventSampleIndices_ = new int[Math.max(1, maxEvents)];
+		eventPreviousZones_ = new int[eventSampleIndices_.length];
+		eventZones_ = new int[eventSampleIndices_.length];
+		reset();
+	}
+
+	private static float[] offset(float[] values, float offset) {
+		float[] result = new float[values.length];
+		for (int i=0; i<values.length; i++) {
+			result[i] = values[i]+offset;
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets the current zone and the events
+	 */
+	public void reset() {
+		zone_ = ZONE_UNKNOWN;
+		eventCount_ = 0;
+	}
+
+	/**
+	 * Updates the zone with one value
+	 * @param newValue input value
+	 * @return one of the HysteresisComparator.EVENT_... constants: EVENT_RISING_EDGE if the zone went up,
+	 * EVENT_FALLING_EDGE if it went down, EVENT_NONE if it did not change (or if it was unknown)
+	 */
+	public int inputNewValue(float newValue) {
+		int previousZone = zone_;
+		int zone = updateZone(newValue);
+		if (previousZone == ZONE_UNKNOWN || zone == previousZone) {
+			return HysteresisComparator.EVENT_NONE;
+		}
+		return (zone > previousZone)?HysteresisComparator.EVENT_RISING_EDGE:HysteresisComparator.EVENT_FALLING_EDGE;
+	}
+
+	/**
+	 * Updates the zone with a block of values, and records every zone change in the event buffer
+	 * (previous events are discarded).
+	 * @param values input values, oldest first
+	 * @param count number of values to process
+	 * @return the number of events recorded, see {@link #getEventSampleIndex(int)} and the other event getters
+	 */
+	public int inputNewValues(float[] values, int count) {
+		eventCount_ = 0;
+		int zone = zone_;
+		for (int i=0; i<count; i++) {
+			int newZone = updateZone(values[i]);
+			if (newZone != zone && zone != ZONE_UNKNOWN) {
+				if (eventCount_ < eventSampleIndices_.length) {
+					eventSampleIndices_[eventCount_] = i;
+					eventPreviousZones_[eventCount_] = zone;
+					eventZones_[eventCount_] = newZone;
+					eventCount_++;
+				} else {
+					lostEvents_++;
+				}
+			}
+			zone = newZone;
+		}
+		return eventCount_;
+	}
+
+	/**
+	 * Computes the zone of a new value, with hysteresis, and stores it
+	 * @return the new zone
+	 */
+	private int updateZone(float value) {
+		int zone = zone_;
+		final int boundaries = highThresholds_.length;
+		if (zone == ZONE_UNKNOWN) {
+			zone = countBelowOrEqual(highThresholds_, value);
+		} else if (zone < boundaries && value >= highThresholds_[zone]) {
+			// going up: number of high thresholds reached
+			zone = countBelowOrEqual(highThresholds_, value);
+		} else if (zone > 0 && value <= lowThresholds_[zone-1]) {
+			// going down: number of low thresholds still strictly below the value
+			zone = countBelow(lowThresholds_, value);
+		}
+		zone_ = zone;
+		return zone;
+	}
+
+	/** binary search: number of values in the sorted array that are &lt;= key */
+	private static int countBelowOrEqual(float[] sorted, float key) {
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (sorted[mid] <= key) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/** binary search: number of values in the sorted array that are &lt; key */
+	private static int countBelow(float[] sorted, float key) {
+		int low = 0, high = sorted.length;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (sorted[mid] < key) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the current zone, from 0 to the number of boundaries, or ZONE_UNKNOWN
+	 */
+	public int getZone() {
+		return zone_;
+	}
+
+	/**
+	 * @return the number of zones (number of boundaries + 1)
+	 */
+	public int getZoneCount() {
+		return highThresholds_.length+1;
+	}
+
+	/**
+	 * @return the number of events recorded by the last call to {@link #inputNewValues(float[], int)}
+	 */
+	public int getEventCount() {
+		return eventCount_;
+	}
+
+	/**
+	 * @param event index of the event, less than {@link #getEventCount()}
+	 * @return the index, in the processed block, of the value which triggered the event
+	 */
+	public int getEventSampleIndex(int event) {
+		return eventSampleIndices_[event];
+	}
+
+	/**
+	 * @param event index of the event, less than {@link #getEventCount()}
+	 * @return the zone before the event
+	 */
+	public int getEventPreviousZone(int event) {
+		return eventPreviousZones_[event];
+	}
+
+	/**
+	 * @param event index of the event, less than {@link #getEventCount()}
+	 * @return the zone entered by the event
+	 */
+	public int getEventZone(int event) {
+		return eventZones_[event];
+	}
+
+	/**
+	 * @return the number of events which did not fit in the event buffer
+	 */
+	public long getLostEventCount() {
+		return lostEvents_;
+	}
+}
@@ -0,0 +1,180 @@
+package com.botiful.sdk.robot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies, with logarithmic buckets.<br />
+ * Each power of two is split into {@link #SUB_BUCKETS} buckets, so a recorded value is known within 1/8 (12.5%)
+ * whatever its magnitude, from nanoseconds to minutes, with a few hundred counters allocated once.<br />
+ * {@link #record(long)} neither allocates nor locks, and can be called from several threads.
+ * Percentiles are read through a {@link Snapshot}, from any thread.
+ */
+public class LatencyHistogram {
+	/** log2 of the number of buckets per power of two */
+	private static final int SUB_BUCKET_BITS = 3;
+	/** number of buckets per power of two */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** enough buckets for any positive long */
+	private static final int BUCKET_COUNT = bucketIndex(Long.MAX_VALUE)+1;
+
+	private final AtomicLongArray counts_;
+	private final AtomicLong count_;
+	private final AtomicLong totalNanos_;
+	private final AtomicLong maxNanos_;
+
+	/**
+	 * Build an empty histogram
+	 */
+	public LatencyHistogram() {
+		counts_ = new AtomicLongArray(BUCKET_COUNT);
+		count_ = new AtomicLong();
+		totalNanos_ = new AtomicLong();
+		maxNanos_ = new AtomicLong();
+	}
+
+	/**
+	 * Index of the bucket of a value: the exponent selects a power of two, the SUB_BUCKET_BITS bits following
+	 * the leading one select the bucket within it. Values below 2*SUB_BUCKETS have a bucket each.
+	 */
+	private static int bucketIndex(long value) {
+		int exponent = Math.max(0, 63-Long.numberOfLeadingZeros(value)-SUB_BUCKET_BITS);
+		return (exponent << SUB_BUCKET_BITS)+(int) (value >>> exponent);
+	}
+
+	/**
+	 * @return the largest value of a bucket
+	 */
+	private static long bucketUpperBound(int index) {
+		int exponent = Math.max(0, (index >> SUB_BUCKET_BITS)-1);
+		long mantissa = index-(exponent << SUB_BUCKET_BITS);
+		return ((mantissa+1) << exponent)-1;
+	}
+
+	/**
+	 * Record a latency
+	 * @param latencyNanos latency in ns, negative values are counted as 0
+	 */
+	public void record(long latencyNanos) {
+		latencyNanos = Math.max(0, latencyNanos);
+		counts_.incrementAndGet(bucketIndex(latencyNanos));
+		count_.incrementAndGet();
+		totalNanos_.addAndGet(latencyNanos);
+		long max;
+		while (latencyNanos > (max = maxNanos_.get()) && !maxNanos_.compareAndSet(max, latencyNanos)) {
+			// another thread recorded a value meanwhile, retry
+		}
+	}
+
+	/**
+	 * Forget all the values. Values recorded during the reset may be partially kept.
+	 */
+	public void reset() {
+		for (int i=0; i<BUCKET_COUNT; i++) {
+			counts_.set(i, 0);
+		}
+		count_.set(0);
+		totalNanos_.set(0);
+		maxNanos_.set(0);
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count_.get();
+	}
+
+	/**
+	 * @return a copy of the histogram, to compute percentiles
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * The values of a histogram at one point in time
+	 */
+	public static final class Snapshot {
+		private final long[] counts_;
+		private final long count_;
+		private final long totalNanos_;
+		private final long maxNanos_;
+
+		private Snapshot(LatencyHistogram histogram) {
+			counts_ = new long[BUCKET_COUNT];
+			long count = 0;
+			for (int i=0; i<BUCKET_COUNT; i++) {
+				counts_[i] = histogram.counts_.get(i);
+				count += counts_[i];
+			}
+			// consistent with the buckets, even if values are recorded meanwhile
+			count_ = count;
+			totalNanos_ = histogram.totalNanos_.get();
+			maxNanos_ = histogram.maxNanos_.get();
+		}
+
+		/**
+		 * @param percentile between 0 and 100, e.g. 99.9
+		 * @return the value below which this percentage of the values falls, in ns (upper bound of its bucket,
+		 * at most the max), 0 if the histogram is empty
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count_ == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile))/100*count_);
+			rank = Math.max(1, rank);
+			long seen = 0;
+			for (int i=0; i<BUCKET_COUNT; i++) {
+				seen += counts_[i];
+				if (seen >= rank) {
+					return Math.min(bucketUpperBound(i), maxNanos_);
+				}
+			}
+			return maxNanos_;
+		}
+
+		/**
+		 * @return the median latency in ns
+		 */
+		public long getMedianNanos() {
+			return getValueAtPercentile(50);
+		}
+
+		/**
+		 * @return the 99th percentile of the latency in ns
+		 */
+		public long get99thPercentileNanos() {
+			return getValueAtPercentile(99);
+		}
+
+		/**
+		 * @return the 99.9th percentile of the latency in ns
+		 */
+		public long get999thPercentileNanos() {
+			return getValueAtPercentile(99.9);
+		}
+
+		/**
+		 * @return the largest latency in ns
+		 */
+		public long getMaxNanos() {
+			return maxNanos_;
+		}
+
+		/**
+		 * @return the mean latency in ns, 0 if the histogram is empty
+		 */
+		public long getMeanNanos() {
+			return (count_ == 0)?0:totalNanos_/count_;
+		}
+
+		/**
+		 * @return the number of values in the snapshot
+		 */
+		public long getCount() {
+			return count_;
+		}
+	}
+}
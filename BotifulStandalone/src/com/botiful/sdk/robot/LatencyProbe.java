@@ -0,0 +1,119 @@
+package com.botiful.sdk.robot;
+
+/**
+ * Measures the latency of the commands of one actuator, from the user input to the write to the IOIO.<br />
+ * A command goes through three dates:
+ * <ul><li>created: e.g. the touch event, see {@link #commandCreated()} (the enqueue date if not called)
+ * <li>enqueued: posted to a {@link CommandMailbox} or an {@link ExpiringCommand} watched by this probe
+ * <li>written: the looper has taken the command and sent its writes (see {@link EventDrivenLooper#addProbe})</ul>
+ * Each step, and the whole path, is recorded in a {@link LatencyHistogram}. Only the latest command is tracked:
+ * a command replaced before being taken is not measured, like it is not applied.<br />
+ * The writes are measured when they are handed to the IOIO library: the transport to the board (Bluetooth or
+ * accessory) comes on top of it.
+ */
+public class LatencyProbe {
+	private final String name_;
+	private final LatencyHistogram enqueueLatency_;
+	private final LatencyHistogram dispatchLatency_;
+	private final LatencyHistogram totalLatency_;
+	// dates of the command in flight, 0 if none
+	private volatile long createdNanos_;
+	private volatile long enqueuedNanos_;
+	// only used by the looper thread
+	private long takenCreatedNanos_;
+	private long takenEnqueuedNanos_;
+
+	/**
+	 * Build the probe
+	 * @param name name of the actuator, e.g. "head"
+	 */
+	public LatencyProbe(String name) {
+		name_ = name;
+		enqueueLatency_ = new LatencyHistogram();
+		dispatchLatency_ = new LatencyHistogram();
+		totalLatency_ = new LatencyHistogram();
+	}
+
+	/**
+	 * Stamp the creation of a command, before it is posted. Called by the thread creating the commands.
+	 */
+	public void commandCreated() {
+		createdNanos_ = Clock.now();
+	}
+
+	/**
+	 * Stamp the enqueue of a command. Called by the mailboxes watched by this probe.
+	 */
+	void commandEnqueued() {
+		long now = Clock.now();
+		if (createdNanos_ == 0) {
+			createdNanos_ = now;
+		}
+		enqueuedNanos_ = now;
+	}
+
+	/**
+	 * Called by the mailboxes when the looper takes the latest command
+	 */
+	void commandTaken() {
+		long enqueued = enqueuedNanos_;
+		if (enqueued == 0) {
+			return;
+		}
+		takenCreatedNanos_ = createdNanos_;
+		takenEnqueuedNanos_ = enqueued;
+		createdNanos_ = 0;
+		enqueuedNanos_ = 0;
+	}
+
+	/**
+	 * Called by the looper once the writes are sent
+	 */
+	void commandWritten(long nowNanos) {
+		if (takenEnqueuedNanos_ == 0) {
+			return;
+		}
+		enqueueLatency_.record(takenEnqueuedNanos_-takenCreatedNanos_);
+		dispatchLatency_.record(nowNanos-takenEnqueuedNanos_);
+		totalLatency_.record(nowNanos-takenCreatedNanos_);
+		takenCreatedNanos_ = 0;
+		takenEnqueuedNanos_ = 0;
+	}
+
+	/**
+	 * @return the name of the actuator
+	 */
+	public String getName() {
+		return name_;
+	}
+
+	/**
+	 * @return the time between the creation and the enqueue of the commands
+	 */
+	public LatencyHistogram getEnqueueLatency() {
+		return enqueueLatency_;
+	}
+
+	/**
+	 * @return the time between the enqueue and the write of the commands, i.e. the reaction time of the looper
+	 */
+	public LatencyHistogram getDispatchLatency() {
+		return dispatchLatency_;
+	}
+
+	/**
+	 * @return the time between the creation of the commands and their write
+	 */
+	public LatencyHistogram getTotalLatency() {
+		return totalLatency_;
+	}
+
+	/**
+	 * Forget all the recorded latencies
+	 */
+	public void reset() {
+		enqueueLatency_.reset();
+		dispatchLatency_.reset();
+		totalLatency_.reset();
+	}
+}
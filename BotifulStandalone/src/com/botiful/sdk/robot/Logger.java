@@ -0,0 +1,52 @@
+package com.botiful.sdk.robot;
+
+/**
+ * Where the SDK reports the errors of its threads (e.g. a connection lost by a reader thread).<br />
+ * It writes to System.err by default, so that the SDK runs on any JVM. On Android, install
+ * com.botiful.sdk.helpers.AndroidLogger with {@link #set(Logger)} to get the messages in the log.
+ */
+public abstract class Logger {
+	/** writes to System.err */
+	public static final Logger STDERR = new Logger() {
+		@Override
+		public void warn(String tag, Throwable throwable) {
+			System.err.println("W/"+tag+": "+throwable);
+		}
+		
+		@Override
+		public void error(String tag, String message) {
+			System.err.println("E/"+tag+": "+message);
+		}
+	};
+	
+	private static volatile Logger current_ = STDERR;
+	
+	/**
+	 * @return the current logger of the SDK
+	 */
+	public static Logger get() {
+		return current_;
+	}
+	
+	/**
+	 * Replace the logger of the SDK
+	 * @param logger the new logger, null for {@link #STDERR}
+	 */
+	public static void set(Logger logger) {
+		current_ = (logger==null)?STDERR:logger;
+	}
+	
+	/**
+	 * Report an unexpected exception the SDK recovers from
+	 * @param tag origin of the message, e.g. a class name
+	 * @param throwable the exception
+	 */
+	public abstract void warn(String tag, Throwable throwable);
+	
+	/**
+	 * Report an error which stops a part of the SDK
+	 * @param tag origin of the message, e.g. a class name
+	 * @param message the error
+	 */
+	public abstract void error(String tag, String message);
+}
@@ -0,0 +1,250 @@
+package com.botiful.sdk.robot;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named counters and gauges of the SDK, e.g. the writes of a motor or the samples read on an analog pin.<br />
+ * The robotic elements register their metrics into the default registry (see {@link #getDefault()}), under names
+ * like "PwmMotor.pin40.writes" which stay the same across reconnections: the counters keep counting when the
+ * elements are built again.<br />
+ * Counters are striped: each thread increments one of a few padded slots, picked from its id, without lock nor
+ * allocation, so they can be used on the 1 kHz paths. Threads whose ids share the low bits share a slot: their
+ * increments stay atomic, only slower. Gauges are read when a snapshot is taken.<br />
+ * Snapshots can be exported as text, or as a compact binary dump (see {@link Snapshot#writeBinary(OutputStream)}).
+ */
+public class MetricsRegistry {
+	/** magic number of the binary dumps, "BTFM" */
+	public static final int BINARY_MAGIC = 0x4254464D;
+	/** version of the binary dumps */
+	public static final int BINARY_VERSION = 1;
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	/**
+	 * A counter, incremented from any thread, in the slot given by the low bits of the thread id
+	 */
+	public static final class Counter {
+		/** number of slots, a power of two */
+		private static final int STRIPES = 8;
+		/** distance between two slots, in longs: one cache line */
+		private static final int PADDING = 8;
+
+		private final AtomicLongArray slots_ = new AtomicLongArray(STRIPES*PADDING);
+
+		private Counter() {
+		}
+
+		/**
+		 * Add one to the counter
+		 */
+		public void increment() {
+			slots_.incrementAndGet(slot());
+		}
+
+		/**
+		 * Add a value to the counter
+		 * @param delta value to add
+		 */
+		public void add(long delta) {
+			slots_.addAndGet(slot(), delta);
+		}
+
+		private static int slot() {
+			return ((int) Thread.currentThread().getId() & (STRIPES-1))*PADDING;
+		}
+
+		/**
+		 * @return the value of the counter (the sum of the slots, approximate while threads increment it)
+		 */
+		public long get() {
+			long sum = 0;
+			for (int i=0; i<STRIPES; i++) {
+				sum += slots_.get(i*PADDING);
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * A value read when a snapshot is taken, e.g. a queue depth
+	 */
+	public interface Gauge {
+		/**
+		 * Called from the thread taking the snapshot
+		 * @return the current value
+		 */
+		public long getValue();
+	}
+
+	// guarded by this
+	private final Map<String, Counter> counters_ = new HashMap<String, Counter>();
+	private final Map<String, Gauge> gauges_ = new HashMap<String, Gauge>();
+
+	/**
+	 * @return the registry used by the robotic elements
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Get a counter, created on the first call. Keep it: the lookup is not meant for the fast paths.
+	 * @param name name of the counter
+	 * @return the counter with this name
+	 */
+	public synchronized Counter counter(String name) {
+		Counter counter = counters_.get(name);
+		if (counter == null) {
+			counter = new Counter();
+			counters_.put(name, counter);
+		}
+		return counter;
+	}
+
+	/**
+	 * Register a gauge, replacing the one with the same name (e.g. registered before a reconnection)
+	 * @param name name of the gauge
+	 * @param gauge the gauge, null to remove it
+	 */
+	public synchronized void gauge(String name, Gauge gauge) {
+		if (gauge == null) {
+			gauges_.remove(name);
+		} else {
+			gauges_.put(name, gauge);
+		}
+	}
+
+	/**
+	 * Remove a gauge, if it is still the one registered under this name (i.e. it was not replaced since)
+	 * @param name name of the gauge
+	 * @param gauge the gauge to remove
+	 */
+	public synchronized void removeGauge(String name, Gauge gauge) {
+		if (gauges_.get(name) == gauge) {
+			gauges_.remove(name);
+		}
+	}
+
+	/**
+	 * @return the values of all the counters and gauges, sorted by name
+	 */
+	public synchronized Snapshot snapshot() {
+		int size = counters_.size()+gauges_.size();
+		String[] names = new String[size];
+		int n = 0;
+		for (String name : counters_.keySet()) {
+			names[n++] = name;
+		}
+		for (String name : gauges_.keySet()) {
+			names[n++] = name;
+		}
+		Arrays.sort(names);
+		long[] values = new long[size];
+		for (int i=0; i<size; i++) {
+			Counter counter = counters_.get(names[i]);
+			values[i] = (counter!=null)?counter.get():gauges_.get(names[i]).getValue();
+		}
+		return new Snapshot(System.currentTimeMillis(), names, values);
+	}
+
+	/**
+	 * The values of the metrics at one point in time
+	 */
+	public static final class Snapshot {
+		private final long timeMillis_;
+		private final String[] names_;
+		private final long[] values_;
+
+		private Snapshot(long timeMillis, String[] names, long[] values) {
+			timeMillis_ = timeMillis;
+			names_ = names;
+			values_ = values;
+		}
+
+		/**
+		 * @return the date of the snapshot (System.currentTimeMillis())
+		 */
+		public long getTimeMillis() {
+			return timeMillis_;
+		}
+
+		/**
+		 * @return the number of metrics
+		 */
+		public int size() {
+			return names_.length;
+		}
+
+		/**
+		 * @param index index of the metric, in name order
+		 * @return its name
+		 */
+		public String getName(int index) {
+			return names_[index];
+		}
+
+		/**
+		 * @param index index of the metric, in name order
+		 * @return its value
+		 */
+		public long getValue(int index) {
+			return values_[index];
+		}
+
+		/**
+		 * @param name name of the metric
+		 * @param defaultValue value returned if there is no such metric
+		 * @return the value of the metric
+		 */
+		public long getValue(String name, long defaultValue) {
+			int index = Arrays.binarySearch(names_, name);
+			return (index < 0)?defaultValue:values_[index];
+		}
+
+		/**
+		 * @return one "name value" line per metric
+		 */
+		public String toText() {
+			StringBuilder text = new StringBuilder();
+			for (int i=0; i<names_.length; i++) {
+				text.append(names_[i]).append(' ').append(values_[i]).append('\n');
+			}
+			return text.toString();
+		}
+
+		/**
+		 * Write the snapshot in a compact binary form (big endian):<br />
+		 * int magic, byte version, long date (ms), varint number of metrics, then for each metric its name
+		 * (modified UTF-8, as DataOutput.writeUTF) and its value as a zigzag varint (1 byte up to 63).
+		 * @param out destination, not closed
+		 * @throws IOException if the stream cannot be written
+		 */
+		public void writeBinary(OutputStream out) throws IOException {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(BINARY_MAGIC);
+			data.writeByte(BINARY_VERSION);
+			data.writeLong(timeMillis_);
+			writeVarLong(data, names_.length);
+			for (int i=0; i<names_.length; i++) {
+				data.writeUTF(names_[i]);
+				writeVarLong(data, (values_[i] << 1)^(values_[i] >> 63));
+			}
+			data.flush();
+		}
+
+		/** 7 bits per byte, least significant first, high bit set on all the bytes but the last */
+		private static void writeVarLong(DataOutputStream data, long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				data.writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			data.writeByte((int) value);
+		}
+	}
+}
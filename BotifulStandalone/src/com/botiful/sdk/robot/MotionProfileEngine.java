@@ -0,0 +1,223 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.IOIO;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays {@link ProfiledMove}s on a dedicated control thread, at a fixed tick rate.<br />
+ * At each tick, the setpoints of all the moves in progress are applied one after the other, so that all the
+ * motors involved are updated in the same tick. Moves started together by {@link #run(ProfiledMove...)} start
+ * on the same tick. Ticks are scheduled on absolute dates: a late tick does not delay the next ones.<br />
+ * Setpoints are precomputed by the profiles: a tick neither allocates nor computes more than the position
+ * feedback. With an {@link OutputBatcher}, the writes of a tick are sent in a single batch.
+ */
+public class MotionProfileEngine extends AbstractRoboticElement {
+	/** Default period of the control ticks */
+	public static final int DEFAULT_TICK_MILLIS = 10;
+	
+	private final long tickNanos_;
+	/** moves in progress. Never modified: replaced by a new copy on changes */
+	private volatile ProfiledMove[] moves_;
+	private final Object movesLock_ = new Object();
+	/** control variable for the thread */
+	private volatile boolean running_;
+	private Thread controlThread_;
+	/** flushed at the end of each tick, or null */
+	private volatile OutputBatcher batcher_;
+	
+	/**
+	 * Build the engine, with the default tick period
+	 * @param ioio handle to the ioio interface
+	 */
+	public MotionProfileEngine(IOIO ioio) {
+		this(ioio, DEFAULT_TICK_MILLIS);
+	}
+	
+	/**
+	 * Build the engine
+	 * @param ioio handle to the ioio interface
+	 * @param tickMillis period of the control ticks, the profiles should be built with the same one
+	 */
+	public MotionProfileEngine(IOIO ioio, int tickMillis) {
+		super(ioio);
+		tickNanos_ = Math.max(1, tickMillis)*1000000L;
+		moves_ = new ProfiledMove[0];
+		running_ = false;
+	}
+	
+	/**
+	 * Flush a batcher at the end of each tick, so that all the motors are updated in a single batch.
+	 * @param batcher the batcher of the motors, null to stop flushing
+	 */
+	public void setOutputBatcher(OutputBatcher batcher) {
+		batcher_ = batcher;
+	}
+	
+	/**
+	 * @return the period of the control ticks in ms
+	 */
+	public int getTickMillis() {
+		return (int) (tickNanos_/1000000L);
+	}
+	
+	/**
+	 * Start moves, together, at the next tick. A move on a motor which is already moving replaces the
+	 * move in progress. Can be called from any thread.
+	 * @param moves moves to start
+	 */
+	public void run(ProfiledMove... moves) {
+		synchronized (movesLock_) {
+			ProfiledMove[] current = moves_;
+			int kept = 0;
+			ProfiledMove[] next = new ProfiledMove[current.length+moves.length];
+			for (int i=0; i<current.length; i++) {
+				if (findMove(moves, current[i].getMotor()) == null) {
+					next[kept++] = current[i];
+				} else {
+					// the new move takes the motor over, without stopping it
+					current[i].abandon();
+				}
+			}
+			System.arraycopy(moves, 0, next, kept, moves.length);
+			moves_ = trim(next, kept+moves.length);
+		}
+	}
+	
+	/**
+	 * Cancel the move of a motor, if any: the motor is stopped at the next tick.
+	 * @param motor motor to stop
+	 */
+	public void cancel(PwmMotor motor) {
+		ProfiledMove move = findMove(moves_, motor);
+		if (move != null) {
+			move.cancel();
+		}
+	}
+	
+	/**
+	 * @param motor a motor
+	 * @return true if a move of this motor is in progress
+	 */
+	public boolean isMoving(PwmMotor motor) {
+		return findMove(moves_, motor) != null;
+	}
+	
+	private static ProfiledMove findMove(ProfiledMove[] moves, PwmMotor motor) {
+		for (int i=0; i<moves.length; i++) {
+			if (moves[i].getMotor() == motor) {
+				return moves[i];
+			}
+		}
+		return null;
+	}
+	
+	private static ProfiledMove[] trim(ProfiledMove[] moves, int length) {
+		if (moves.length == length) {
+			return moves;
+		}
+		ProfiledMove[] trimmed = new ProfiledMove[length];
+		System.arraycopy(moves, 0, trimmed, 0, length);
+		return trimmed;
+	}
+	
+	/**
+	 * Start the control thread. Has no effect if it is already running.
+	 */
+	public synchronized void start() {
+		if (controlThread_ != null) {
+			return;
+		}
+		running_ = true;
+		controlThread_ = new Thread() {
+			@Override
+			public void run() {
+				long nextTickNanos = Clock.now();
+				while (running_) {
+					try {
+						tick();
+					} catch (ConnectionLostException e) {
+						// connection to bot lost -- cancel this thread
+						running_ = false;
+						Logger.get().error(this.getClass().getName(),e.getMessage());
+						break;
+					}
+					nextTickNanos += tickNanos_;
+					long delayNanos = nextTickNanos-Clock.now();
+					if (delayNanos < -tickNanos_) {
+						// more than a tick late: skip the missed ticks rather than catching up
+						nextTickNanos = Clock.now();
+					}
+					while (running_ && (delayNanos = nextTickNanos-Clock.now()) > 0) {
+						Clock.get().parkNanos(delayNanos);
+					}
+				}
+			}
+		};
+		controlThread_.setPriority(8);
+		controlThread_.start();
+	}
+	
+	/**
+	 * Stop the control thread and wait for it to quit. The moves in progress are cancelled,
+	 * their motors are not stopped.
+	 */
+	public synchronized void stop() {
+		running_ = false;
+		synchronized (movesLock_) {
+			moves_ = new ProfiledMove[0];
+		}
+		if (controlThread_ == null) {
+			return;
+		}
+		LockSupport.unpark(controlThread_);
+		try {
+			controlThread_.join();
+		} catch (InterruptedException e) {
+			// void
+		}
+		controlThread_ = null;
+	}
+	
+	/**
+	 * @return true while the control thread runs
+	 */
+	public boolean isRunning() {
+		return running_;
+	}
+	
+	/**
+	 * Applies the setpoints of all the moves in progress, and removes the finished ones
+	 */
+	private void tick() throws ConnectionLostException {
+		ProfiledMove[] moves = moves_;
+		boolean finished = false;
+		for (int i=0; i<moves.length; i++) {
+			if (!moves[i].step()) {
+				finished = true;
+			}
+		}
+		OutputBatcher batcher = batcher_;
+		if (batcher != null) {
+			batcher.flush();
+		}
+		if (finished) {
+			removeFinishedMoves();
+		}
+	}
+	
+	private void removeFinishedMoves() {
+		synchronized (movesLock_) {
+			ProfiledMove[] current = moves_;
+			ProfiledMove[] next = new ProfiledMove[current.length];
+			int kept = 0;
+			for (int i=0; i<current.length; i++) {
+				if (!current[i].isFinished()) {
+					next[kept++] = current[i];
+				}
+			}
+			moves_ = trim(next, kept);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * Binds a threshold of an analog signal to a motor action, e.g. an end-stop of the head.<br />
+ * Interlocks are evaluated by the reader thread as soon as the samples are read (see
+ * {@link AnalogValueReader#addInterlock}): the motor command is written in the same iteration that detects
+ * the edge, without going through the observers or the UI thread.<br />
+ * The time between the detection and the completion of the motor write is measured, see {@link #getLastLatencyNanos()}.
+ */
+public class MotorInterlock implements AnalogInterlock {
+	/**
+	 * What to do with the motor when the threshold is crossed
+	 */
+	public enum Action {
+		/** stop the motor, further commands are applied normally */
+		STOP,
+		/** stop the motor if it runs in the positive direction, and refuse positive speeds until released */
+		BLOCK_POSITIVE,
+		/** stop the motor if it runs in the reverse direction, and refuse negative speeds until released */
+		BLOCK_REVERSE
+	}
+
+	private final PwmMotor motor_;
+	private final Action action_;
+	/** detects the crossing of the threshold (engage) and the way back (release) */
+	private final HysteresisComparator comparator_;
+	/** event engaging the interlock */
+	private final int engageEvent_;
+	private volatile boolean engaged_;
+	// statistics, only written by the reader thread
+	private volatile long triggerCount_;
+	private volatile long lastLatencyNanos_;
+	private volatile long maxLatencyNanos_;
+	private final LatencyHistogram latencyHistogram_;
+
+	/**
+	 * Build the interlock, with the default hysteresis
+	 * @param motor motor to act on
+	 * @param threshold threshold of the analog value
+	 * @param triggerAbove true to engage when the value goes above the threshold, false when it goes below
+	 * @param action what to do when engaged
+	 */
+	public MotorInterlock(PwmMotor motor, float threshold, boolean triggerAbove, Action action) {
+		this(motor, threshold, triggerAbove, action, AnalogChannel.HYSTERESIS_PROTECTION_RANGE);
+	}
+
+	/**
+	 * Build the interlock
+	 * @param motor motor to act on
+	 * @param threshold threshold of the analog value
+	 * @param triggerAbove true to engage when the value goes above the threshold, false when it goes below
+	 * @param action what to do when engaged
+	 * @param hysteresisRange distance the value must go back past the threshold to release the interlock
+	 */
+	public MotorInterlock(PwmMotor motor, float threshold, boolean triggerAbove, Action action, float hysteresisRange) {
+		motor_ = motor;
+		action_ = action;
+		hysteresisRange = Math.abs(hysteresisRange);
+		if (triggerAbove) {
+			comparator_ = new HysteresisComparator(threshold-hysteresisRange, threshold, false);
+			engageEvent_ = HysteresisComparator.EVENT_RISING_EDGE;
+		} else {
+			comparator_ = new HysteresisComparator(threshold, threshold+hysteresisRange, true);
+			engageEvent_ = HysteresisComparator.EVENT_FALLING_EDGE;
+		}
+		engaged_ = false;
+		triggerCount_ = 0;
+		lastLatencyNanos_ = 0;
+		maxLatencyNanos_ = 0;
+		latencyHistogram_ = new LatencyHistogram();
+	}
+
+	@Override
+	public void inputNewValues(float[] values, int count, long detectionTimeNanos, long samplePeriodNanos)
+			throws ConnectionLostException {
+		for (int i=0; i<count; i++) {
+			int event = comparator_.inputNewValue(values[i]);
+			if (event == HysteresisComparator.EVENT_NONE) {
+				continue;
+			}
+			if (event == engageEvent_) {
+				engage();
+				long latency = Clock.now()-detectionTimeNanos;
+				lastLatencyNanos_ = latency;
+				if (latency > maxLatencyNanos_) {
+					maxLatencyNanos_ = latency;
+				}
+				latencyHistogram_.record(latency);
+				triggerCount_++;
+			} else {
+				release();
+			}
+		}
+	}
+
+	private void engage() throws ConnectionLostException {
+		engaged_ = true;
+		switch (action_) {
+		case STOP:
+			motor_.stop();
+			break;
+		case BLOCK_POSITIVE:
+			motor_.blockPositiveDirection();
+			break;
+		case BLOCK_REVERSE:
+			motor_.blockReverseDirection();
+			break;
+		}
+	}
+
+	/**
+	 * Releases the direction blocked by this interlock, if any. Also called when the interlock is removed.
+	 */
+	@Override
+	public void release() {
+		engaged_ = false;
+		switch (action_) {
+		case BLOCK_POSITIVE:
+			motor_.unblockPositiveDirection();
+			break;
+		case BLOCK_REVERSE:
+			motor_.unblockReverseDirection();
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return true if the threshold is crossed (and the value has not come back yet)
+	 */
+	public boolean isEngaged() {
+		return engaged_;
+	}
+
+	/**
+	 * @return the number of times the interlock was engaged
+	 */
+	public long getTriggerCount() {
+		return triggerCount_;
+	}
+
+	/**
+	 * @return the time between the read of the samples and the end of the motor write, at the last trigger, in ns
+	 */
+	public long getLastLatencyNanos() {
+		return lastLatencyNanos_;
+	}
+
+	/**
+	 * @return the largest time between the read of the samples and the end of the motor write, in ns
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos_;
+	}
+
+	/**
+	 * @return the distribution of the time between the read of the samples and the end of the motor write
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return latencyHistogram_;
+	}
+}
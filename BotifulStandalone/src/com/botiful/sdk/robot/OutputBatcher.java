@@ -0,0 +1,297 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.PwmOutput;
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * Collects the writes to PWM and digital outputs during a control tick, and sends them together.<br />
+ * Outputs wrapped by the batcher (see {@link #wrap(PwmOutput)}, {@link PwmMotor#setOutputBatcher} and
+ * {@link Switch#setOutputBatcher}) only record the last value written. {@link #flush()} then sends, inside a
+ * single IOIO.beginBatch()/endBatch() pair, the values which differ from the ones already sent: a full robot
+ * update goes out in a few Bluetooth packets instead of one message per write.<br />
+ * Outputs are wrapped once, at setup: recording and flushing do not allocate.
+ */
+public class OutputBatcher extends AbstractRoboticElement {
+	// kinds of PWM writes
+	private static final int PWM_NONE = 0;
+	private static final int PWM_PULSE_WIDTH = 1;
+	private static final int PWM_DUTY_CYCLE = 2;
+	
+	// PWM outputs, with their pending and sent values. Guarded by this
+	private PwmOutput[] pwmOutputs_ = new PwmOutput[0];
+	private float[] pendingPwmValues_ = new float[0];
+	private int[] pendingPwmKinds_ = new int[0];
+	// sent values, only used while flushing
+	private float[] sentPwmValues_ = new float[0];
+	private int[] sentPwmKinds_ = new int[0];
+	// digital outputs
+	private DigitalOutput[] digitalOutputs_ = new DigitalOutput[0];
+	private boolean[] pendingLevels_ = new boolean[0];
+	private boolean[] hasPendingLevels_ = new boolean[0];
+	private boolean[] sentLevels_ = new boolean[0];
+	private boolean[] hasSentLevels_ = new boolean[0];
+	// snapshot of the pending values, taken at the beginning of a flush
+	private float[] flushPwmValues_ = new float[0];
+	private int[] flushPwmKinds_ = new int[0];
+	private boolean[] flushLevels_ = new boolean[0];
+	private boolean[] flushHasLevels_ = new boolean[0];
+	/** only one flush at a time. Always taken before this, never while holding it */
+	private final Object flushLock_ = new Object();
+	// statistics
+	private volatile long recordCount_;
+	private volatile long flushCount_;
+	private volatile long writeCount_;
+	/** the same statistics in the default {@link MetricsRegistry}, cumulated over the connections */
+	private final MetricsRegistry.Counter flushCounter_ = counter("OutputBatcher.flushes");
+	private final MetricsRegistry.Counter writeCounter_ = counter("OutputBatcher.writes");
+	private final MetricsRegistry.Counter connectionLostCounter_ = counter("OutputBatcher.connectionLost");
+	
+	/**
+	 * Build the batcher
+	 * @param ioio handle to the ioio interface
+	 */
+	public OutputBatcher(IOIO ioio) {
+		super(ioio);
+	}
+	
+	/**
+	 * Wrap a PWM output: the values written to the returned output are sent at the next flush.
+	 * @param output output to wrap
+	 * @return the batched output
+	 */
+	public PwmOutput wrap(PwmOutput output) {
+		synchronized (flushLock_) {
+			synchronized (this) {
+				int index = pwmOutputs_.length;
+				int length = index+1;
+				pwmOutputs_ = copyOf(pwmOutputs_, length);
+				pwmOutputs_[index] = output;
+				pendingPwmValues_ = copyOf(pendingPwmValues_, length);
+				pendingPwmKinds_ = copyOf(pendingPwmKinds_, length);
+				sentPwmValues_ = copyOf(sentPwmValues_, length);
+				sentPwmKinds_ = copyOf(sentPwmKinds_, length);
+				flushPwmValues_ = new float[length];
+				flushPwmKinds_ = new int[length];
+				return new BatchedPwmOutput(index);
+			}
+		}
+	}
+	
+	/**
+	 * Wrap a digital output: the levels written to the returned output are sent at the next flush.
+	 * @param output output to wrap
+	 * @return the batched output
+	 */
+	public DigitalOutput wrap(DigitalOutput output) {
+		synchronized (flushLock_) {
+			synchronized (this) {
+				int index = digitalOutputs_.length;
+				int length = index+1;
+				DigitalOutput[] outputs = new DigitalOutput[length];
+				System.arraycopy(digitalOutputs_, 0, outputs, 0, index);
+				outputs[index] = output;
+				digitalOutputs_ = outputs;
+				pendingLevels_ = copyOf(pendingLevels_, length);
+				hasPendingLevels_ = copyOf(hasPendingLevels_, length);
+				sentLevels_ = copyOf(sentLevels_, length);
+				hasSentLevels_ = copyOf(hasSentLevels_, length);
+				flushLevels_ = new boolean[length];
+				flushHasLevels_ = new boolean[length];
+				return new BatchedDigitalOutput(index);
+			}
+		}
+	}
+	
+	private synchronized void recordPwm(int index, int kind, float value) {
+		pendingPwmKinds_[index] = kind;
+		pendingPwmValues_[index] = value;
+		recordCount_++;
+	}
+	
+	private synchronized void recordLevel(int index, boolean level) {
+		pendingLevels_[index] = level;
+		hasPendingLevels_[index] = true;
+		recordCount_++;
+	}
+	
+	/**
+	 * Sends the values written since the last flush, if they differ from the values already sent,
+	 * in a single batch. Can be called from any thread.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public void flush() throws ConnectionLostException {
+		synchronized (flushLock_) {
+			PwmOutput[] pwmOutputs;
+			DigitalOutput[] digitalOutputs;
+			int pwmCount, digitalCount;
+			synchronized (this) {
+				pwmOutputs = pwmOutputs_;
+				digitalOutputs = digitalOutputs_;
+				pwmCount = pwmOutputs_.length;
+				System.arraycopy(pendingPwmValues_, 0, flushPwmValues_, 0, pwmCount);
+				System.arraycopy(pendingPwmKinds_, 0, flushPwmKinds_, 0, pwmCount);
+				digitalCount = digitalOutputs_.length;
+				System.arraycopy(pendingLevels_, 0, flushLevels_, 0, digitalCount);
+				System.arraycopy(hasPendingLevels_, 0, flushHasLevels_, 0, digitalCount);
+			}
+			// only start a batch if there is something to send
+			int writes = 0;
+			for (int i=0; i<pwmCount; i++) {
+				if (isPwmChanged(i)) {
+					writes++;
+				}
+			}
+			for (int i=0; i<digitalCount; i++) {
+				if (isLevelChanged(i)) {
+					writes++;
+				}
+			}
+			if (writes == 0) {
+				return;
+			}
+			IOIO_.beginBatch();
+			try {
+				for (int i=0; i<pwmCount; i++) {
+					if (isPwmChanged(i)) {
+						if (flushPwmKinds_[i] == PWM_DUTY_CYCLE) {
+							pwmOutputs[i].setDutyCycle(flushPwmValues_[i]);
+						} else {
+							pwmOutputs[i].setPulseWidth(flushPwmValues_[i]);
+						}
+						sentPwmKinds_[i] = flushPwmKinds_[i];
+						sentPwmValues_[i] = flushPwmValues_[i];
+					}
+				}
+				for (int i=0; i<digitalCount; i++) {
+					if (isLevelChanged(i)) {
+						digitalOutputs[i].write(flushLevels_[i]);
+						sentLevels_[i] = flushLevels_[i];
+						hasSentLevels_[i] = true;
+					}
+				}
+			} catch (ConnectionLostException e) {
+				connectionLostCounter_.increment();
+				throw e;
+			} finally {
+				IOIO_.endBatch();
+			}
+			flushCount_++;
+			writeCount_ += writes;
+			flushCounter_.increment();
+			writeCounter_.add(writes);
+		}
+	}
+	
+	private boolean isPwmChanged(int index) {
+		return flushPwmKinds_[index] != PWM_NONE
+				&& (flushPwmKinds_[index] != sentPwmKinds_[index] || flushPwmValues_[index] != sentPwmValues_[index]);
+	}
+	
+	private boolean isLevelChanged(int index) {
+		return flushHasLevels_[index] && (!hasSentLevels_[index] || flushLevels_[index] != sentLevels_[index]);
+	}
+	
+	/**
+	 * @return the number of batches sent
+	 */
+	public long getFlushCount() {
+		return flushCount_;
+	}
+	
+	/**
+	 * @return the number of writes sent to the outputs
+	 */
+	public long getWriteCount() {
+		return writeCount_;
+	}
+	
+	/**
+	 * @return the number of writes recorded but not sent, because a later write of the same tick replaced
+	 * them or because the value was already sent
+	 */
+	public long getSuppressedWriteCount() {
+		return recordCount_-writeCount_;
+	}
+	
+	private synchronized PwmOutput getPwmOutput(int index) {
+		return pwmOutputs_[index];
+	}
+	
+	private synchronized DigitalOutput getDigitalOutput(int index) {
+		return digitalOutputs_[index];
+	}
+	
+	private static PwmOutput[] copyOf(PwmOutput[] array, int length) {
+		PwmOutput[] copy = new PwmOutput[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+	
+	private static float[] copyOf(float[] array, int length) {
+		float[] copy = new float[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+	
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+	
+	private static boolean[] copyOf(boolean[] array, int length) {
+		boolean[] copy = new boolean[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+	
+	/** A PWM output recording its writes into the batcher */
+	private class BatchedPwmOutput implements PwmOutput {
+		private final int index_;
+		
+		BatchedPwmOutput(int index) {
+			index_ = index;
+		}
+		
+		@Override
+		public void setDutyCycle(float dutyCycle) {
+			recordPwm(index_, PWM_DUTY_CYCLE, dutyCycle);
+		}
+		
+		@Override
+		public void setPulseWidth(int pulseWidthUs) {
+			recordPwm(index_, PWM_PULSE_WIDTH, pulseWidthUs);
+		}
+		
+		@Override
+		public void setPulseWidth(float pulseWidthUs) {
+			recordPwm(index_, PWM_PULSE_WIDTH, pulseWidthUs);
+		}
+		
+		@Override
+		public void close() {
+			getPwmOutput(index_).close();
+		}
+	}
+	
+	/** A digital output recording its writes into the batcher */
+	private class BatchedDigitalOutput implements DigitalOutput {
+		private final int index_;
+		
+		BatchedDigitalOutput(int index) {
+			index_ = index;
+		}
+		
+		@Override
+		public void write(boolean level) {
+			recordLevel(index_, level);
+		}
+		
+		@Override
+		public void close() {
+			getDigitalOutput(index_).close();
+		}
+	}
+}
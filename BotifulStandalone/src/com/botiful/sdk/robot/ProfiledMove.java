@@ -0,0 +1,119 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.models.MotionProfile;
+
+/**
+ * A motion profile played on a motor by a {@link MotionProfileEngine}, one setpoint per tick.<br />
+ * Speed profiles are applied as they are. Position profiles follow the sensor of the motor: the speed is
+ * velocityGain * profile velocity + positionGain * (profile position - sensor position).<br />
+ * The motor is stopped when the profile ends or when the move is cancelled.
+ */
+public class ProfiledMove {
+	private final PwmMotor motor_;
+	private final MotionProfile profile_;
+	private final AnalogValueReader sensor_;
+	private final float velocityGain_;
+	private final float positionGain_;
+	/** next tick to play, only used by the engine thread */
+	private int tick_;
+	private volatile boolean cancelled_;
+	private volatile boolean finished_;
+	
+	private ProfiledMove(PwmMotor motor, MotionProfile profile, AnalogValueReader sensor,
+			float velocityGain, float positionGain) {
+		motor_ = motor;
+		profile_ = profile;
+		sensor_ = sensor;
+		velocityGain_ = velocityGain;
+		positionGain_ = positionGain;
+		tick_ = 0;
+		cancelled_ = false;
+		finished_ = false;
+	}
+	
+	/**
+	 * Build a move playing a speed profile
+	 * @param motor motor to drive
+	 * @param profile speed profile, its tick period should match the one of the engine
+	 * @return the move
+	 */
+	public static ProfiledMove speed(PwmMotor motor, MotionProfile profile) {
+		return new ProfiledMove(motor, profile, null, 0, 0);
+	}
+	
+	/**
+	 * Build a move following a position profile
+	 * @param motor motor to drive
+	 * @param sensor position sensor of the motor, its observer must be set so that its value is updated
+	 * @param profile position profile, its tick period should match the one of the engine
+	 * @param velocityGain speed per unit of sensor velocity (per second), negative if positive speeds
+	 * make the sensor value decrease
+	 * @param positionGain speed per unit of position error, with the same sign as the velocity gain
+	 * @return the move
+	 */
+	public static ProfiledMove position(PwmMotor motor, AnalogValueReader sensor, MotionProfile profile,
+			float velocityGain, float positionGain) {
+		return new ProfiledMove(motor, profile, sensor, velocityGain, positionGain);
+	}
+	
+	/**
+	 * Applies the setpoint of the current tick. Called by the engine thread.
+	 * @return false if the move is over (the motor is then stopped, unless the move was abandoned)
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	boolean step() throws ConnectionLostException {
+		if (finished_) {
+			// abandoned: the motor now belongs to another move, leave it running
+			return false;
+		}
+		if (cancelled_ || tick_ >= profile_.getLength()) {
+			motor_.stop();
+			finished_ = true;
+			return false;
+		}
+		float speed = profile_.getValue(tick_);
+		if (sensor_ != null) {
+			speed = velocityGain_*profile_.getVelocity(tick_);
+			float position = sensor_.getLastValue();
+			if (!Float.isNaN(position)) {
+				speed += positionGain_*(profile_.getValue(tick_)-position);
+			}
+		}
+		motor_.setSpeed(ContinuousSpeed.valueOf(speed));
+		motor_.updateSpeed();
+		tick_++;
+		return true;
+	}
+	
+	/**
+	 * Cancels the move: the motor is stopped at the next tick
+	 */
+	public void cancel() {
+		cancelled_ = true;
+	}
+	
+	/**
+	 * Ends the move without stopping the motor, when another move takes it over
+	 */
+	void abandon() {
+		finished_ = true;
+	}
+	
+	/**
+	 * @return true once the move is over: the motor has been stopped, or taken over by another move
+	 */
+	public boolean isFinished() {
+		return finished_;
+	}
+	
+	public PwmMotor getMotor() {
+		return motor_;
+	}
+	
+	public MotionProfile getProfile() {
+		return profile_;
+	}
+}
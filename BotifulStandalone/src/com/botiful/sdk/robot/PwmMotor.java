@@ -4,15 +4,51 @@ import ioio.lib.api.IOIO;
 import ioio.lib.api.PwmOutput;
 import ioio.lib.api.exception.ConnectionLostException;
 
+import com.botiful.sdk.models.ContinuousSpeed;
+import com.botiful.sdk.models.PwmCalibration;
 import com.botiful.sdk.models.PwmSpeed;
 
 /**
- * Class to manage PWN-based motors
+ * Class to manage PWN-based motors<br />
+ * Speeds are converted to pulse widths by the {@link PwmCalibration} of the motor, e.g. to make both
+ * wheels turn at the same rate. Applying a speed neither allocates nor computes anything.<br />
+ * Speeds can be given as {@link PwmSpeed} or, with a finer resolution, as {@link ContinuousSpeed}. With an
+ * acceleration set (see {@link #setAcceleration(float)}), new speeds are targets: the motor steps toward them
+ * at each call to {@link #updateSpeed()}, which limits the current spikes and the wheel slip.<br />
+ * With an {@link OutputBatcher}, speeds are sent at the next flush; stops caused by blocks, limits and
+ * power cuts are flushed right away.<br />
+ * Each direction can be blocked, e.g. by a {@link MotorInterlock} when the head reaches an end-stop:
+ * speeds in a blocked direction are then applied as a stop.<br />
+ * The speed of each direction can also be limited, e.g. by an {@link EndStopLimiter}: faster speeds
+ * are applied at the limit.<br />
+ * The power can be cut altogether, e.g. by a {@link StallDetector}: all speeds are then applied as a stop.<br />
+ * Blocks and power cuts are safety stops: they drop the target speed, and the motor stays stopped once they are
+ * lifted, until it is given a new speed. Limits keep the target: the motor speeds up again once they are lifted.
  */
 public class PwmMotor extends AbstractRoboticElement {
 	private PwmOutput pwmPositiveOutput_;
 	private PwmOutput pwmReverseOutput_;
-	private PwmSpeed pwmSpeed_; 
+	/** speed applied to the motor */
+	private volatile ContinuousSpeed speed_;
+	/** speed the motor steps toward, when the acceleration is limited */
+	private ContinuousSpeed targetSpeed_;
+	/** largest change of the speed per second, in PwmSpeed units, 0 for no limit */
+	private float acceleration_;
+	/** date of the last step toward the target speed */
+	private long lastUpdateNanos_;
+	private PwmCalibration calibration_;
+	/** batcher of the outputs, or null if they are written directly */
+	private OutputBatcher batcher_;
+	private volatile boolean positiveDirectionBlocked_;
+	private volatile boolean reverseDirectionBlocked_;
+	/** largest speed allowed in each direction, in absolute value */
+	private volatile int positiveSpeedLimit_ = PwmSpeed.MAX;
+	private volatile int reverseSpeedLimit_ = PwmSpeed.MAX;
+	private volatile boolean powerCut_;
+	/** speeds written to the pins, speeds not written because already applied, connection losses */
+	private final MetricsRegistry.Counter writeCounter_;
+	private final MetricsRegistry.Counter suppressedWriteCounter_;
+	private final MetricsRegistry.Counter connectionLostCounter_;
 	
 	/**
 	 * Build the PwmMotor objects and associates it to the target PWM output pins
@@ -22,37 +58,356 @@ public class PwmMotor extends AbstractRoboticElement {
 	 * @throws ConnectionLostException when connection to the robot is lost
 	 */
 	public PwmMotor(IOIO ioio, int positivePwmOutputPin, int reversePwmOutputPin) throws ConnectionLostException {
+		this(ioio, positivePwmOutputPin, reversePwmOutputPin,
+				PwmCalibration.get(PwmSpeed.ALPHA_DEFAULT, PwmSpeed.TAU0_DEFAULT, Constants.PWM_FREQUENCY));
+	}
+	
+	/**
+	 * Build the PwmMotor objects and associates it to the target PWM output pins
+	 * @param ioio handle to the ioio interface
+	 * @param positivePwmOutputPin index number of the PWM output pin for positive values (use one of the constants)
+	 * @param reversePwmOutputPin index number of the PWM output pin for negative values (use one of the constants)
+	 * @param calibration conversion of the speeds to pulse widths, for a PWM frequency of Constants.PWM_FREQUENCY
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public PwmMotor(IOIO ioio, int positivePwmOutputPin, int reversePwmOutputPin, PwmCalibration calibration)
+			throws ConnectionLostException {
 		super(ioio);
 		
-		pwmSpeed_ = new PwmSpeed();
+		speed_ = ContinuousSpeed.ZERO;
+		targetSpeed_ = ContinuousSpeed.ZERO;
+		acceleration_ = 0;
+		calibration_ = calibration;
+		String prefix = "PwmMotor.pin"+positivePwmOutputPin+".";
+		writeCounter_ = counter(prefix+"writes");
+		suppressedWriteCounter_ = counter(prefix+"suppressedWrites");
+		connectionLostCounter_ = counter(prefix+"connectionLost");
 		pwmPositiveOutput_ = ioio.openPwmOutput(positivePwmOutputPin, Constants.PWM_FREQUENCY);
 		pwmReverseOutput_ = ioio.openPwmOutput(reversePwmOutputPin, Constants.PWM_FREQUENCY);
 	}
 	
 	/**
 	 * Changes the speed of the motor. Has no effect if the speed was already applied.<br />
+	 * If the direction of the new speed is blocked, the motor is stopped instead.
+	 * If it is faster than the limit of its direction, the limit is applied.<br />
+	 * If the acceleration is limited, the speed is only a target, see {@link #updateSpeed()}.<br />
 	 * Call this method from inside the IOIO looper's loop;
 	 * @param newSpeed speed command to process
 	 * @throws ConnectionLostException when connection to the robot is lost
 	 */
 	public void setSpeed(PwmSpeed newSpeed) throws ConnectionLostException {
-		if (newSpeed!=null && !pwmSpeed_.equals(newSpeed)) {
-			pwmSpeed_ = newSpeed;
-			pwmPositiveOutput_.setPulseWidth(pwmSpeed_.getPulseWidthForPositivePin());
-			pwmReverseOutput_.setPulseWidth(pwmSpeed_.getPulseWidthForReversePin());
+		if (newSpeed!=null) {
+			setSpeed(ContinuousSpeed.valueOf(newSpeed));
+		}
+	}
+	
+	/**
+	 * Changes the speed of the motor, with a fine resolution. See {@link #setSpeed(PwmSpeed)}.
+	 * @param newSpeed speed command to process
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void setSpeed(ContinuousSpeed newSpeed) throws ConnectionLostException {
+		if (newSpeed==null) {
+			return;
+		}
+		if (acceleration_<=0) {
+			targetSpeed_ = newSpeed;
+			applySpeed(newSpeed);
+			return;
+		}
+		if (isAtTargetSpeed()) {
+			// the motor was idle: the ramp starts now
+			lastUpdateNanos_ = Clock.now();
+		}
+		targetSpeed_ = newSpeed;
+	}
+	
+	/**
+	 * Applies a speed right away, whatever the acceleration, and writes it to the IOIO without waiting for the
+	 * batcher to be flushed.<br />
+	 * Meant for closed-loop controllers running on the reader thread, see {@link HeadPositionController}.
+	 * @param newSpeed speed command to process
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void setSpeedNow(ContinuousSpeed newSpeed) throws ConnectionLostException {
+		if (newSpeed==null) {
+			return;
+		}
+		targetSpeed_ = newSpeed;
+		applySpeed(newSpeed);
+		flushBatcher();
+	}
+	
+	/**
+	 * Steps toward the target speed, as far as the acceleration allows since the last step.<br />
+	 * The target is kept within the current limits, without being changed: once they are lifted, the motor steps
+	 * toward the commanded speed again.<br />
+	 * Call this method at each control tick, from inside the IOIO looper's loop, when the acceleration is limited.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void updateSpeed() throws ConnectionLostException {
+		long now = Clock.now();
+		long elapsedNanos = Math.min(now-lastUpdateNanos_, 1000000000L);
+		lastUpdateNanos_ = now;
+		int current = speed_.getFixedPointValue();
+		int target = getAllowedValue(targetSpeed_.getFixedPointValue());
+		if (current == target) {
+			return;
+		}
+		int maxStep = Integer.MAX_VALUE;
+		if (acceleration_>0) {
+			maxStep = (int) Math.max(1, acceleration_*ContinuousSpeed.RESOLUTION*elapsedNanos/1e9f);
+		}
+		int next = (target>current)?(int) Math.min(target, (long) current+maxStep)
+				:(int) Math.max(target, (long) current-maxStep);
+		applySpeed(ContinuousSpeed.fromFixedPoint(next));
+	}
+	
+	/**
+	 * Applies a speed right away, within the blocks and limits. The target is left as commanded.
+	 */
+	private void applySpeed(ContinuousSpeed newSpeed) throws ConnectionLostException {
+		int allowedValue = getAllowedValue(newSpeed.getFixedPointValue());
+		if (allowedValue != newSpeed.getFixedPointValue()) {
+			newSpeed = ContinuousSpeed.fromFixedPoint(allowedValue);
+		}
+		if (!speed_.equals(newSpeed)) {
+			speed_ = newSpeed;
+			applyPulseWidths();
+		} else {
+			suppressedWriteCounter_.increment();
+		}
+	}
+	
+	private void applyPulseWidths() throws ConnectionLostException {
+		try {
+			pwmPositiveOutput_.setPulseWidth(calibration_.getPulseWidthForPositivePin(speed_));
+			pwmReverseOutput_.setPulseWidth(calibration_.getPulseWidthForReversePin(speed_));
+		} catch (ConnectionLostException e) {
+			connectionLostCounter_.increment();
+			throw e;
+		}
+		writeCounter_.increment();
+	}
+	
+	/**
+	 * Limits the acceleration of the motor. Set it before driving the motor.
+	 * @param acceleration largest change of the speed per second, in PwmSpeed units (e.g. 40 to go from
+	 * 0 to full speed in 250ms), 0 to apply the speeds right away
+	 */
+	public synchronized void setAcceleration(float acceleration) {
+		acceleration_ = Math.max(0, acceleration);
+	}
+	
+	public synchronized float getAcceleration() {
+		return acceleration_;
+	}
+	
+	/**
+	 * Changes the calibration of the motor, and applies it to the current speed.
+	 * @param calibration new calibration, for a PWM frequency of Constants.PWM_FREQUENCY
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void setCalibration(PwmCalibration calibration) throws ConnectionLostException {
+		if (calibration!=null && calibration!=calibration_) {
+			calibration_ = calibration;
+			applyPulseWidths();
 		}
 	}
 	
+	public synchronized PwmCalibration getCalibration() {
+		return calibration_;
+	}
+	
 	/**
-	 * Stops the motor (applies a null speed)
+	 * Stops the motor right away (applies a null speed, whatever the acceleration)
 	 * @throws ConnectionLostException when connection to the robot is lost
 	 */
-	public void stop() throws ConnectionLostException {
-		setSpeed(new PwmSpeed(0));
+	public synchronized void stop() throws ConnectionLostException {
+		targetSpeed_ = ContinuousSpeed.ZERO;
+		applySpeed(ContinuousSpeed.ZERO);
+		flushBatcher();
+	}
+	
+	/**
+	 * Send the pulse widths through a batcher: they are only written to the IOIO when it is flushed.<br />
+	 * Call it once, at setup.
+	 * @param batcher the batcher to use
+	 */
+	public synchronized void setOutputBatcher(OutputBatcher batcher) {
+		if (batcher!=null && batcher_==null) {
+			batcher_ = batcher;
+			pwmPositiveOutput_ = batcher.wrap(pwmPositiveOutput_);
+			pwmReverseOutput_ = batcher.wrap(pwmReverseOutput_);
+		}
+	}
+	
+	private void flushBatcher() throws ConnectionLostException {
+		if (batcher_!=null) {
+			batcher_.flush();
+		}
 	}
 	
+	/**
+	 * @return the speed applied to the motor, rounded to the nearest PwmSpeed
+	 */
 	public PwmSpeed getSpeed() {
-		return pwmSpeed_;
+		return speed_.toPwmSpeed();
+	}
+	
+	/**
+	 * @return the speed applied to the motor
+	 */
+	public ContinuousSpeed getContinuousSpeed() {
+		return speed_;
+	}
+	
+	/**
+	 * @return the speed the motor steps toward, as commanded: the limits may keep the motor below it
+	 */
+	public synchronized ContinuousSpeed getTargetSpeed() {
+		return targetSpeed_;
+	}
+	
+	/**
+	 * @return true if the applied speed is the target speed, within the current blocks and limits: there is no
+	 * need to call {@link #updateSpeed()} until the target or the restrictions change
+	 */
+	public synchronized boolean isAtTargetSpeed() {
+		return getAllowedValue(targetSpeed_.getFixedPointValue()) == speed_.getFixedPointValue();
+	}
+	
+	/**
+	 * Blocks the positive direction: stops the motor if it runs or steps toward this direction, and refuses
+	 * positive speeds.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void blockPositiveDirection() throws ConnectionLostException {
+		positiveDirectionBlocked_ = true;
+		if (targetSpeed_.getFixedPointValue()>0) {
+			targetSpeed_ = ContinuousSpeed.ZERO;
+		}
+		enforceAllowedSpeed();
+	}
+	
+	/**
+	 * Blocks the reverse direction: stops the motor if it runs or steps toward this direction, and refuses
+	 * negative speeds.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void blockReverseDirection() throws ConnectionLostException {
+		reverseDirectionBlocked_ = true;
+		if (targetSpeed_.getFixedPointValue()<0) {
+			targetSpeed_ = ContinuousSpeed.ZERO;
+		}
+		enforceAllowedSpeed();
+	}
+	
+	/**
+	 * Accepts positive speeds again. The motor stays stopped until it is given a new speed.
+	 */
+	public void unblockPositiveDirection() {
+		positiveDirectionBlocked_ = false;
+	}
+	
+	/**
+	 * Accepts negative speeds again. The motor stays stopped until it is given a new speed.
+	 */
+	public void unblockReverseDirection() {
+		reverseDirectionBlocked_ = false;
+	}
+	
+	public boolean isPositiveDirectionBlocked() {
+		return positiveDirectionBlocked_;
+	}
+	
+	public boolean isReverseDirectionBlocked() {
+		return reverseDirectionBlocked_;
+	}
+	
+	/**
+	 * Limits the positive speeds: slows the motor down if it runs faster in this direction.
+	 * @param maxValue largest positive speed allowed, 0 to stop
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public void limitPositiveSpeed(int maxValue) throws ConnectionLostException {
+		positiveSpeedLimit_ = Math.max(0, Math.min(PwmSpeed.MAX, maxValue));
+		enforceAllowedSpeed();
+	}
+	
+	/**
+	 * Limits the negative speeds: slows the motor down if it runs faster in this direction.
+	 * @param maxValue largest negative speed allowed, in absolute value, 0 to stop
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public void limitReverseSpeed(int maxValue) throws ConnectionLostException {
+		reverseSpeedLimit_ = Math.max(0, Math.min(PwmSpeed.MAX, maxValue));
+		enforceAllowedSpeed();
+	}
+	
+	/**
+	 * Allows all positive speeds again. The motor steps toward its target at the next {@link #updateSpeed()}.
+	 */
+	public void unlimitPositiveSpeed() {
+		positiveSpeedLimit_ = PwmSpeed.MAX;
+	}
+	
+	/**
+	 * Allows all negative speeds again. The motor steps toward its target at the next {@link #updateSpeed()}.
+	 */
+	public void unlimitReverseSpeed() {
+		reverseSpeedLimit_ = PwmSpeed.MAX;
+	}
+	
+	/**
+	 * Stops the motor, drops its target, and refuses any speed until the power is restored.
+	 * @throws ConnectionLostException when connection to the robot is lost
+	 */
+	public synchronized void cutPower() throws ConnectionLostException {
+		powerCut_ = true;
+		targetSpeed_ = ContinuousSpeed.ZERO;
+		enforceAllowedSpeed();
+	}
+	
+	/**
+	 * Accepts speeds again after the power was cut. The motor stays stopped until it is given a new speed.
+	 */
+	public void restorePower() {
+		powerCut_ = false;
+	}
+	
+	public boolean isPowerCut() {
+		return powerCut_;
+	}
+	
+	public int getPositiveSpeedLimit() {
+		return positiveSpeedLimit_;
+	}
+	
+	public int getReverseSpeedLimit() {
+		return reverseSpeedLimit_;
+	}
+	
+	private synchronized void enforceAllowedSpeed() throws ConnectionLostException {
+		applySpeed(speed_);
+		// restrictions are safety measures: do not wait for the next tick
+		flushBatcher();
+	}
+	
+	/**
+	 * @return the fixed-point speed value actually applied for a requested one, given the blocks and limits
+	 */
+	private int getAllowedValue(int fixedPointValue) {
+		if (powerCut_) {
+			return 0;
+		}
+		if (fixedPointValue>0) {
+			return positiveDirectionBlocked_?0:Math.min(fixedPointValue, positiveSpeedLimit_*ContinuousSpeed.RESOLUTION);
+		}
+		if (fixedPointValue<0) {
+			return reverseDirectionBlocked_?0:Math.max(fixedPointValue, -reverseSpeedLimit_*ContinuousSpeed.RESOLUTION);
+		}
+		return 0;
 	}
 
 }
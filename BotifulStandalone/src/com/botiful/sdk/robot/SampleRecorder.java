@@ -0,0 +1,105 @@
+package com.botiful.sdk.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.botiful.sdk.robot.AnalogValueReader.AnalogValueBlockObserver;
+
+/**
+ * Records an analog signal into a binary capture file, to be replayed later by a {@link SampleReplayer}.<br />
+ * The whole file is mapped in memory when the recorder is built: recording only copies the samples
+ * into the mapping, without allocation nor system call. Use it as a block observer, e.g.
+ * <code>reader.addSubscriber(new AnalogSubscription(null, recorder))</code>.<br /><br />
+ * Capture format (little endian):
+ * <ul><li>header: int magic, int version, long sample period (ns), long sample count, long data length (bytes)
+ * <li>then one chunk per block: int sample count, then for each sample a long timestamp (ns) and a float value</ul>
+ * The header is updated after each block, so the capture is readable even if the recording is not closed.
+ */
+public class SampleRecorder implements AnalogValueBlockObserver {
+	static final int MAGIC = 0x53465442; // "BTFS"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int CHUNK_HEADER_SIZE = 4;
+	static final int SAMPLE_SIZE = 12;
+	// offsets of the header fields updated while recording
+	static final int SAMPLE_COUNT_OFFSET = 16;
+	static final int DATA_LENGTH_OFFSET = 24;
+
+	private final RandomAccessFile file_;
+	private final MappedByteBuffer buffer_;
+	private long sampleCount_;
+	/** number of samples which did not fit in the file */
+	private volatile long droppedSamples_;
+
+	/**
+	 * Create the capture file and map it in memory
+	 * @param file destination file, overwritten
+	 * @param maxSamples number of samples the file can hold, recording stops when it is full
+	 * @param samplePeriodNanos time between two samples of the recorded signal, written in the header: each sample is
+	 * recorded with its own date
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public SampleRecorder(File file, int maxSamples, long samplePeriodNanos) throws IOException {
+		sampleCount_ = 0;
+		droppedSamples_ = 0;
+		file_ = new RandomAccessFile(file, "rw");
+		file_.setLength(0);
+		// worst case: one chunk per sample
+		long size = HEADER_SIZE+(long) maxSamples*(CHUNK_HEADER_SIZE+SAMPLE_SIZE);
+		buffer_ = file_.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer_.order(ByteOrder.LITTLE_ENDIAN);
+		buffer_.putInt(MAGIC);
+		buffer_.putInt(VERSION);
+		buffer_.putLong(samplePeriodNanos);
+		buffer_.putLong(0);
+		buffer_.putLong(0);
+	}
+
+	@Override
+	public void onNewValues(float[] samples, long[] timestampsNanos, int count, long firstSampleTimeNanos,
+			long samplePeriodNanos) {
+		int room = (buffer_.remaining()-CHUNK_HEADER_SIZE)/SAMPLE_SIZE;
+		int recorded = Math.max(0, Math.min(count, room));
+		droppedSamples_ += count-recorded;
+		if (recorded == 0) {
+			return;
+		}
+		buffer_.putInt(recorded);
+		for (int i=0; i<recorded; i++) {
+			// filtered or decimated blocks have their own spacing
+			buffer_.putLong((timestampsNanos==null)?firstSampleTimeNanos+i*samplePeriodNanos:timestampsNanos[i]);
+			buffer_.putFloat(samples[i]);
+		}
+		sampleCount_ += recorded;
+		buffer_.putLong(SAMPLE_COUNT_OFFSET, sampleCount_);
+		buffer_.putLong(DATA_LENGTH_OFFSET, buffer_.position()-HEADER_SIZE);
+	}
+
+	/**
+	 * @return the number of samples recorded so far
+	 */
+	public long getSampleCount() {
+		return sampleCount_;
+	}
+
+	/**
+	 * @return the number of samples lost because the file was full
+	 */
+	public long getDroppedSampleCount() {
+		return droppedSamples_;
+	}
+
+	/**
+	 * Flushes the capture to the storage and closes the file.<br />
+	 * Remove the recorder from its reader first: no sample must be recorded during or after this call.
+	 * @throws IOException if the file cannot be written
+	 */
+	public void close() throws IOException {
+		buffer_.force();
+		file_.close();
+	}
+}
@@ -0,0 +1,179 @@
+package com.botiful.sdk.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a capture recorded by a {@link SampleRecorder}.<br />
+ * The samples are pushed, one recorded block at a time, into an {@link AnalogChannel} from a dedicated thread:
+ * observers, subscriptions, filters and threshold detection behave as they did with the robot attached.
+ * Sample dates keep their recorded spacing, shifted to the time of the replay, so update periods are
+ * expressed in capture time whatever the replay speed.
+ */
+public class SampleReplayer {
+	/** largest block passed to the channel at once */
+	private static final int MAX_BLOCK_SIZE = 256;
+
+	private final MappedByteBuffer buffer_;
+	private final long sampleCount_;
+	private final AnalogChannel channel_;
+	private final float[] block_;
+	private final long[] blockTimestampsNanos_;
+	/** replay speed, 1 for real-time, 0 for as fast as possible */
+	private volatile float speed_;
+	/** control variable for the thread */
+	private volatile boolean running_;
+	private Thread replayThread_;
+
+	/**
+	 * Open a capture file and map it in memory
+	 * @param file capture file written by a SampleRecorder
+	 * @throws IOException if the file cannot be read or is not a capture
+	 */
+	public SampleReplayer(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			buffer_ = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			// the mapping stays valid once the file is closed
+			raf.close();
+		}
+		buffer_.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer_.remaining() < SampleRecorder.HEADER_SIZE
+				|| buffer_.getInt(0) != SampleRecorder.MAGIC
+				|| buffer_.getInt(4) != SampleRecorder.VERSION) {
+			throw new IOException("Not a capture file: "+file);
+		}
+		long samplePeriodNanos = buffer_.getLong(8);
+		sampleCount_ = buffer_.getLong(SampleRecorder.SAMPLE_COUNT_OFFSET);
+		long dataLength = buffer_.getLong(SampleRecorder.DATA_LENGTH_OFFSET);
+		buffer_.limit((int) Math.min(buffer_.capacity(), SampleRecorder.HEADER_SIZE+dataLength));
+		channel_ = new AnalogChannel(samplePeriodNanos);
+		block_ = new float[MAX_BLOCK_SIZE];
+		blockTimestampsNanos_ = new long[MAX_BLOCK_SIZE];
+		speed_ = 1;
+		running_ = false;
+		replayThread_ = null;
+	}
+
+	/**
+	 * @return the channel the samples are pushed into: set its observers and subscribers before starting
+	 */
+	public AnalogChannel getChannel() {
+		return channel_;
+	}
+
+	/**
+	 * @return the number of samples in the capture
+	 */
+	public long getSampleCount() {
+		return sampleCount_;
+	}
+
+	/**
+	 * @return true while the capture is being replayed
+	 */
+	public boolean isRunning() {
+		return running_;
+	}
+
+	/**
+	 * Start replaying the capture from its beginning. Has no effect if it is already running.
+	 * @param speed 1 for real-time, 2 for twice as fast, etc. 0 to replay as fast as possible
+	 */
+	public synchronized void start(float speed) {
+		if (replayThread_ != null && replayThread_.isAlive()) {
+			return;
+		}
+		speed_ = Math.max(0, speed);
+		running_ = true;
+		replayThread_ = new Thread() {
+			@Override
+			public void run() {
+				replay();
+				running_ = false;
+			}
+		};
+		replayThread_.setPriority(8);
+		replayThread_.start();
+	}
+
+	/**
+	 * Stop the replay and wait for the thread to quit
+	 */
+	public synchronized void stop() {
+		running_ = false;
+		if (replayThread_ == null) {
+			return;
+		}
+		replayThread_.interrupt();
+		try {
+			replayThread_.join();
+		} catch (InterruptedException e) {
+			// void
+		}
+		replayThread_ = null;
+	}
+
+	private void replay() {
+		int position = SampleRecorder.HEADER_SIZE;
+		int limit = buffer_.limit();
+		long captureStartNanos = 0;
+		long replayStartNanos = Clock.now();
+		boolean first = true;
+		while (running_ && position+SampleRecorder.CHUNK_HEADER_SIZE <= limit) {
+			int chunkCount = buffer_.getInt(position);
+			position += SampleRecorder.CHUNK_HEADER_SIZE;
+			while (chunkCount > 0 && running_) {
+				int count = Math.min(chunkCount, block_.length);
+				if (position+count*SampleRecorder.SAMPLE_SIZE > limit) {
+					// truncated capture
+					return;
+				}
+				long firstTimestampNanos = buffer_.getLong(position);
+				if (first) {
+					captureStartNanos = firstTimestampNanos;
+					first = false;
+				}
+				for (int i=0; i<count; i++) {
+					// recorded dates, shifted to the time of the replay
+					blockTimestampsNanos_[i] = replayStartNanos+buffer_.getLong(position)-captureStartNanos;
+					block_[i] = buffer_.getFloat(position+8);
+					position += SampleRecorder.SAMPLE_SIZE;
+				}
+				chunkCount -= count;
+				long captureElapsedNanos = firstTimestampNanos-captureStartNanos;
+				if (!waitUntil(replayStartNanos, captureElapsedNanos)) {
+					return;
+				}
+				channel_.dispatch(block_, blockTimestampsNanos_, count);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the replay catches up with the capture time
+	 * @return false if the replay was stopped meanwhile
+	 */
+	private boolean waitUntil(long replayStartNanos, long captureElapsedNanos) {
+		float speed = speed_;
+		if (speed <= 0) {
+			return true;
+		}
+		long delayNanos = replayStartNanos+(long) (captureElapsedNanos/speed)-Clock.now();
+		if (delayNanos <= 0) {
+			return true;
+		}
+		try {
+			Clock.get().sleepNanos(delayNanos);
+		} catch (InterruptedException e) {
+			Logger.get().warn(this.getClass().getName(),e);
+			return running_;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,195 @@
+package com.botiful.sdk.robot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated single-producer/single-consumer queue of timestamped analog samples.<br />
+ * One thread (the producer) offers samples, another one (the consumer) drains them. No lock is taken
+ * and no object is allocated once the buffer is built.<br />
+ * When the consumer does not keep up, the buffer gets full and the {@link OverrunPolicy} decides
+ * which samples are lost. Every lost sample is counted, see {@link #getDroppedSampleCount()}.
+ */
+public class SampleRingBuffer {
+	/**
+	 * What to do with the incoming samples when the buffer is full
+	 */
+	public enum OverrunPolicy {
+		/** discard the oldest queued sample to store the new one: the consumer always gets the latest data */
+		DROP_OLDEST,
+		/** discard the new sample: the consumer gets a contiguous stream, up to the overrun */
+		DROP_NEWEST,
+		/** once half full, only one sample out of two is stored, then drop the new samples if full:
+		 * the consumer keeps a view of the whole signal at a lower rate */
+		DECIMATE
+	}
+
+	private final float[] values_;
+	private final long[] timestamps_;
+	/** capacity-1, capacity being a power of two */
+	private final int mask_;
+	private final OverrunPolicy policy_;
+	/** index of the next slot to write. Only written by the producer */
+	private volatile long head_;
+	/** index of the next slot to read. Moved by the consumer, and by the producer when it drops the oldest sample */
+	private final AtomicLong tail_;
+	/** number of samples lost. Only written by the producer */
+	private volatile long droppedSamples_;
+	/** number of samples offered. Only written by the producer */
+	private volatile long offeredSamples_;
+	/** toggles on every sample when decimating. Only used by the producer */
+	private boolean skipNextSample_;
+
+	/**
+	 * Build the buffer and allocates its storage
+	 * @param capacity minimum number of samples to store, rounded up to the next power of two
+	 * @param policy what to do when the buffer is full
+	 */
+	public SampleRingBuffer(int capacity, OverrunPolicy policy) {
+		int size = Integer.highestOneBit(Math.max(2, capacity));
+		if (size < capacity) {
+			size <<= 1;
+		}
+		values_ = new float[size];
+		timestamps_ = new long[size];
+		mask_ = size-1;
+		policy_ = (policy==null)?OverrunPolicy.DROP_OLDEST:policy;
+		head_ = 0;
+		tail_ = new AtomicLong(0);
+		droppedSamples_ = 0;
+		offeredSamples_ = 0;
+		skipNextSample_ = false;
+	}
+
+	/**
+	 * Queues one sample. To be called from the producer thread only.
+	 * @param value sample value
+	 * @param timestampNanos date of the sample
+	 * @return true if the sample was stored, false if it was dropped
+	 */
+	public boolean offer(float value, long timestampNanos) {
+		long head = head_;
+		offeredSamples_++;
+		boolean stored = store(head, value, timestampNanos);
+		if (stored) {
+			head_ = head+1;
+		}
+		return stored;
+	}
+
+	/**
+	 * Queues a block of evenly spaced samples, and publishes them all at once.
+	 * To be called from the producer thread only.
+	 * @param values sample values, oldest first
+	 * @param count number of samples to read from the array
+	 * @param firstTimestampNanos date of the first sample
+	 * @param samplePeriodNanos time between two consecutive samples
+	 * @return the number of samples stored, the others were dropped
+	 */
+	public int offer(float[] values, int count, long firstTimestampNanos, long samplePeriodNanos) {
+		long head = head_;
+		offeredSamples_ += count;
+		int stored = 0;
+		for (int i=0; i<count; i++) {
+			if (store(head, values[i], firstTimestampNanos+i*samplePeriodNanos)) {
+				head++;
+				stored++;
+			}
+		}
+		head_ = head;
+		return stored;
+	}
+
+	/**
+	 * Applies the overrun policy and writes the sample in the slot at the given index if it is kept.
+	 * The sample is only visible to the consumer once head_ is moved past this index.
+	 */
+	private boolean store(long head, float value, long timestampNanos) {
+		long used = head - tail_.get();
+		if (policy_ == OverrunPolicy.DECIMATE) {
+			if (used > mask_/2) {
+				skipNextSample_ = !skipNextSample_;
+				if (skipNextSample_) {
+					droppedSamples_++;
+					return false;
+				}
+			} else {
+				skipNextSample_ = false;
+			}
+		}
+		while (used > mask_) {
+			if (policy_ != OverrunPolicy.DROP_OLDEST) {
+				droppedSamples_++;
+				return false;
+			}
+			// if this fails, the consumer has just read the oldest sample: space is available anyway
+			long tail = head - used;
+			if (tail_.compareAndSet(tail, tail+1)) {
+				droppedSamples_++;
+			}
+			used = head - tail_.get();
+		}
+		int slot = (int) head & mask_;
+		values_[slot] = value;
+		timestamps_[slot] = timestampNanos;
+		return true;
+	}
+
+	/**
+	 * Moves the oldest queued samples into the given arrays. To be called from the consumer thread only.
+	 * @param values destination of the sample values
+	 * @param timestampsNanos destination of the sample dates
+	 * @param max maximum number of samples to move, must not exceed the arrays length
+	 * @return the number of samples moved, oldest first, 0 if the buffer is empty
+	 */
+	public int drain(float[] values, long[] timestampsNanos, int max) {
+		while (true) {
+			long tail = tail_.get();
+			int count = (int) Math.min(head_-tail, max);
+			if (count <= 0) {
+				return 0;
+			}
+			for (int i=0; i<count; i++) {
+				int slot = (int) (tail+i) & mask_;
+				values[i] = values_[slot];
+				timestampsNanos[i] = timestamps_[slot];
+			}
+			// the producer may have dropped (and overwritten) the oldest samples meanwhile: read again
+			if (tail_.compareAndSet(tail, tail+count)) {
+				return count;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of samples waiting to be drained
+	 */
+	public int size() {
+		long size = head_ - tail_.get();
+		return (int) Math.max(0, Math.min(size, mask_+1));
+	}
+
+	/**
+	 * @return the maximum number of samples the buffer can hold
+	 */
+	public int capacity() {
+		return mask_+1;
+	}
+
+	public OverrunPolicy getOverrunPolicy() {
+		return policy_;
+	}
+
+	/**
+	 * @return the total number of samples offered to the buffer, dropped or not
+	 */
+	public long getOfferedSampleCount() {
+		return offeredSamples_;
+	}
+
+	/**
+	 * @return the total number of samples lost because the buffer was full (or decimating)
+	 */
+	public long getDroppedSampleCount() {
+		return droppedSamples_;
+	}
+}
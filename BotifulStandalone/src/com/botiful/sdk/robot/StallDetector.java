@@ -0,0 +1,161 @@
+package com.botiful.sdk.robot;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.botiful.sdk.models.ContinuousSpeed;
+
+/**
+ * Detects a stalled motor from its position sensor, and cuts its power.<br />
+ * On each sample, the speed applied to the motor ({@link PwmMotor#getContinuousSpeed()}), averaged over a sliding
+ * window, is compared with the rate of change of the sensor over the same window (see {@link VelocityEstimator}):
+ * the motor is stalled when it is driven but the sensor moves slower than expected for its speed. After a number
+ * of consecutive stalled samples, the power of the motor is cut until {@link #clearStall()} is called.<br />
+ * The window is kept across the small speed changes of ramps and controllers, and only restarted when the motor
+ * changes direction or its speed changes by more than half.<br />
+ * The power is therefore cut at most (window size + max stalled samples) samples after the motor is blocked.
+ * Evaluated on the reader thread (see {@link AnalogValueReader#addInterlock}), without allocation.
+ */
+public class StallDetector implements AnalogInterlock {
+	/** Default number of samples of the velocity window */
+	public static final int DEFAULT_WINDOW_SIZE = 32;
+	/** largest change of the speed, relative to the faster of the old and new speeds, keeping the window */
+	private static final float MAX_RELATIVE_SPEED_STEP = .5f;
+
+	private final PwmMotor motor_;
+	/** lowest velocity of the sensor, per unit of speed, for a running motor */
+	private final float minVelocityPerSpeedUnit_;
+	/** number of consecutive stalled samples before the power is cut */
+	private final int maxStalledSamples_;
+	private final VelocityEstimator estimator_;
+	// only used by the reader thread
+	private int stalledSamples_;
+	/** fixed-point speed at the last block */
+	private int lastSpeedValue_;
+	/** absolute fixed-point speeds of the samples of the window, circular, and their sum */
+	private final int[] windowSpeeds_;
+	private int windowIndex_;
+	private long windowSpeedSum_;
+	private volatile boolean stalled_;
+	private volatile long stallCount_;
+
+	/**
+	 * Build the detector, with the default velocity window
+	 * @param motor motor to watch
+	 * @param minVelocityPerSpeedUnit lowest velocity of the sensor (units per second), per unit of PwmSpeed,
+	 * when the motor runs freely
+	 * @param maxStalledSamples number of consecutive stalled samples before the power is cut
+	 */
+	public StallDetector(PwmMotor motor, float minVelocityPerSpeedUnit, int maxStalledSamples) {
+		this(motor, minVelocityPerSpeedUnit, maxStalledSamples, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Build the detector
+	 * @param motor motor to watch
+	 * @param minVelocityPerSpeedUnit lowest velocity of the sensor (units per second), per unit of PwmSpeed,
+	 * when the motor runs freely
+	 * @param maxStalledSamples number of consecutive stalled samples before the power is cut
+	 * @param windowSize number of samples used to estimate the velocity
+	 */
+	public StallDetector(PwmMotor motor, float minVelocityPerSpeedUnit, int maxStalledSamples, int windowSize) {
+		motor_ = motor;
+		minVelocityPerSpeedUnit_ = Math.abs(minVelocityPerSpeedUnit);
+		maxStalledSamples_ = Math.max(1, maxStalledSamples);
+		estimator_ = new VelocityEstimator(windowSize);
+		windowSpeeds_ = new int[Math.max(2, windowSize)];
+		stalledSamples_ = 0;
+		lastSpeedValue_ = 0;
+		stalled_ = false;
+		stallCount_ = 0;
+	}
+
+	@Override
+	public void inputNewValues(float[] values, int count, long lastSampleTimeNanos, long samplePeriodNanos)
+			throws ConnectionLostException {
+		ContinuousSpeed speed = motor_.getContinuousSpeed();
+		int speedValue = speed.getFixedPointValue();
+		if (speedValue != lastSpeedValue_) {
+			if (isLargeSpeedChange(lastSpeedValue_, speedValue)) {
+				// the motor needs some time to reach its new speed: forget the velocity measured before the change
+				stalledSamples_ = 0;
+				estimator_.reset();
+				resetWindowSpeeds();
+			}
+			lastSpeedValue_ = speedValue;
+		}
+		int absoluteSpeedValue = Math.abs(speedValue);
+		for (int i=0; i<count; i++) {
+			estimator_.inputNewValue(values[i], lastSampleTimeNanos-(count-1-i)*samplePeriodNanos);
+			windowSpeedSum_ += absoluteSpeedValue-windowSpeeds_[windowIndex_];
+			windowSpeeds_[windowIndex_] = absoluteSpeedValue;
+			windowIndex_ = (windowIndex_+1)%windowSpeeds_.length;
+			if (speedValue == 0 || stalled_ || !estimator_.isReady()
+					|| Math.abs(estimator_.getVelocity()) >= getMinVelocity()) {
+				stalledSamples_ = 0;
+			} else if (++stalledSamples_ >= maxStalledSamples_) {
+				stalled_ = true;
+				stallCount_++;
+				motor_.cutPower();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the speed changes direction, or by more than MAX_RELATIVE_SPEED_STEP of the faster speed
+	 */
+	private static boolean isLargeSpeedChange(int oldValue, int newValue) {
+		if ((oldValue > 0 && newValue < 0) || (oldValue < 0 && newValue > 0)) {
+			return true;
+		}
+		int step = Math.abs(newValue-oldValue);
+		return step > MAX_RELATIVE_SPEED_STEP*Math.max(Math.abs(oldValue), Math.abs(newValue));
+	}
+
+	private void resetWindowSpeeds() {
+		for (int i=0; i<windowSpeeds_.length; i++) {
+			windowSpeeds_[i] = 0;
+		}
+		windowIndex_ = 0;
+		windowSpeedSum_ = 0;
+	}
+
+	/**
+	 * @return the lowest velocity of the sensor, for the speed averaged over the window
+	 */
+	private float getMinVelocity() {
+		float averageSpeed = (float) windowSpeedSum_/windowSpeeds_.length/ContinuousSpeed.RESOLUTION;
+		return minVelocityPerSpeedUnit_*averageSpeed;
+	}
+
+	/**
+	 * Restores the power of the motor after a stall. The motor stays stopped until it is given a new speed.
+	 */
+	public void clearStall() {
+		if (stalled_) {
+			stalled_ = false;
+			motor_.restorePower();
+		}
+	}
+
+	/**
+	 * Restores the power of the motor if it was cut by this detector.
+	 */
+	@Override
+	public void release() {
+		clearStall();
+	}
+
+	/**
+	 * @return true if the power of the motor is cut because of a stall
+	 */
+	public boolean isStalled() {
+		return stalled_;
+	}
+
+	/**
+	 * @return the number of stalls detected
+	 */
+	public long getStallCount() {
+		return stallCount_;
+	}
+}
@@ -7,18 +7,41 @@ import ioio.lib.api.exception.ConnectionLostException;
 /**
  * Basic switch - can be turned on or off<br />
  * Wraps a digital output<br />
- * WARNING: the inner state is the OPPOSITE of the digital output value!
+ * WARNING: the inner state is the OPPOSITE of the digital output value!<br />
+ * With an {@link OutputBatcher}, the state is sent at the next flush.
  */
 public class Switch extends AbstractRoboticElement {
 	private boolean state_;
 	private DigitalOutput digitalOutput_;
+	/** batcher of the output, or null if it is written directly */
+	private OutputBatcher batcher_;
+	/** states written, states not written because already set, connection losses */
+	private final MetricsRegistry.Counter writeCounter_;
+	private final MetricsRegistry.Counter suppressedWriteCounter_;
+	private final MetricsRegistry.Counter connectionLostCounter_;
 	
 	public Switch(IOIO ioio, int digitalOutputPin, boolean initialState) throws ConnectionLostException {
 		super(ioio);
 		state_ = initialState;
+		String prefix = "Switch.pin"+digitalOutputPin+".";
+		writeCounter_ = counter(prefix+"writes");
+		suppressedWriteCounter_ = counter(prefix+"suppressedWrites");
+		connectionLostCounter_ = counter(prefix+"connectionLost");
 		digitalOutput_ = ioio.openDigitalOutput(digitalOutputPin, !initialState);
 	}
 	
+	/**
+	 * Send the state through a batcher: it is only written to the IOIO when it is flushed.<br />
+	 * Call it once, at setup.
+	 * @param batcher the batcher to use
+	 */
+	public synchronized void setOutputBatcher(OutputBatcher batcher) {
+		if (batcher!=null && batcher_==null) {
+			batcher_ = batcher;
+			digitalOutput_ = batcher.wrap(digitalOutput_);
+		}
+	}
+	
 	/**
 	 * Requires the digital output to change state. has no effect if this state is already set.<br />
 	 * If the command fails, the inner state is not changed.
@@ -26,8 +49,9 @@ public class Switch extends AbstractRoboticElement {
 	 */
 	public void set(boolean state) throws ConnectionLostException {
 		if (state != state_) {
-			digitalOutput_.write(!state);
-			state_ = state;
+			write(state);
+		} else {
+			suppressedWriteCounter_.increment();
 		}
 	}
 
@@ -37,8 +61,18 @@ public class Switch extends AbstractRoboticElement {
 	 * @param state new value.
 	 */
 	public void forceSet(boolean state) throws ConnectionLostException {
-		digitalOutput_.write(!state);
+		write(state);
+	}
+	
+	private void write(boolean state) throws ConnectionLostException {
+		try {
+			digitalOutput_.write(!state);
+		} catch (ConnectionLostException e) {
+			connectionLostCounter_.increment();
+			throw e;
+		}
 		state_ = state;
+		writeCounter_.increment();
 	}
 
 }
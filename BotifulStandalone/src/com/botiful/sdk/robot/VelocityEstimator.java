@@ -0,0 +1,96 @@
+package com.botiful.sdk.robot;
+
+/**
+ * Streaming estimation of the rate of change of an analog signal.<br />
+ * The velocity is the finite difference between the newest and the oldest of the last N samples:
+ * a short window reacts fast, a longer one is less sensitive to the noise of the signal.<br />
+ * Samples are kept in preallocated arrays, nothing is allocated once built.
+ */
+public class VelocityEstimator {
+	private final float[] values_;
+	private final long[] timestampsNanos_;
+	/** index of the next sample to write */
+	private int next_;
+	/** number of samples in the window, up to its size */
+	private int count_;
+
+	/**
+	 * Build the estimator
+	 * @param windowSize number of samples of the window, at least 2
+	 */
+	public VelocityEstimator(int windowSize) {
+		values_ = new float[Math.max(2, windowSize)];
+		timestampsNanos_ = new long[values_.length];
+		reset();
+	}
+
+	/**
+	 * Forgets the samples: the velocity is unknown until the window is filled again
+	 */
+	public void reset() {
+		next_ = 0;
+		count_ = 0;
+	}
+
+	/**
+	 * Adds one sample to the window
+	 * @param value new value
+	 * @param timestampNanos date of the value
+	 */
+	public void inputNewValue(float value, long timestampNanos) {
+		values_[next_] = value;
+		timestampsNanos_[next_] = timestampNanos;
+		next_ = (next_+1 == values_.length)?0:next_+1;
+		if (count_ < values_.length) {
+			count_++;
+		}
+	}
+
+	/**
+	 * Adds a block of evenly spaced samples to the window
+	 * @param values new values, oldest first
+	 * @param count number of values
+	 * @param lastSampleTimeNanos date of the last value
+	 * @param samplePeriodNanos time between two samples
+	 */
+	public void inputNewValues(float[] values, int count, long lastSampleTimeNanos, long samplePeriodNanos) {
+		// older samples would be overwritten anyway
+		int first = Math.max(0, count-values_.length);
+		for (int i=first; i<count; i++) {
+			inputNewValue(values[i], lastSampleTimeNanos-(count-1-i)*samplePeriodNanos);
+		}
+	}
+
+	/**
+	 * @return true once the window is full
+	 */
+	public boolean isReady() {
+		return count_ == values_.length;
+	}
+
+	/**
+	 * @return the latest value, or Float.NaN if there is none
+	 */
+	public float getValue() {
+		if (count_ == 0) {
+			return Float.NaN;
+		}
+		return values_[(next_ == 0)?values_.length-1:next_-1];
+	}
+
+	/**
+	 * @return the rate of change over the window in units per second, or 0 if the window is not full
+	 */
+	public float getVelocity() {
+		if (!isReady()) {
+			return 0;
+		}
+		// when the window is full, next_ points to the oldest sample
+		int newest = (next_ == 0)?values_.length-1:next_-1;
+		long elapsedNanos = timestampsNanos_[newest]-timestampsNanos_[next_];
+		if (elapsedNanos <= 0) {
+			return 0;
+		}
+		return (values_[newest]-values_[next_])*1e9f/elapsedNanos;
+	}
+}
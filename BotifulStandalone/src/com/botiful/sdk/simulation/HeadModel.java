@@ -0,0 +1,158 @@
+package com.botiful.sdk.simulation;
+
+import java.util.Random;
+
+import com.botiful.sdk.robot.Constants;
+
+/**
+ * Physics of the head: a DC motor driving the head, and the rotary encoder measuring its angle.<br />
+ * The motor has a dead band (static friction), then its velocity follows the drive with a first order lag. The head
+ * stops at the mechanical end stops, {@link Constants#ROTARY_ENCODER_MIN_VALUE} and
+ * {@link Constants#ROTARY_ENCODER_MAX_VALUE}: the motor stalls there. The encoder value is read through a 10 bit ADC,
+ * with an optional gaussian noise.<br />
+ * Positive drives raise the head, i.e. decrease the encoder value, like on the robot.<br />
+ * Only used by the simulation thread of a {@link SimulatedIOIO} once it is connected. Keep it to preserve the
+ * position of the head across reconnections.
+ */
+public class HeadModel {
+	/** resolution of the IOIO analog inputs */
+	private static final int ADC_STEPS = 1023;
+	
+	private float minValue_ = Constants.ROTARY_ENCODER_MIN_VALUE;
+	private float maxValue_ = Constants.ROTARY_ENCODER_MAX_VALUE;
+	/** encoder units per second at full drive */
+	private float maxVelocity_ = .25f;
+	/** time constant of the motor, in s */
+	private float timeConstantSeconds_ = .05f;
+	/** fraction of the drive below which the motor does not move */
+	private float deadBand_ = .45f;
+	private boolean positiveDriveIncreasesValue_ = false;
+	/** standard deviation of the encoder noise, in encoder units */
+	private float noise_ = 0;
+	private final Random random_;
+	
+	private double position_;
+	private double velocity_;
+	
+	/**
+	 * Build the model, with the head halfway between its end stops, and a noise seeded with 0
+	 */
+	public HeadModel() {
+		this(0);
+	}
+	
+	/**
+	 * Build the model, with the head halfway between its end stops
+	 * @param seed seed of the encoder noise, to reproduce a run
+	 */
+	public HeadModel(long seed) {
+		random_ = new Random(seed);
+		position_ = (minValue_+maxValue_)/2;
+		velocity_ = 0;
+	}
+	
+	/**
+	 * Move the model forward in time
+	 * @param drive drive of the motor in [-1,1], i.e. the difference of the duty cycles of its two pins
+	 * @param seconds duration of the step
+	 */
+	synchronized void step(float drive, double seconds) {
+		float magnitude = Math.min(1, Math.abs(drive));
+		double targetVelocity = 0;
+		if (magnitude > deadBand_) {
+			targetVelocity = maxVelocity_*(magnitude-deadBand_)/(1-deadBand_);
+			if ((drive > 0) != positiveDriveIncreasesValue_) {
+				targetVelocity = -targetVelocity;
+			}
+		}
+		velocity_ += (targetVelocity-velocity_)*(1-Math.exp(-seconds/timeConstantSeconds_));
+		position_ += velocity_*seconds;
+		if (position_ <= minValue_) {
+			position_ = minValue_;
+			velocity_ = Math.max(0, velocity_);
+		} else if (position_ >= maxValue_) {
+			position_ = maxValue_;
+			velocity_ = Math.min(0, velocity_);
+		}
+	}
+	
+	/**
+	 * @return a sample of the rotary encoder in [0,1], with the noise and the ADC resolution
+	 */
+	synchronized float sampleEncoder() {
+		double value = position_;
+		if (noise_ > 0) {
+			value += noise_*random_.nextGaussian();
+		}
+		value = Math.max(0, Math.min(1, value));
+		return (float) Math.rint(value*ADC_STEPS)/ADC_STEPS;
+	}
+	
+	/**
+	 * @return the actual position of the head, in encoder units
+	 */
+	public synchronized float getPosition() {
+		return (float) position_;
+	}
+	
+	/**
+	 * @return the actual velocity of the head, in encoder units per second
+	 */
+	public synchronized float getVelocity() {
+		return (float) velocity_;
+	}
+	
+	/**
+	 * Move the head, e.g. before a run. Stops it.
+	 * @param position new position, clipped to the end stops
+	 */
+	public synchronized void setPosition(float position) {
+		position_ = Math.max(minValue_, Math.min(maxValue_, position));
+		velocity_ = 0;
+	}
+	
+	/**
+	 * @param minValue encoder value at the upper end stop
+	 * @param maxValue encoder value at the lower end stop
+	 */
+	public synchronized void setEndStops(float minValue, float maxValue) {
+		minValue_ = minValue;
+		maxValue_ = maxValue;
+		setPosition((float) position_);
+	}
+	
+	/**
+	 * @param maxVelocity encoder units per second at full drive
+	 */
+	public synchronized void setMaxVelocity(float maxVelocity) {
+		maxVelocity_ = maxVelocity;
+	}
+	
+	/**
+	 * @param timeConstantMillis time for the velocity to reach 63% of a change of the drive, in ms
+	 */
+	public synchronized void setTimeConstantMillis(float timeConstantMillis) {
+		timeConstantSeconds_ = Math.max(1e-6f, timeConstantMillis/1000);
+	}
+	
+	/**
+	 * @param deadBand fraction of the drive in [0,1) below which the motor does not move
+	 */
+	public synchronized void setDeadBand(float deadBand) {
+		deadBand_ = Math.max(0, Math.min(.99f, deadBand));
+	}
+	
+	/**
+	 * @param positiveDriveIncreasesValue true if positive drives increase the encoder value
+	 */
+	public synchronized void setPositiveDriveIncreasesValue(boolean positiveDriveIncreasesValue) {
+		positiveDriveIncreasesValue_ = positiveDriveIncreasesValue;
+	}
+	
+	/**
+	 * @param noise standard deviation of the encoder noise, in encoder units, 0 for none
+	 */
+	public synchronized void setNoise(float noise) {
+		noise_ = Math.max(0, noise);
+	}
+}
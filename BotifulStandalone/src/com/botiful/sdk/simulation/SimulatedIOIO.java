@@ -0,0 +1,780 @@
+package com.botiful.sdk.simulation;
+
+import ioio.lib.api.AnalogInput;
+import ioio.lib.api.CapSense;
+import ioio.lib.api.DigitalInput;
+import ioio.lib.api.DigitalOutput;
+import ioio.lib.api.IOIO;
+import ioio.lib.api.IcspMaster;
+import ioio.lib.api.PulseInput;
+import ioio.lib.api.PwmOutput;
+import ioio.lib.api.SpiMaster;
+import ioio.lib.api.TwiMaster;
+import ioio.lib.api.Uart;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.botiful.sdk.robot.Clock;
+import com.botiful.sdk.robot.Constants;
+
+/**
+ * An IOIO board simulated in the process, to run and measure the SDK without a robot, e.g. in continuous integration.<br />
+ * PWM and digital outputs record the values written to them. Analog inputs are sampled at {@link #SAMPLE_RATE}, like on
+ * the board: the rotary encoder pin reads a {@link HeadModel} driven by the head motor pins, the other pins read a
+ * constant (see {@link #setAnalogValue(int, float)}). The head only moves while its motor driver is awake and the
+ * peripheral circuit is on, if their pins are open.<br />
+ * Writes reach the pins, and samples reach the inputs, after the link latency (see {@link #setLinkLatencyMillis(int)}).
+ * Writes between beginBatch() and endBatch() are sent together at the last endBatch().<br />
+ * The board runs on the SDK {@link Clock}: install a {@link VirtualClock} to run faster than real time.
+ * {@link #injectConnectionLoss()} makes the blocked and the next calls throw ConnectionLostException, like a lost
+ * Bluetooth link.<br />
+ * Other peripherals are not simulated, and are a hard failure: opening a digital or pulse input, a UART, an SPI, TWI
+ * or ICSP master, or a cap sense input throws UnsupportedOperationException, whatever the state of the board. Code
+ * which opens one of them cannot run on the simulated board.
+ */
+public class SimulatedIOIO implements IOIO {
+	/** samples per second of the analog inputs */
+	public static final int SAMPLE_RATE = 1000;
+	/** longest link latency */
+	public static final int MAX_LINK_LATENCY_MILLIS = 1000;
+	private static final long SAMPLE_PERIOD_NANOS = 1000000000L/SAMPLE_RATE;
+	/** number of pins, pin 0 being the LED */
+	private static final int PIN_COUNT = 49;
+	/** reference voltage of the analog inputs */
+	private static final float REFERENCE_VOLTAGE = 3.3f;
+	// pin modes
+	private static final int PIN_CLOSED = 0;
+	private static final int PIN_PWM_OUTPUT = 1;
+	private static final int PIN_DIGITAL_OUTPUT = 2;
+	private static final int PIN_ANALOG_INPUT = 3;
+
+	private final HeadModel head_;
+	private volatile State state_ = State.INIT;
+	private Thread simulationThread_;
+
+	// pins, guarded by this
+	private final int[] pinModes_ = new int[PIN_COUNT];
+	private final float[] periodsMicros_ = new float[PIN_COUNT];
+	/** pulse widths applied to the PWM pins, in us */
+	private final float[] pulseWidths_ = new float[PIN_COUNT];
+	/** levels applied to the digital output pins */
+	private final boolean[] levels_ = new boolean[PIN_COUNT];
+	/** values of the analog pins other than the rotary encoder */
+	private final float[] analogValues_ = new float[PIN_COUNT];
+	/** open analog inputs. Never modified: replaced by a new copy on changes */
+	private volatile SimulatedAnalogInput[] analogInputs_ = new SimulatedAnalogInput[0];
+
+	// writes in flight, a ring guarded by this
+	private int[] writePins_ = new int[64];
+	private float[] writeValues_ = new float[64];
+	private long[] writeDueNanos_ = new long[64];
+	private int firstWrite_;
+	private int writeCount_;
+	/** depth of the nested batches, and number of writes held until the end of the batch */
+	private int batchDepth_;
+	private int batchWriteCount_;
+
+	// guarded by this
+	private long linkLatencyNanos_;
+	private boolean connectionLossScheduled_;
+	private long connectionLossNanos_;
+
+	// only used by the simulation thread
+	/** encoder samples of the last MAX_LINK_LATENCY_MILLIS, to deliver them late */
+	private final float[] encoderHistory_ = new float[MAX_LINK_LATENCY_MILLIS*SAMPLE_RATE/1000+1];
+	private int historyIndex_;
+
+	// statistics
+	private volatile long sampleCount_;
+	private volatile long pwmWriteCount_;
+	private volatile long digitalWriteCount_;
+	private volatile long batchCount_;
+
+	/**
+	 * Build the board, with a new head
+	 */
+	public SimulatedIOIO() {
+		this(new HeadModel());
+	}
+
+	/**
+	 * Build the board
+	 * @param head the head, e.g. the head of a board whose connection was lost
+	 */
+	public SimulatedIOIO(HeadModel head) {
+		head_ = head;
+	}
+
+	/**
+	 * @return the head driven by this board
+	 */
+	public HeadModel getHeadModel() {
+		return head_;
+	}
+
+	/**
+	 * Set the value read on an analog pin other than the rotary encoder
+	 * @param pin index number of the analog input pin
+	 * @param value value in [0,1]
+	 */
+	public synchronized void setAnalogValue(int pin, float value) {
+		analogValues_[pin] = Math.max(0, Math.min(1, value));
+	}
+
+	/**
+	 * Delay the writes and the samples, like the Bluetooth link. Samples are delayed by whole sample periods.
+	 * @param latencyMillis one-way latency, up to {@link #MAX_LINK_LATENCY_MILLIS}
+	 */
+	public synchronized void setLinkLatencyMillis(int latencyMillis) {
+		linkLatencyNanos_ = Math.max(0, Math.min(MAX_LINK_LATENCY_MILLIS, latencyMillis))*1000000L;
+	}
+
+	public synchronized int getLinkLatencyMillis() {
+		return (int) (linkLatencyNanos_/1000000);
+	}
+
+	/**
+	 * Lose the connection now: blocked and next calls throw ConnectionLostException, the pins stop changing.
+	 */
+	public void injectConnectionLoss() {
+		loseConnection();
+	}
+
+	/**
+	 * Lose the connection after a delay of the SDK clock
+	 * @param delayMillis delay before the loss, in ms
+	 */
+	public synchronized void scheduleConnectionLoss(int delayMillis) {
+		connectionLossScheduled_ = true;
+		connectionLossNanos_ = Clock.now()+delayMillis*1000000L;
+	}
+
+	/**
+	 * @param pin index number of a PWM output pin
+	 * @return the pulse width applied to the pin, in us, 0 if it is not open
+	 */
+	public synchronized float getPulseWidth(int pin) {
+		return (pinModes_[pin] == PIN_PWM_OUTPUT)?pulseWidths_[pin]:0;
+	}
+
+	/**
+	 * @param pin index number of a PWM output pin
+	 * @return the duty cycle applied to the pin, 0 if it is not open
+	 */
+	public synchronized float getDutyCycle(int pin) {
+		return (pinModes_[pin] == PIN_PWM_OUTPUT)?pulseWidths_[pin]/periodsMicros_[pin]:0;
+	}
+
+	/**
+	 * @param pin index number of a digital output pin
+	 * @return the level applied to the pin, false if it is not open
+	 */
+	public synchronized boolean getLevel(int pin) {
+		return (pinModes_[pin] == PIN_DIGITAL_OUTPUT) && levels_[pin];
+	}
+
+	/**
+	 * @return the drive applied to the head motor in [-1,1], 0 while its driver sleeps or is not powered
+	 */
+	public synchronized float getHeadDrive() {
+		if ((pinModes_[Constants.HEAD_MOTOR_DRIVERS_SLEEP_MODE_PIN] == PIN_DIGITAL_OUTPUT
+				&& !levels_[Constants.HEAD_MOTOR_DRIVERS_SLEEP_MODE_PIN])
+				|| (pinModes_[Constants.PERIPHERAL_CIRCUIT_DIGITAL_OUTPUT_PIN] == PIN_DIGITAL_OUTPUT
+				&& levels_[Constants.PERIPHERAL_CIRCUIT_DIGITAL_OUTPUT_PIN])) {
+			return 0;
+		}
+		return getDutyCycle(Constants.HEAD_POSITIVE_PWM_OUTPUT_PIN)-getDutyCycle(Constants.HEAD_REVERSE_PWM_OUTPUT_PIN);
+	}
+
+	/**
+	 * @return the number of samples taken on each analog input since the connection
+	 */
+	public long getSampleCount() {
+		return sampleCount_;
+	}
+
+	/**
+	 * @return the number of pulse widths and duty cycles applied to the PWM pins
+	 */
+	public long getPwmWriteCount() {
+		return pwmWriteCount_;
+	}
+
+	/**
+	 * @return the number of levels applied to the digital output pins
+	 */
+	public long getDigitalWriteCount() {
+		return digitalWriteCount_;
+	}
+
+	/**
+	 * @return the number of batches sent, not counting the empty ones
+	 */
+	public long getBatchCount() {
+		return batchCount_;
+	}
+
+	@Override
+	public synchronized void waitForConnect() throws ConnectionLostException {
+		if (state_ == State.DEAD) {
+			throw new ConnectionLostException();
+		}
+		if (state_ == State.INIT) {
+			state_ = State.CONNECTED;
+			simulationThread_ = new Thread("SimulatedIOIO") {
+				@Override
+				public void run() {
+					simulate();
+				}
+			};
+			simulationThread_.setDaemon(true);
+			simulationThread_.setPriority(8);
+			simulationThread_.start();
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		loseConnection();
+	}
+
+	@Override
+	public void waitForDisconnect() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			while (state_ != State.DEAD) {
+				wait();
+			}
+			thread = simulationThread_;
+		}
+		if (thread!=null) {
+			thread.join();
+		}
+	}
+
+	@Override
+	public State getState() {
+		return state_;
+	}
+
+	/**
+	 * Close all the pins, drop the writes in flight
+	 */
+	@Override
+	public synchronized void softReset() throws ConnectionLostException {
+		checkConnected();
+		for (int pin=0; pin<PIN_COUNT; pin++) {
+			pinModes_[pin] = PIN_CLOSED;
+		}
+		SimulatedAnalogInput[] inputs = analogInputs_;
+		for (int i=0; i<inputs.length; i++) {
+			inputs[i].markClosed();
+		}
+		analogInputs_ = new SimulatedAnalogInput[0];
+		writeCount_ = 0;
+		batchWriteCount_ = 0;
+	}
+
+	/**
+	 * Close all the pins, and lose the connection like the board which reboots
+	 */
+	@Override
+	public void hardReset() throws ConnectionLostException {
+		softReset();
+		loseConnection();
+	}
+
+	@Override
+	public String getImplVersion(VersionType versionType) throws ConnectionLostException {
+		checkConnected();
+		return "SIM";
+	}
+
+	@Override
+	public DigitalOutput openDigitalOutput(DigitalOutput.Spec spec, boolean startValue) throws ConnectionLostException {
+		return openDigitalOutput(spec.pin, startValue);
+	}
+
+	@Override
+	public DigitalOutput openDigitalOutput(int pin, DigitalOutput.Spec.Mode mode, boolean startValue)
+			throws ConnectionLostException {
+		return openDigitalOutput(pin, startValue);
+	}
+
+	@Override
+	public DigitalOutput openDigitalOutput(int pin) throws ConnectionLostException {
+		return openDigitalOutput(pin, false);
+	}
+
+	@Override
+	public synchronized DigitalOutput openDigitalOutput(int pin, boolean startValue) throws ConnectionLostException {
+		openPin(pin, PIN_DIGITAL_OUTPUT);
+		levels_[pin] = startValue;
+		return new SimulatedDigitalOutput(pin);
+	}
+
+	@Override
+	public PwmOutput openPwmOutput(DigitalOutput.Spec spec, int frequencyHz) throws ConnectionLostException {
+		return openPwmOutput(spec.pin, frequencyHz);
+	}
+
+	@Override
+	public synchronized PwmOutput openPwmOutput(int pin, int frequencyHz) throws ConnectionLostException {
+		openPin(pin, PIN_PWM_OUTPUT);
+		periodsMicros_[pin] = 1e6f/frequencyHz;
+		pulseWidths_[pin] = 0;
+		return new SimulatedPwmOutput(pin, periodsMicros_[pin]);
+	}
+
+	@Override
+	public synchronized AnalogInput openAnalogInput(int pin) throws ConnectionLostException {
+		openPin(pin, PIN_ANALOG_INPUT);
+		SimulatedAnalogInput input = new SimulatedAnalogInput(pin);
+		SimulatedAnalogInput[] inputs = new SimulatedAnalogInput[analogInputs_.length+1];
+		System.arraycopy(analogInputs_, 0, inputs, 0, analogInputs_.length);
+		inputs[analogInputs_.length] = input;
+		analogInputs_ = inputs;
+		return input;
+	}
+
+	@Override
+	public DigitalInput openDigitalInput(DigitalInput.Spec spec) {
+		throw new UnsupportedOperationException("Digital inputs are not simulated");
+	}
+
+	@Override
+	public DigitalInput openDigitalInput(int pin) {
+		throw new UnsupportedOperationException("Digital inputs are not simulated");
+	}
+
+	@Override
+	public DigitalInput openDigitalInput(int pin, DigitalInput.Spec.Mode mode) {
+		throw new UnsupportedOperationException("Digital inputs are not simulated");
+	}
+
+	@Override
+	public PulseInput openPulseInput(DigitalInput.Spec spec, PulseInput.ClockRate rate, PulseInput.PulseMode mode,
+			boolean doublePrecision) {
+		throw new UnsupportedOperationException("Pulse inputs are not simulated");
+	}
+
+	@Override
+	public PulseInput openPulseInput(int pin, PulseInput.PulseMode mode) {
+		throw new UnsupportedOperationException("Pulse inputs are not simulated");
+	}
+
+	@Override
+	public Uart openUart(DigitalInput.Spec rx, DigitalOutput.Spec tx, int baud, Uart.Parity parity,
+			Uart.StopBits stopbits) {
+		throw new UnsupportedOperationException("UARTs are not simulated");
+	}
+
+	@Override
+	public Uart openUart(int rx, int tx, int baud, Uart.Parity parity, Uart.StopBits stopbits) {
+		throw new UnsupportedOperationException("UARTs are not simulated");
+	}
+
+	@Override
+	public SpiMaster openSpiMaster(DigitalInput.Spec miso, DigitalOutput.Spec mosi, DigitalOutput.Spec clk,
+			DigitalOutput.Spec[] slaveSelect, SpiMaster.Config config) {
+		throw new UnsupportedOperationException("SPI is not simulated");
+	}
+
+	@Override
+	public SpiMaster openSpiMaster(int miso, int mosi, int clk, int[] slaveSelect, SpiMaster.Rate rate) {
+		throw new UnsupportedOperationException("SPI is not simulated");
+	}
+
+	@Override
+	public SpiMaster openSpiMaster(int miso, int mosi, int clk, int slaveSelect, SpiMaster.Rate rate) {
+		throw new UnsupportedOperationException("SPI is not simulated");
+	}
+
+	@Override
+	public TwiMaster openTwiMaster(int twiNum, TwiMaster.Rate rate, boolean smbus) {
+		throw new UnsupportedOperationException("TWI is not simulated");
+	}
+
+	@Override
+	public IcspMaster openIcspMaster() {
+		throw new UnsupportedOperationException("ICSP is not simulated");
+	}
+
+	@Override
+	public CapSense openCapSense(int pin) {
+		throw new UnsupportedOperationException("Cap sense is not simulated");
+	}
+
+	@Override
+	public CapSense openCapSense(int pin, float filterCoef) {
+		throw new UnsupportedOperationException("Cap sense is not simulated");
+	}
+
+	@Override
+	public synchronized void beginBatch() throws ConnectionLostException {
+		checkConnected();
+		batchDepth_++;
+	}
+
+	@Override
+	public synchronized void endBatch() throws ConnectionLostException {
+		checkConnected();
+		if (batchDepth_ > 0 && --batchDepth_ == 0 && batchWriteCount_ > 0) {
+			// the batch is sent: its writes are the last ones of the ring
+			long dueNanos = Clock.now()+linkLatencyNanos_;
+			for (int i=writeCount_-batchWriteCount_; i<writeCount_; i++) {
+				writeDueNanos_[(firstWrite_+i)%writeDueNanos_.length] = dueNanos;
+			}
+			batchWriteCount_ = 0;
+			batchCount_++;
+		}
+	}
+
+	private void checkConnected() throws ConnectionLostException {
+		if (state_ != State.CONNECTED) {
+			throw new ConnectionLostException();
+		}
+	}
+
+	private void openPin(int pin, int mode) throws ConnectionLostException {
+		checkConnected();
+		if (pin < 0 || pin >= PIN_COUNT) {
+			throw new IllegalArgumentException("Invalid pin: "+pin);
+		}
+		if (pinModes_[pin] != PIN_CLOSED) {
+			throw new IllegalArgumentException("Pin already open: "+pin);
+		}
+		pinModes_[pin] = mode;
+	}
+
+	private synchronized void closePin(int pin) {
+		pinModes_[pin] = PIN_CLOSED;
+	}
+
+	private synchronized void closeAnalogInput(SimulatedAnalogInput input) {
+		for (int i=0; i<analogInputs_.length; i++) {
+			if (analogInputs_[i] == input) {
+				SimulatedAnalogInput[] inputs = new SimulatedAnalogInput[analogInputs_.length-1];
+				System.arraycopy(analogInputs_, 0, inputs, 0, i);
+				System.arraycopy(analogInputs_, i+1, inputs, i, inputs.length-i);
+				analogInputs_ = inputs;
+				pinModes_[input.pin_] = PIN_CLOSED;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Queue a write until the link latency is over, or until the end of the batch
+	 */
+	private synchronized void queueWrite(int pin, float value) throws ConnectionLostException {
+		checkConnected();
+		if (writeCount_ == writePins_.length) {
+			growWrites();
+		}
+		int index = (firstWrite_+writeCount_)%writePins_.length;
+		writePins_[index] = pin;
+		writeValues_[index] = value;
+		writeDueNanos_[index] = Clock.now()+linkLatencyNanos_;
+		writeCount_++;
+		if (batchDepth_ > 0) {
+			batchWriteCount_++;
+		}
+	}
+
+	private void growWrites() {
+		int length = writePins_.length;
+		int[] pins = new int[2*length];
+		float[] values = new float[2*length];
+		long[] dueNanos = new long[2*length];
+		for (int i=0; i<writeCount_; i++) {
+			int index = (firstWrite_+i)%length;
+			pins[i] = writePins_[index];
+			values[i] = writeValues_[index];
+			dueNanos[i] = writeDueNanos_[index];
+		}
+		writePins_ = pins;
+		writeValues_ = values;
+		writeDueNanos_ = dueNanos;
+		firstWrite_ = 0;
+	}
+
+	/**
+	 * Apply the writes which have crossed the link, in order
+	 */
+	private void applyWrites(long nowNanos) {
+		// writes of the batch in progress are not sent yet
+		while (writeCount_ > batchWriteCount_ && writeDueNanos_[firstWrite_]-nowNanos <= 0) {
+			int pin = writePins_[firstWrite_];
+			if (pinModes_[pin] == PIN_PWM_OUTPUT) {
+				pulseWidths_[pin] = writeValues_[firstWrite_];
+				pwmWriteCount_++;
+			} else if (pinModes_[pin] == PIN_DIGITAL_OUTPUT) {
+				levels_[pin] = (writeValues_[firstWrite_] != 0);
+				digitalWriteCount_++;
+			}
+			firstWrite_ = (firstWrite_+1)%writePins_.length;
+			writeCount_--;
+		}
+	}
+
+	private void loseConnection() {
+		synchronized (this) {
+			if (state_ == State.DEAD) {
+				return;
+			}
+			state_ = State.DEAD;
+			notifyAll();
+		}
+		SimulatedAnalogInput[] inputs = analogInputs_;
+		for (int i=0; i<inputs.length; i++) {
+			inputs[i].wakeUp();
+		}
+	}
+
+	/**
+	 * Body of the simulation thread: one step per sample period of the SDK clock, until the connection is lost
+	 */
+	private void simulate() {
+		long sampleNanos = Clock.now();
+		while (state_ == State.CONNECTED) {
+			sampleNanos += SAMPLE_PERIOD_NANOS;
+			long delayNanos;
+			while ((delayNanos = sampleNanos-Clock.now()) > 0 && state_ == State.CONNECTED) {
+				Clock.get().parkNanos(delayNanos);
+			}
+			// when late, the missed steps are run in a row: the physics stays on the sample grid
+			step(sampleNanos);
+		}
+	}
+
+	private void step(long nowNanos) {
+		float drive;
+		long latencyNanos;
+		synchronized (this) {
+			if (connectionLossScheduled_ && nowNanos-connectionLossNanos_ >= 0) {
+				connectionLossScheduled_ = false;
+				loseConnection();
+			}
+			if (state_ != State.CONNECTED) {
+				return;
+			}
+			applyWrites(nowNanos);
+			drive = getHeadDrive();
+			latencyNanos = linkLatencyNanos_;
+		}
+		head_.step(drive, SAMPLE_PERIOD_NANOS/1e9);
+		historyIndex_ = (historyIndex_+1)%encoderHistory_.length;
+		encoderHistory_[historyIndex_] = head_.sampleEncoder();
+		long sampleCount = ++sampleCount_;
+		int delaySamples = (int) (latencyNanos/SAMPLE_PERIOD_NANOS);
+		if (sampleCount <= delaySamples) {
+			// the first samples are still on their way
+			return;
+		}
+		float encoderValue = encoderHistory_[(historyIndex_-delaySamples+encoderHistory_.length)%encoderHistory_.length];
+		SimulatedAnalogInput[] inputs = analogInputs_;
+		for (int i=0; i<inputs.length; i++) {
+			int pin = inputs[i].pin_;
+			float value;
+			if (pin == Constants.ROTARY_ENCODER_ANALOG_INPUT_PIN) {
+				value = encoderValue;
+			} else {
+				synchronized (this) {
+					value = analogValues_[pin];
+				}
+			}
+			inputs[i].push(value);
+		}
+	}
+
+	private class SimulatedPwmOutput implements PwmOutput {
+		private final int pin_;
+		private final float periodMicros_;
+		private volatile boolean closed_;
+
+		SimulatedPwmOutput(int pin, float periodMicros) {
+			pin_ = pin;
+			periodMicros_ = periodMicros;
+		}
+
+		@Override
+		public void setDutyCycle(float dutyCycle) throws ConnectionLostException {
+			setPulseWidth(dutyCycle*periodMicros_);
+		}
+
+		@Override
+		public void setPulseWidth(int pulseWidthUs) throws ConnectionLostException {
+			setPulseWidth((float) pulseWidthUs);
+		}
+
+		@Override
+		public void setPulseWidth(float pulseWidthUs) throws ConnectionLostException {
+			if (closed_) {
+				throw new IllegalStateException("Trying to use a closed resource");
+			}
+			queueWrite(pin_, Math.max(0, Math.min(periodMicros_, pulseWidthUs)));
+		}
+
+		@Override
+		public void close() {
+			if (!closed_) {
+				closed_ = true;
+				closePin(pin_);
+			}
+		}
+	}
+
+	private class SimulatedDigitalOutput implements DigitalOutput {
+		private final int pin_;
+		private volatile boolean closed_;
+
+		SimulatedDigitalOutput(int pin) {
+			pin_ = pin;
+		}
+
+		@Override
+		public void write(boolean level) throws ConnectionLostException {
+			if (closed_) {
+				throw new IllegalStateException("Trying to use a closed resource");
+			}
+			queueWrite(pin_, level?1:0);
+		}
+
+		@Override
+		public void close() {
+			if (!closed_) {
+				closed_ = true;
+				closePin(pin_);
+			}
+		}
+	}
+
+	private class SimulatedAnalogInput implements AnalogInput {
+		private final int pin_;
+		// guarded by this
+		private boolean closed_;
+		private boolean hasValue_;
+		private float lastValue_;
+		/** samples not read yet, a ring, null until setBuffer() is called */
+		private float[] buffer_;
+		private int first_;
+		private int count_;
+		private int overflowCount_;
+
+		SimulatedAnalogInput(int pin) {
+			pin_ = pin;
+		}
+
+		/**
+		 * Called by the simulation thread with each sample. When the buffer is full, the oldest sample is dropped.
+		 */
+		synchronized void push(float value) {
+			lastValue_ = value;
+			hasValue_ = true;
+			if (buffer_!=null) {
+				if (count_ == buffer_.length) {
+					first_ = (first_+1)%buffer_.length;
+					count_--;
+					overflowCount_++;
+				}
+				buffer_[(first_+count_)%buffer_.length] = value;
+				count_++;
+			}
+			notifyAll();
+		}
+
+		synchronized void wakeUp() {
+			notifyAll();
+		}
+
+		synchronized void markClosed() {
+			closed_ = true;
+			notifyAll();
+		}
+
+		private void checkUsable() throws ConnectionLostException {
+			if (closed_) {
+				throw new IllegalStateException("Trying to use a closed resource");
+			}
+			checkConnected();
+		}
+
+		@Override
+		public synchronized float read() throws InterruptedException, ConnectionLostException {
+			checkUsable();
+			while (!hasValue_) {
+				wait();
+				checkUsable();
+			}
+			return lastValue_;
+		}
+
+		@Override
+		public float getVoltage() throws InterruptedException, ConnectionLostException {
+			return read()*REFERENCE_VOLTAGE;
+		}
+
+		@Override
+		public float getReference() {
+			return REFERENCE_VOLTAGE;
+		}
+
+		@Override
+		public synchronized void setBuffer(int capacity) throws ConnectionLostException {
+			checkUsable();
+			buffer_ = (capacity > 0)?new float[capacity]:null;
+			first_ = 0;
+			count_ = 0;
+		}
+
+		@Override
+		public synchronized int getOverflowCount() throws ConnectionLostException {
+			checkUsable();
+			return overflowCount_;
+		}
+
+		@Override
+		public synchronized int available() throws ConnectionLostException {
+			checkUsable();
+			return count_;
+		}
+
+		@Override
+		public synchronized float readBuffered() throws InterruptedException, ConnectionLostException {
+			checkUsable();
+			if (buffer_ == null) {
+				throw new IllegalStateException("Need to call setBuffer() first");
+			}
+			while (count_ == 0) {
+				wait();
+				checkUsable();
+			}
+			float value = buffer_[first_];
+			first_ = (first_+1)%buffer_.length;
+			count_--;
+			return value;
+		}
+
+		@Override
+		public float getVoltageBuffered() throws InterruptedException, ConnectionLostException {
+			return readBuffered()*REFERENCE_VOLTAGE;
+		}
+
+		@Override
+		public float getSampleRate() throws ConnectionLostException {
+			checkConnected();
+			return SAMPLE_RATE;
+		}
+
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (closed_) {
+					return;
+				}
+				markClosed();
+			}
+			closeAnalogInput(this);
+		}
+	}
+}
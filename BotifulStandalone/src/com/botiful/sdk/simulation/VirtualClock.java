@@ -0,0 +1,51 @@
+package com.botiful.sdk.simulation;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.botiful.sdk.robot.Clock;
+
+/**
+ * A clock running at a multiple of real time, to run a {@link SimulatedIOIO} and the SDK faster than real time.<br />
+ * Install it with Clock.set() before building the robotic elements: the dates of the SDK and the waits of its
+ * threads then follow this clock, e.g. a 250ms drive command lifetime lasts 25ms of real time at a rate of 10.
+ */
+public class VirtualClock extends Clock {
+	private final double rate_;
+	private final long realOriginNanos_;
+	
+	/**
+	 * Build the clock, starting at 0
+	 * @param rate virtual time elapsed per unit of real time, e.g. 10 to run 10 times faster than real time
+	 * @throws IllegalArgumentException if the rate is not positive
+	 */
+	public VirtualClock(double rate) {
+		if (!(rate > 0)) {
+			throw new IllegalArgumentException("Rate must be positive: "+rate);
+		}
+		rate_ = rate;
+		realOriginNanos_ = System.nanoTime();
+	}
+	
+	@Override
+	public long nanoTime() {
+		return (long) ((System.nanoTime()-realOriginNanos_)*rate_);
+	}
+	
+	@Override
+	public void parkNanos(long nanos) {
+		LockSupport.parkNanos((long) (nanos/rate_));
+	}
+	
+	@Override
+	public void sleepNanos(long nanos) throws InterruptedException {
+		long realNanos = (long) (nanos/rate_);
+		Thread.sleep(realNanos/1000000, (int) (realNanos%1000000));
+	}
+	
+	/**
+	 * @return virtual time elapsed per unit of real time
+	 */
+	public double getRate() {
+		return rate_;
+	}
+}